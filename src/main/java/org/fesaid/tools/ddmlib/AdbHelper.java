@@ -3,6 +3,7 @@ package org.fesaid.tools.ddmlib;
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.EventLoop;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetSocketAddress;
@@ -11,13 +12,16 @@ import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import lombok.extern.slf4j.Slf4j;
 import org.fesaid.tools.ddmlib.log.LogReceiver;
 import org.fesaid.tools.ddmlib.netty.AdbConnection;
+import org.fesaid.tools.ddmlib.netty.AdbConnectionPool;
 import org.fesaid.tools.ddmlib.netty.AdbConnector;
 import org.fesaid.tools.ddmlib.netty.AdbNettyConfig;
 import org.fesaid.tools.ddmlib.netty.input.AdbFrameHandler;
+import org.fesaid.tools.ddmlib.netty.input.AdbInputHandler;
 import org.fesaid.tools.ddmlib.netty.input.AdbStreamInputHandler;
 import org.fesaid.tools.ddmlib.netty.input.FullByteBufInputHandler;
 
@@ -43,6 +47,7 @@ import static org.fesaid.tools.ddmlib.AdbHelper.AdbService.SHELL;
 
     public static final Charset DEFAULT_CHARSET = StandardCharsets.UTF_8;
     static AdbConnector adbConnector;
+    static AdbConnectionPool adbConnectionPool;
 
     /** do not instantiate */
     private AdbHelper() {
@@ -50,6 +55,25 @@ import static org.fesaid.tools.ddmlib.AdbHelper.AdbService.SHELL;
 
     public static void init(AdbNettyConfig config) {
         adbConnector = new AdbConnector(config);
+        if (config.isConnectionPoolEnabled()) {
+            adbConnectionPool = new AdbConnectionPool(adbConnector, config);
+        }
+    }
+
+    static void terminate() {
+        if (adbConnectionPool != null) {
+            adbConnectionPool.close();
+            adbConnectionPool = null;
+        }
+    }
+
+    /**
+     * @return the pool of pre-warmed adb connections, or null if {@link AdbNettyConfig#isConnectionPoolEnabled()} is
+     * false.
+     */
+    @Nullable
+    public static AdbConnectionPool getConnectionPool() {
+        return adbConnectionPool;
     }
 
     /**
@@ -76,6 +100,91 @@ import static org.fesaid.tools.ddmlib.AdbHelper.AdbService.SHELL;
         return adbConnector.connect(address, serialNumber);
     }
 
+    /**
+     * Connect to adb without blocking, the connection is registered on the given event loop.
+     *
+     * @param address adb server address
+     * @param eventLoop event loop to register the connection on
+     * @return future of the connection, completed on the given event loop
+     */
+    public static CompletableFuture<AdbConnection> connectAsync(InetSocketAddress address, EventLoop eventLoop) {
+        return adbConnector.connectAsync(address, null, eventLoop);
+    }
+
+    /**
+     * Opens a connection which already talks to the transport of the given device, taken from the connection pool
+     * when it is enabled.
+     *
+     * @param adbSockAddr adb socket address
+     * @param device the device to talk to
+     * @throws TimeoutException in case of timeout on the connection.
+     * @throws AdbCommandRejectedException if adb rejects the transport request
+     * @throws IOException in case of I/O error on the connection.
+     */
+    static AdbConnection openTransport(InetSocketAddress adbSockAddr, IDevice device)
+        throws TimeoutException, AdbCommandRejectedException, IOException {
+        if (adbConnectionPool != null) {
+            return adbConnectionPool.acquire(adbSockAddr, device.getSerialNumber());
+        }
+        AdbConnection adbConnection = adbConnector.connect(adbSockAddr, device.getSerialNumber());
+        try {
+            setDevice(adbConnection, device);
+        } catch (TimeoutException | AdbCommandRejectedException | RuntimeException e) {
+            adbConnection.close();
+            throw e;
+        }
+        return adbConnection;
+    }
+
+    /**
+     * Asynchronous version of {@link #openTransport(InetSocketAddress, IDevice)}, no thread is blocked while
+     * connecting.
+     *
+     * @param adbSockAddr adb socket address
+     * @param device the device to talk to
+     * @return future of the connection, the caller must close it
+     */
+    static CompletableFuture<AdbConnection> openTransportAsync(InetSocketAddress adbSockAddr, IDevice device) {
+        if (adbConnectionPool != null) {
+            AdbConnection adbConnection = adbConnectionPool.pollIdle(adbSockAddr, device.getSerialNumber());
+            if (adbConnection != null) {
+                return CompletableFuture.completedFuture(adbConnection);
+            }
+        }
+        return adbConnector.connectAsync(adbSockAddr, device.getSerialNumber()).thenCompose(adbConnection ->
+            sendAsync(adbConnection, "host:transport:" + device.getSerialNumber()).thenApply(v -> adbConnection));
+    }
+
+    /**
+     * Sends a request without blocking and closes the connection if it is rejected or times out.
+     *
+     * @param adbConnection the connection to adb
+     * @param request the request
+     * @param nextHandlers handlers of the data following the OKAY
+     * @return future completed once adb answered OKAY
+     */
+    static CompletableFuture<Void> sendAsync(AdbConnection adbConnection, String request,
+        AdbInputHandler... nextHandlers) {
+        return adbConnection.timeout(adbConnection.sendAsync(request, nextHandlers), DdmPreferences.getTimeOut(),
+            TimeUnit.MILLISECONDS, () -> new TimeoutException("Wait response timeout."))
+            .whenComplete((result, throwable) -> {
+                if (throwable != null) {
+                    adbConnection.close();
+                }
+            });
+    }
+
+    /**
+     * Opens a connection for host level requests, taken from the connection pool when it is enabled.
+     */
+    private static AdbConnection openHost(InetSocketAddress adbSockAddr, IDevice device)
+        throws TimeoutException, AdbCommandRejectedException, IOException {
+        if (adbConnectionPool != null) {
+            return adbConnectionPool.acquireHost(adbSockAddr, device.getSerialNumber());
+        }
+        return adbConnector.connect(adbSockAddr, device.getSerialNumber());
+    }
+
     /**
      * Creates and connects a new pass-through socket, from the host to a port on the device.
      *
@@ -111,6 +220,28 @@ import static org.fesaid.tools.ddmlib.AdbHelper.AdbService.SHELL;
         return adbChan;
     }
 
+    /**
+     * Opens a connection to a jdwp process without blocking, jdwp packets can be exchanged over it once the returned
+     * future completes.
+     *
+     * @param adbSockAddr adb socket address
+     * @param device the device running the process
+     * @param pid the process pid to connect to
+     * @param eventLoop event loop serving the connection, or null to pick one from the adb connection group
+     * @return future of the connection, completed exceptionally with a {@link TimeoutException} or an {@link
+     * AdbCommandRejectedException} if adb did not answer in time or refused the request
+     */
+    static CompletableFuture<AdbConnection> openJdwpConnectionAsync(InetSocketAddress adbSockAddr, IDevice device,
+        int pid, @Nullable EventLoop eventLoop) {
+        CompletableFuture<AdbConnection> connect = eventLoop == null ?
+            adbConnector.connectAsync(adbSockAddr, device.getSerialNumber()) :
+            adbConnector.connectAsync(adbSockAddr, device.getSerialNumber(), eventLoop);
+        return connect.thenCompose(adbConnection ->
+            sendAsync(adbConnection, "host:transport:" + device.getSerialNumber())
+                .thenCompose(v -> sendAsync(adbConnection, String.format("jdwp:%1$d", pid)))
+                .thenApply(v -> adbConnection));
+    }
+
     /**
      * Creates a port forwarding request to a jdwp process. This returns an array containing "####jwdp:{pid}".
      *
@@ -201,8 +332,7 @@ import static org.fesaid.tools.ddmlib.AdbHelper.AdbService.SHELL;
      */
     static RawImage getFrameBuffer(InetSocketAddress adbSockAddr, Device device, long timeout, TimeUnit unit)
         throws TimeoutException, AdbCommandRejectedException, IOException {
-        try (AdbConnection adbConnection = adbConnector.connect(adbSockAddr, device.getSerialNumber())) {
-            setDevice(adbConnection, device);
+        try (AdbConnection adbConnection = openTransport(adbSockAddr, device)) {
             AdbFrameHandler adbFrameHandler = new AdbFrameHandler();
             adbConnection.sendAndWaitSuccess(
                 "framebuffer:",
@@ -327,10 +457,7 @@ import static org.fesaid.tools.ddmlib.AdbHelper.AdbService.SHELL;
         @Nullable InputStream is) throws TimeoutException, AdbCommandRejectedException,
         ShellCommandUnresponsiveException, IOException {
         log.debug("Adb execute command: " + command);
-        try (AdbConnection adbConnection = adbConnector.connect(adbSockAddr, device.getSerialNumber())) {
-            // if the device is not -1, then we first tell adb we're looking to
-            // talk to a specific device
-            setDevice(adbConnection, device);
+        try (AdbConnection adbConnection = openTransport(adbSockAddr, device)) {
             AdbStreamInputHandler customRespondHandler = new AdbStreamInputHandler(rcvr);
             adbConnection.sendAndWaitSuccess(
                 adbService.name().toLowerCase() + ":" + command,
@@ -345,13 +472,43 @@ import static org.fesaid.tools.ddmlib.AdbHelper.AdbService.SHELL;
         }
     }
 
+    /**
+     * Asynchronous version of {@link #executeRemoteCommand(InetSocketAddress, String, IDevice, IShellOutputReceiver,
+     * long, TimeUnit)}. The output is handed to <var>rcvr</var> on the event loop of the connection as it arrives, and
+     * no thread is blocked while the command runs.
+     *
+     * @param adbSockAddr the {@link InetSocketAddress} to adb.
+     * @param command the shell command to execute
+     * @param device the {@link IDevice} on which to execute the command.
+     * @param rcvr the {@link IShellOutputReceiver} that will receives the output of the shell command
+     * @param maxTimeToOutputResponse max time before the command outputs anything, the future completes with a {@link
+     * ShellCommandUnresponsiveException} after it. A value of 0 means no timeout.
+     * @param maxTimeUnits Units for non-zero {@code maxTimeToOutputResponse} values.
+     * @return future completed when the command finished or the receiver has been cancelled
+     */
+    static CompletableFuture<Void> executeRemoteCommandAsync(InetSocketAddress adbSockAddr, String command,
+        IDevice device, IShellOutputReceiver rcvr, long maxTimeToOutputResponse, TimeUnit maxTimeUnits) {
+        log.debug("Adb execute command async: " + command);
+        return openTransportAsync(adbSockAddr, device).thenCompose(adbConnection -> {
+            AdbStreamInputHandler customRespondHandler = new AdbStreamInputHandler(rcvr);
+            CompletableFuture<Void> finish = customRespondHandler.getFinishFuture();
+            adbConnection.timeout(customRespondHandler.getRespondBeginFuture(), maxTimeToOutputResponse, maxTimeUnits,
+                ShellCommandUnresponsiveException::new)
+                .whenComplete((result, throwable) -> {
+                    if (throwable != null) {
+                        finish.completeExceptionally(throwable);
+                    }
+                });
+            return sendAsync(adbConnection, SHELL.name().toLowerCase() + ":" + command, customRespondHandler)
+                .thenCompose(v -> finish)
+                .whenComplete((result, throwable) -> adbConnection.close());
+        });
+    }
+
     static ByteBuf executeRemoteCommand(InetSocketAddress address, String command, Device device, long timeout,
         TimeUnit timeUnit) throws IOException, TimeoutException, AdbCommandRejectedException {
         log.debug("Adb execute command: " + command);
-        try (AdbConnection adbConnection = adbConnector.connect(address, device.getSerialNumber())) {
-            // if the device is not -1, then we first tell adb we're looking to
-            // talk to a specific device
-            setDevice(adbConnection, device);
+        try (AdbConnection adbConnection = openTransport(address, device)) {
             FullByteBufInputHandler customRespondHandler = new FullByteBufInputHandler();
             adbConnection.sendAndWaitSuccess(
                 SHELL.name().toLowerCase() + ":" + command,
@@ -437,8 +594,7 @@ import static org.fesaid.tools.ddmlib.AdbHelper.AdbService.SHELL;
      */
     public static void runLogService(InetSocketAddress adbSockAddr, Device device, String logName,
         LogReceiver rcvr) throws TimeoutException, AdbCommandRejectedException, IOException {
-        try (AdbConnection adbConnection = adbConnector.connect(adbSockAddr, device.getSerialNumber())) {
-            setDevice(adbConnection, device);
+        try (AdbConnection adbConnection = openTransport(adbSockAddr, device)) {
             AdbStreamInputHandler customHandler = new AdbStreamInputHandler(rcvr);
             adbConnection.sendAndWaitSuccess(
                 "log:" + logName,
@@ -466,7 +622,7 @@ import static org.fesaid.tools.ddmlib.AdbHelper.AdbService.SHELL;
     public static void createForward(InetSocketAddress adbSockAddr, Device device,
         String localPortSpec, String remotePortSpec)
         throws TimeoutException, AdbCommandRejectedException, IOException {
-        try (AdbConnection adbConnection = adbConnector.connect(adbSockAddr, device.getSerialNumber())) {
+        try (AdbConnection adbConnection = openHost(adbSockAddr, device)) {
             adbConnection.sendAndWaitSuccess(
                 String.format("host-serial:%1$s:forward:%2$s;%3$s", device.getSerialNumber(), localPortSpec, remotePortSpec),
                 DdmPreferences.getTimeOut(),
@@ -474,6 +630,23 @@ import static org.fesaid.tools.ddmlib.AdbHelper.AdbService.SHELL;
         }
     }
 
+    /**
+     * Asynchronous version of {@link #createForward(InetSocketAddress, Device, String, String)}.
+     *
+     * @param adbSockAddr the socket address to connect to adb
+     * @param device the device on which to do the port forwarding
+     * @param localPortSpec specification of the local port to forward, should be of format tcp:<port number>
+     * @param remotePortSpec specification of the remote port to forward to
+     * @return future completed once adb accepted the forward
+     */
+    public static CompletableFuture<Void> createForwardAsync(InetSocketAddress adbSockAddr, Device device,
+        String localPortSpec, String remotePortSpec) {
+        return adbConnector.connectAsync(adbSockAddr, device.getSerialNumber()).thenCompose(adbConnection ->
+            sendAsync(adbConnection, String.format("host-serial:%1$s:forward:%2$s;%3$s", device.getSerialNumber(),
+                localPortSpec, remotePortSpec))
+                .whenComplete((result, throwable) -> adbConnection.close()));
+    }
+
     /**
      * Remove a port forwarding between a local and a remote port.
      *
@@ -487,7 +660,7 @@ import static org.fesaid.tools.ddmlib.AdbHelper.AdbService.SHELL;
     public static void removeForward(InetSocketAddress adbSockAddr, Device device,
         String localPortSpec)
         throws TimeoutException, AdbCommandRejectedException, IOException {
-        try (AdbConnection adbConnection = adbConnector.connect(adbSockAddr, device.getSerialNumber())) {
+        try (AdbConnection adbConnection = openHost(adbSockAddr, device)) {
             adbConnection.sendAndWaitSuccess(
                 String.format("host-serial:%1$s:killforward:%2$s", device.getSerialNumber(), localPortSpec),
                 DdmPreferences.getTimeOut(),
@@ -675,8 +848,7 @@ import static org.fesaid.tools.ddmlib.AdbHelper.AdbService.SHELL;
      */
     public static void reboot(String into, InetSocketAddress adbSockAddr, Device device)
         throws TimeoutException, AdbCommandRejectedException, IOException {
-        try (AdbConnection adbConnection = adbConnector.connect(adbSockAddr, device.getSerialNumber())) {
-            setDevice(adbConnection, device);
+        try (AdbConnection adbConnection = openTransport(adbSockAddr, device)) {
             String message;
             if (into == null) {
                 message = "reboot:";
@@ -698,8 +870,7 @@ import static org.fesaid.tools.ddmlib.AdbHelper.AdbService.SHELL;
      */
     public static void root(@NonNull InetSocketAddress adbSockAddr, @NonNull Device device)
         throws TimeoutException, AdbCommandRejectedException, IOException {
-        try (AdbConnection adbConnection = adbConnector.connect(adbSockAddr, device.getSerialNumber())) {
-            setDevice(adbConnection, device);
+        try (AdbConnection adbConnection = openTransport(adbSockAddr, device)) {
             adbConnection.sendAndWaitSuccess("root:", DdmPreferences.getTimeOut(), TimeUnit.MILLISECONDS);
         }
     }
@@ -9,7 +9,7 @@ public class AllocationsParser {
      * Converts a VM class descriptor string ("Landroid/os/Debug;") to a dot-notation class name
      * ("android.os.Debug").
      */
-    private static String descriptorToDot(String str) {
+    static String descriptorToDot(String str) {
         // count the number of arrays.
         int array = 0;
         while (str.startsWith("[")) {
@@ -191,6 +191,15 @@ public class AllocationsParser {
         return allocations;
     }
 
+    /**
+     * Indexes the records without decoding them, see {@link AllocationsView}. The buffer is not
+     * copied and must not be modified while the view is in use.
+     */
+    @NonNull
+    public static AllocationsView index(@NonNull ByteBuffer data) {
+        return new AllocationsView(data);
+    }
+
     /**
      * In older versions of Android, there is a bug where the .alloc file will allow the header
      * field "number of entries" to overflow by 1. This results in the parser thinking there are 0
@@ -0,0 +1,355 @@
+package org.fesaid.tools.ddmlib;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Read only view over the raw data of a REAL (REcent ALlocation) reply.
+ *
+ * <p>Unlike {@link AllocationsParser#parse(ByteBuffer)} nothing is decoded upfront: the view keeps
+ * the offset of every record and reads fields straight from the buffer, strings are decoded the
+ * first time they are used. The aggregations only count into primitive tables, so summarizing
+ * tens of thousands of records does not create an object per record.
+ *
+ * <p>See {@link AllocationsParser} for the format of the data. Instances are not thread safe.
+ */
+public final class AllocationsView {
+    private final ByteBuffer mData;
+    private final int mEntryHdrLen;
+    private final int mStackFrameLen;
+    private final int[] mOffsets;
+    private final StringTable mClassNames;
+    private final StringTable mMethodNames;
+    private final StringTable mFileNames;
+
+    AllocationsView(@NonNull ByteBuffer data) {
+        mData = data.duplicate().order(ByteOrder.BIG_ENDIAN);
+        int messageHdrLen = (mData.get(0) & 0xff);
+        mEntryHdrLen = (mData.get(1) & 0xff);
+        mStackFrameLen = (mData.get(2) & 0xff);
+        int numEntries = (mData.getShort(3) & 0xffff);
+        int offsetToStrings = mData.getInt(5);
+        int numClassNames = (mData.getShort(9) & 0xffff);
+        int numMethodNames = (mData.getShort(11) & 0xffff);
+        int numFileNames = (mData.getShort(13) & 0xffff);
+
+        mClassNames = new StringTable(offsetToStrings, numClassNames);
+        mMethodNames = new StringTable(mClassNames.mEnd, numMethodNames);
+        mFileNames = new StringTable(mMethodNames.mEnd, numFileNames);
+
+        // A count of 0 may have overflowed on older VMs, walk the records up to the string table
+        // instead of trusting it, which does not need a patched copy of the data. Every record is
+        // at least a header long, which bounds their count.
+        boolean overflow = numEntries == 0;
+        int maxEntries = mEntryHdrLen == 0 ? 0 : Math.max(0, offsetToStrings - messageHdrLen) / mEntryHdrLen;
+        int[] offsets = new int[overflow ? Math.min(maxEntries, 1 << 16) : numEntries];
+        int count = 0;
+        int offset = messageHdrLen;
+        while (overflow ? offset + mEntryHdrLen <= offsetToStrings : count < numEntries) {
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            offsets[count++] = offset;
+            offset += mEntryHdrLen + (mData.get(offset + 8) & 0xff) * mStackFrameLen;
+        }
+        mOffsets = count == offsets.length ? offsets : Arrays.copyOf(offsets, count);
+    }
+
+    /**
+     * Returns the number of allocation records.
+     */
+    public int size() {
+        return mOffsets.length;
+    }
+
+    /**
+     * Returns the allocation number of the record, as in {@link AllocationInfo#getAllocNumber()}.
+     */
+    public int getAllocNumber(int index) {
+        checkIndex(index);
+        return mOffsets.length - index;
+    }
+
+    public int getAllocationSize(int index) {
+        return mData.getInt(offset(index));
+    }
+
+    public short getThreadId(int index) {
+        return mData.getShort(offset(index) + 4);
+    }
+
+    @NonNull
+    public String getAllocatedClass(int index) {
+        return mClassNames.get(mData.getShort(offset(index) + 6) & 0xffff);
+    }
+
+    public int getStackDepth(int index) {
+        return mData.get(offset(index) + 8) & 0xff;
+    }
+
+    /**
+     * Returns a frame of the stack trace of a record, frame 0 is the allocation site.
+     */
+    @NonNull
+    public StackTraceElement getStackFrame(int index, int frame) {
+        if (frame < 0 || frame >= getStackDepth(index)) {
+            throw new IndexOutOfBoundsException("frame " + frame + " of allocation " + index);
+        }
+        return readFrame(offset(index) + mEntryHdrLen + frame * mStackFrameLen);
+    }
+
+    /**
+     * Decodes a single record.
+     */
+    @NonNull
+    public AllocationInfo get(int index) {
+        StackTraceElement[] stackTrace = new StackTraceElement[getStackDepth(index)];
+        for (int i = 0; i < stackTrace.length; i++) {
+            stackTrace[i] = getStackFrame(index, i);
+        }
+        return new AllocationInfo(getAllocNumber(index), getAllocatedClass(index),
+            getAllocationSize(index), getThreadId(index), stackTrace);
+    }
+
+    /**
+     * Decodes every record, equivalent to {@link AllocationsParser#parse(ByteBuffer)}.
+     */
+    @NonNull
+    public AllocationInfo[] toArray() {
+        AllocationInfo[] allocations = new AllocationInfo[mOffsets.length];
+        for (int i = 0; i < allocations.length; i++) {
+            allocations[i] = get(i);
+        }
+        return allocations;
+    }
+
+    /**
+     * Groups the records by allocated class, largest total size first.
+     */
+    @NonNull
+    public List<Group<String>> aggregateByClass() {
+        int[] counts = new int[mClassNames.size()];
+        long[] sizes = new long[counts.length];
+        for (int offset : mOffsets) {
+            int classNameIndex = mData.getShort(offset + 6) & 0xffff;
+            counts[classNameIndex]++;
+            sizes[classNameIndex] += mData.getInt(offset);
+        }
+        List<Group<String>> groups = new ArrayList<>();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0) {
+                groups.add(new Group<>(mClassNames.get(i), counts[i], sizes[i]));
+            }
+        }
+        return sort(groups);
+    }
+
+    /**
+     * Groups the records by allocation site, largest total size first. Records without a stack
+     * trace are grouped under a <code>null</code> key.
+     */
+    @NonNull
+    public List<Group<StackTraceElement>> aggregateByTopFrame() {
+        LongCounter counter = new LongCounter();
+        int noFrameCount = 0;
+        long noFrameSize = 0;
+        for (int offset : mOffsets) {
+            int size = mData.getInt(offset);
+            if ((mData.get(offset + 8) & 0xff) == 0) {
+                noFrameCount++;
+                noFrameSize += size;
+            } else {
+                // class, method, file and line are 16 bits each, the frame packs into one long
+                counter.add(mData.getLong(offset + mEntryHdrLen), size);
+            }
+        }
+        List<Group<StackTraceElement>> groups = new ArrayList<>();
+        for (int slot = 0; slot < counter.mKeys.length; slot++) {
+            if (counter.mCounts[slot] != 0) {
+                groups.add(new Group<>(decodeFrame(counter.mKeys[slot]), counter.mCounts[slot],
+                    counter.mSizes[slot]));
+            }
+        }
+        if (noFrameCount != 0) {
+            groups.add(new Group<>(null, noFrameCount, noFrameSize));
+        }
+        return sort(groups);
+    }
+
+    /**
+     * Groups the records by allocating thread id, largest total size first.
+     */
+    @NonNull
+    public List<Group<Short>> aggregateByThread() {
+        LongCounter counter = new LongCounter();
+        for (int offset : mOffsets) {
+            counter.add(mData.getShort(offset + 4), mData.getInt(offset));
+        }
+        List<Group<Short>> groups = new ArrayList<>();
+        for (int slot = 0; slot < counter.mKeys.length; slot++) {
+            if (counter.mCounts[slot] != 0) {
+                groups.add(new Group<>((short) counter.mKeys[slot], counter.mCounts[slot],
+                    counter.mSizes[slot]));
+            }
+        }
+        return sort(groups);
+    }
+
+    private int offset(int index) {
+        checkIndex(index);
+        return mOffsets[index];
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mOffsets.length) {
+            throw new IndexOutOfBoundsException("allocation " + index + " of " + mOffsets.length);
+        }
+    }
+
+    private StackTraceElement readFrame(int offset) {
+        return decodeFrame(mData.getLong(offset));
+    }
+
+    private StackTraceElement decodeFrame(long frame) {
+        return new StackTraceElement(
+            mClassNames.get((int) (frame >>> 48) & 0xffff),
+            mMethodNames.get((int) (frame >>> 32) & 0xffff),
+            mFileNames.get((int) (frame >>> 16) & 0xffff),
+            (short) frame);
+    }
+
+    private static <K> List<Group<K>> sort(List<Group<K>> groups) {
+        groups.sort(Comparator.comparingLong((Group<K> group) -> group.mTotalSize).reversed());
+        return Collections.unmodifiableList(groups);
+    }
+
+    /**
+     * Records sharing the same key, with their count and total allocated size.
+     */
+    public static final class Group<K> {
+        private final K mKey;
+        private final int mCount;
+        private final long mTotalSize;
+
+        private Group(K key, int count, long totalSize) {
+            mKey = key;
+            mCount = count;
+            mTotalSize = totalSize;
+        }
+
+        /**
+         * Returns the key of the group, <code>null</code> for the records without a stack trace
+         * when grouping by top frame.
+         */
+        @Nullable
+        public K getKey() {
+            return mKey;
+        }
+
+        public int getCount() {
+            return mCount;
+        }
+
+        public long getTotalSize() {
+            return mTotalSize;
+        }
+
+        @Override
+        public String toString() {
+            return mKey + ": " + mCount + " allocations, " + mTotalSize + " bytes";
+        }
+    }
+
+    /**
+     * String table whose entries are only located upfront and decoded on first use.
+     */
+    private final class StringTable {
+        private final int[] mOffsets;
+        private final String[] mStrings;
+        private final int mEnd;
+
+        private StringTable(int offset, int count) {
+            mOffsets = new int[count];
+            mStrings = new String[count];
+            for (int i = 0; i < count; i++) {
+                mOffsets[i] = offset;
+                // 4-byte length followed by UTF-16 data
+                offset += 4 + mData.getInt(offset) * 2;
+            }
+            mEnd = offset;
+        }
+
+        private int size() {
+            return mStrings.length;
+        }
+
+        private String get(int index) {
+            String string = mStrings[index];
+            if (string == null) {
+                ByteBuffer data = mData.duplicate();
+                data.position(mOffsets[index] + 4);
+                string = AllocationsParser.descriptorToDot(
+                    ByteBufferUtil.getString(data, mData.getInt(mOffsets[index])));
+                mStrings[index] = string;
+            }
+            return string;
+        }
+    }
+
+    /**
+     * Open addressing table from a long key to a count and a total size.
+     */
+    private static final class LongCounter {
+        private long[] mKeys = new long[64];
+        private int[] mCounts = new int[64];
+        private long[] mSizes = new long[64];
+        private int mUsed;
+
+        private void add(long key, int size) {
+            int slot = find(mKeys, mCounts, key);
+            if (mCounts[slot] == 0) {
+                if (++mUsed * 2 > mKeys.length) {
+                    grow();
+                    slot = find(mKeys, mCounts, key);
+                }
+                mKeys[slot] = key;
+            }
+            mCounts[slot]++;
+            mSizes[slot] += size;
+        }
+
+        private void grow() {
+            long[] keys = mKeys;
+            int[] counts = mCounts;
+            long[] sizes = mSizes;
+            mKeys = new long[keys.length * 2];
+            mCounts = new int[keys.length * 2];
+            mSizes = new long[keys.length * 2];
+            for (int i = 0; i < keys.length; i++) {
+                if (counts[i] != 0) {
+                    int slot = find(mKeys, mCounts, keys[i]);
+                    mKeys[slot] = keys[i];
+                    mCounts[slot] = counts[i];
+                    mSizes[slot] = sizes[i];
+                }
+            }
+        }
+
+        private static int find(long[] keys, int[] counts, long key) {
+            int mask = keys.length - 1;
+            long hash = key * 0x9E3779B97F4A7C15L;
+            int slot = (int) (hash ^ (hash >>> 32)) & mask;
+            while (counts[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+    }
+}
@@ -196,7 +196,7 @@ public class AndroidDebugBridge {
 
         init(clientSupport, adbNettyConfig);
         if (DdmPreferences.isOpenAdbProxy()) {
-            AdbDeviceProxy.start(adbNettyConfig);
+            AdbDeviceProxy.start(adbNettyConfig, AdbHelper.adbConnector.getEventLoopGroup());
         }
     }
 
@@ -290,6 +290,7 @@ public class AndroidDebugBridge {
         if (monitorThread != null) {
             monitorThread.quit();
         }
+        AdbHelper.terminate();
 
         sInitialized = false;
     }
@@ -302,7 +303,11 @@ public class AndroidDebugBridge {
         return sClientSupport;
     }
 
-    static AdbNettyConfig getNettyConfig() {
+    /**
+     * Returns the netty config the bridge was initialized with, the default config before {@link #init}.
+     */
+    @NonNull
+    public static AdbNettyConfig getNettyConfig() {
         return sAdbNettyConfig;
     }
 
@@ -524,6 +529,15 @@ public class AndroidDebugBridge {
         return new IDevice[0];
     }
 
+    /**
+     * Returns the timing of setting up devices which came online, or null if the bridge is not monitoring devices.
+     */
+    @Nullable
+    public DeviceOnboardingMetrics getDeviceOnboardingMetrics() {
+        DeviceMonitor deviceMonitor = mDeviceMonitor;
+        return deviceMonitor == null ? null : deviceMonitor.getOnboardingMetrics();
+    }
+
     /**
      * Returns whether the bridge has acquired the initial list from adb after being created.
      * <p>Calling {@link #getDevices()} right after {@link #createBridge(String, boolean)} will
@@ -115,11 +115,13 @@ class BatteryFetcher {
 
     private Integer mBatteryLevel;
     private final IDevice mDevice;
+    private final DeviceStateRefresher mRefresher;
     private long mLastSuccessTime;
     private SettableFuture<Integer> mPendingRequest;
 
-    public BatteryFetcher(IDevice device) {
+    BatteryFetcher(IDevice device, DeviceStateRefresher refresher) {
         mDevice = device;
+        mRefresher = refresher;
     }
 
     /**
@@ -129,23 +131,25 @@ class BatteryFetcher {
      * @param timeUnit the {@link TimeUnit} of freshness
      * @return a {@link Future} that can be used to retrieve the battery level
      */
-    public synchronized Future<Integer> getBattery(long freshness, TimeUnit timeUnit) {
+    public Future<Integer> getBattery(long freshness, TimeUnit timeUnit) {
         SettableFuture<Integer> result;
-        if (mBatteryLevel == null || isFetchRequired(freshness, timeUnit)) {
-            if (mPendingRequest == null) {
-                // no request underway - start a new one
-                mPendingRequest = SettableFuture.create();
-                initiateBatteryQuery();
-            } else {
-                // fall through - return the already created future from the request already
-                // underway
+        synchronized (this) {
+            if (mBatteryLevel != null && !isFetchRequired(freshness, timeUnit)) {
+                // cache is populated within desired freshness
+                result = SettableFuture.create();
+                result.set(mBatteryLevel);
+                return result;
             }
-            result = mPendingRequest;
-        } else {
-            // cache is populated within desired freshness
+            if (mPendingRequest != null) {
+                // return the already created future from the request already underway
+                return mPendingRequest;
+            }
+            // no request underway - start a new one
             result = SettableFuture.create();
-            result.set(mBatteryLevel);
+            mPendingRequest = result;
         }
+        // the refresher completes the pending request, it must not be called while holding our lock
+        mRefresher.requestBattery();
         return result;
     }
 
@@ -154,37 +158,30 @@ class BatteryFetcher {
         return (System.currentTimeMillis() - mLastSuccessTime) > freshnessMs;
     }
 
-    private void initiateBatteryQuery() {
-        String threadName = String.format("query-battery-%s", mDevice.getSerialNumber());
-        Thread fetchThread = new Thread(threadName) {
-            @Override
-            public void run() {
-                Throwable exception;
-                try {
-                    // first try to get it from sysfs
-                    SysFsBatteryLevelReceiver sysBattReceiver = new SysFsBatteryLevelReceiver();
-                    mDevice.executeShellCommand("cat /sys/class/power_supply/*/capacity",
-                            sysBattReceiver, BATTERY_TIMEOUT_MS, TimeUnit.MILLISECONDS);
-                    if (!setBatteryLevel(sysBattReceiver.getBatteryLevel())) {
-                        // failed! try dumpsys
-                        BatteryReceiver receiver = new BatteryReceiver();
-                        mDevice.executeShellCommand("dumpsys battery", receiver, BATTERY_TIMEOUT_MS,
-                                TimeUnit.MILLISECONDS);
-                        if (setBatteryLevel(receiver.getBatteryLevel())) {
-                            return;
-                        }
-                    } else {
-                        return;
-                    }
-                    exception = new IOException("Unrecognized response to battery level queries");
-                } catch (Throwable e) {
-                    exception = e;
-                }
-                handleBatteryLevelFailure(exception);
+    /**
+     * Called by the refresher with the level read from sysfs.
+     *
+     * @param sysFsBatteryLevel battery level, null if sysfs could not be read
+     * @param requested whether this fetcher asked for the refresh
+     */
+    void onRefreshed(@Nullable Integer sysFsBatteryLevel, boolean requested) {
+        if (setBatteryLevel(sysFsBatteryLevel) || !requested) {
+            return;
+        }
+        // failed! try dumpsys, we are already on a device query thread
+        Throwable exception;
+        try {
+            BatteryReceiver receiver = new BatteryReceiver();
+            mDevice.executeShellCommand("dumpsys battery", receiver, BATTERY_TIMEOUT_MS,
+                    TimeUnit.MILLISECONDS);
+            if (setBatteryLevel(receiver.getBatteryLevel())) {
+                return;
             }
-        };
-        fetchThread.setDaemon(true);
-        fetchThread.start();
+            exception = new IOException("Unrecognized response to battery level queries");
+        } catch (Throwable e) {
+            exception = e;
+        }
+        handleBatteryLevelFailure(exception);
     }
 
     private synchronized boolean setBatteryLevel(Integer batteryLevel) {
@@ -200,7 +197,7 @@ class BatteryFetcher {
         return true;
     }
 
-    private synchronized void handleBatteryLevelFailure(Throwable e) {
+    synchronized void handleBatteryLevelFailure(Throwable e) {
         Log.w(LOG_TAG, String.format(
                 "%s getting battery level for device %s: %s",
                 e.getClass().getSimpleName(), mDevice.getSerialNumber(), e.getMessage()));
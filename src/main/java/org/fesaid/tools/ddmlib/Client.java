@@ -1,16 +1,25 @@
 package org.fesaid.tools.ddmlib;
 
 import com.android.annotations.NonNull;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.ReferenceCountUtil;
 import org.fesaid.tools.ddmlib.AndroidDebugBridge.IClientChangeListener;
 import org.fesaid.tools.ddmlib.jdwp.JdwpAgent;
 import org.fesaid.tools.ddmlib.jdwp.JdwpProtocol;
+import org.fesaid.tools.ddmlib.netty.AdbConnection;
+import org.fesaid.tools.ddmlib.netty.input.AdbInputHandler;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
-import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
-import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -57,7 +66,10 @@ public class Client extends JdwpAgent {
      */
     public static final int CHANGE_INFO = CHANGE_NAME | CHANGE_DEBUGGER_STATUS | CHANGE_PORT;
 
-    private SocketChannel mChan;
+    /**
+     * Jdwp connection to the VM, its reads are served by {@link JdwpInputHandler} on the event loop of the connection.
+     */
+    private volatile AdbConnection mConnection;
 
     // debugger we're associated with, if any
     private Debugger mDebugger;
@@ -80,10 +92,23 @@ public class Client extends JdwpAgent {
      *
      * Pass-through debugger traffic is sent without copying.  "mWriteBuffer"
      * is only used for data generated within Client.
+     *
+     * The read buffer is taken from the pooled allocator. Once a large reply
+     * has been consumed it goes back to the pool and the client falls back to
+     * a small one, so a single large reply does not pin memory for the life
+     * of the client. It is only touched by the event loop of the connection.
      */
     private static final int INITIAL_BUF_SIZE = 2*1024;
     private static final int MAX_BUF_SIZE = 800*1024*1024;
+    private ByteBuf mReadBuf;
+    /** View of {@link #mReadBuf} used by the packet parser. */
     private ByteBuffer mReadBuffer;
+    private volatile int mReadBufferCapacity;
+    private volatile int mReadBufferPeakCapacity;
+
+    /** streamed HPROF dump in flight, its payload bypasses the read buffer */
+    private volatile HprofSpill mHprofSpill;
+    private static final int HPDS_HEADER_LEN = JdwpPacket.JDWP_HEADER_LEN + ChunkHandler.CHUNK_HEADER_LEN;
 
     private Device mDevice;
 
@@ -103,15 +128,15 @@ public class Client extends JdwpAgent {
      * Create an object for a new client connection.
      *
      * @param device the device this client belongs to
-     * @param chan the connected {@link SocketChannel}.
+     * @param connection the connection already forwarded to the jdwp process.
      * @param pid the client pid.
      */
-    Client(Device device, SocketChannel chan, int pid) {
+    Client(Device device, AdbConnection connection, int pid) {
         super(new JdwpProtocol());
         mDevice = device;
-        mChan = chan;
+        mConnection = connection;
 
-        mReadBuffer = ByteBuffer.allocate(INITIAL_BUF_SIZE);
+        allocateReadBuffer(INITIAL_BUF_SIZE);
 
         mConnState = ST_INIT;
 
@@ -120,6 +145,9 @@ public class Client extends JdwpAgent {
         mThreadUpdateEnabled = DdmPreferences.getInitialThreadUpdate();
         mHeapInfoUpdateEnabled = DdmPreferences.getInitialHeapUpdate();
         mHeapSegmentUpdateEnabled = DdmPreferences.getInitialHeapUpdate();
+
+        // the VM does not send anything before our handshake, so no data can be missed until the handler is added
+        connection.addHandler(new JdwpInputHandler());
     }
 
     /**
@@ -227,6 +255,64 @@ public class Client extends JdwpAgent {
         }
     }
 
+    /**
+     * Makes the VM dump an HPROF file and streams it into the given local file as it is received,
+     * the dump is never held in memory. Completion is reported to
+     * {@link ClientData.IHprofDumpHandler#onSuccess(File, long, Client)}.
+     * @param localFile the file to write, created or truncated.
+     * @return false if the VM can not stream heap dumps, nothing is written in that case.
+     * @throws IOException if the file can not be opened, the request can not be sent or a dump
+     * is already being streamed.
+     */
+    public boolean dumpHprof(@NonNull File localFile) throws IOException {
+        if (!mClientData.hasFeature(ClientData.FEATURE_HPROF_STREAMING)) {
+            return false;
+        }
+        HprofSpill spill = HprofSpill.toFile(localFile);
+        try {
+            HandleHeap.sendHPDS(this, spill);
+        } catch (IOException e) {
+            spill.close();
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * Makes the VM dump an HPROF file and streams it into the given channel as it is received.
+     * The channel is written from a thread of its own, a slow channel pauses reading from this
+     * client instead of blocking the network thread. It is not closed.
+     * @param target the channel to write the dump to.
+     * @return false if the VM can not stream heap dumps, nothing is written in that case.
+     * @throws IOException if the request can not be sent or a dump is already being streamed.
+     */
+    public boolean dumpHprof(@NonNull WritableByteChannel target) throws IOException {
+        if (!mClientData.hasFeature(ClientData.FEATURE_HPROF_STREAMING)) {
+            return false;
+        }
+        HandleHeap.sendHPDS(this, HprofSpill.toChannel(target));
+        return true;
+    }
+
+    /**
+     * Registers the target of the next HPDS reply, must be called before the request is sent.
+     */
+    synchronized void setHprofSpill(@NonNull HprofSpill spill) throws IOException {
+        if (mConnection == null) {
+            throw new IOException(this + " is closed");
+        }
+        if (mHprofSpill != null) {
+            throw new IOException("A heap dump of " + this + " is already being streamed");
+        }
+        mHprofSpill = spill;
+    }
+
+    synchronized void clearHprofSpill(@NonNull HprofSpill spill) {
+        if (mHprofSpill == spill) {
+            mHprofSpill = null;
+        }
+    }
+
     /**
      * Toggles method profiling state.
      * @deprecated Use {@link #startMethodTracer()}, {@link #stopMethodTracer()},
@@ -532,15 +618,6 @@ public class Client extends JdwpAgent {
         }
     }
 
-    /**
-     * Registers the client with a Selector.
-     */
-    void register(Selector sel) throws IOException {
-        if (mChan != null) {
-            mChan.register(sel, SelectionKey.OP_READ, this);
-        }
-    }
-
     /**
      * Sets the client to accept debugger connection on the "selected debugger port".
      *
@@ -586,23 +663,29 @@ public class Client extends JdwpAgent {
      * On failure, closes the socket and returns false.
      */
     boolean sendHandshake() {
-        ByteBuffer tempBuffer = ByteBuffer.allocate(JdwpHandshake.HANDSHAKE_LEN);
-        try {
-            // assume write buffer can hold 14 bytes
-            JdwpHandshake.putHandshake(tempBuffer);
-            int expectedLen = tempBuffer.position();
-            tempBuffer.flip();
-            if (mChan.write(tempBuffer) != expectedLen)
-                throw new IOException("partial handshake write");
-        }
-        catch (IOException ioe) {
-            Log.e("ddms-client", "IO error during handshake: " + ioe.getMessage());
+        AdbConnection connection = mConnection;
+        if (connection == null || !connection.isActive()) {
+            Log.e("ddms-client", "IO error during handshake: connection closed");
             mConnState = ST_ERROR;
             close(true /* notify */);
             return false;
         }
+        ByteBuffer tempBuffer = ByteBuffer.allocate(JdwpHandshake.HANDSHAKE_LEN);
+        JdwpHandshake.putHandshake(tempBuffer);
+        tempBuffer.flip();
 
+        // the state must be set before the answer can be read on the event loop
         mConnState = ST_AWAIT_SHAKE;
+        connection.writeAndFlush(Unpooled.wrappedBuffer(tempBuffer)).addListener(future -> {
+            if (!future.isSuccess()) {
+                Log.e("ddms-client", "IO error during handshake: " + future.cause().getMessage());
+                mConnState = ST_ERROR;
+                MonitorThread monitorThread = MonitorThread.getInstance();
+                if (monitorThread != null) {
+                    monitorThread.dropClient(this, true);
+                }
+            }
+        });
 
         return true;
     }
@@ -610,76 +693,192 @@ public class Client extends JdwpAgent {
     /**
      * Send a DDM packet to the client.
      *
-     * Ideally, we can do this with a single channel write.  If that doesn't
-     * happen, we have to prevent anybody else from writing to the channel
-     * until this packet completes, so we synchronize on the channel.
-     *
-     * Another goal is to avoid unnecessary buffer copies, so we write
-     * directly out of the JdwpPacket's ByteBuffer.
+     * The packet is copied since its buffer may be reused as soon as this
+     * returns, the write itself happens on the event loop of the connection
+     * which keeps concurrent packets from interleaving.
      */
     @Override
     protected void send(@NonNull JdwpPacket packet) throws IOException {
-        // Fix to avoid a race condition on mChan. This should be better synchronized
-        // but just capturing the channel here, avoids a NPE.
-        SocketChannel chan = mChan;
-        if (chan == null) {
+        // capture the connection, it becomes null once the client is closed.
+        AdbConnection connection = mConnection;
+        if (connection == null) {
             // can happen for e.g. THST packets
             Log.v("ddms", "Not sending packet -- client is closed");
             return;
         }
 
         packet.log("Client: sending jdwp packet to Android Device");
-        // Synchronizing on this variable is still useful as we do not want to threads
-        // reading at the same time from the same channel, and the only change that
-        // can happen to this channel is to be closed and mChan become null.
-        //noinspection SynchronizationOnLocalVariableOrMethodParameter
-        synchronized (chan) {
-            try {
-                packet.write(chan);
+        int id = packet.getId();
+        connection.writeAndFlush(packet.copyToByteBuf()).addListener(future -> {
+            if (!future.isSuccess()) {
+                removeReplyInterceptor(id);
+                Log.w("ddms", "Failed to send packet to " + this + ": " + future.cause().getMessage());
             }
-            catch (IOException ioe) {
-                removeReplyInterceptor(packet.getId());
-                throw ioe;
-            }
-        }
+        });
     }
 
     /**
-     * Read data from our channel.
+     * Append data received from our connection to the read buffer.
      *
-     * This is called when data is known to be available, and we don't yet
-     * have a full packet in the buffer.  If the buffer is at capacity,
-     * expand it.
+     * If the buffer can not hold it, expand it.
      */
-    void read()
-        throws IOException, BufferOverflowException {
+    void read(ByteBuf in)
+        throws BufferOverflowException {
 
-        int count;
+        int count = in.readableBytes();
 
-        if (mReadBuffer.position() == mReadBuffer.capacity()) {
-            if (mReadBuffer.capacity() * 2 > MAX_BUF_SIZE) {
+        if (mReadBuffer.remaining() < count) {
+            long capacity = mReadBuffer.capacity();
+            while (capacity - mReadBuffer.position() < count) {
+                capacity *= 2;
+            }
+            if (capacity > MAX_BUF_SIZE) {
                 Log.e("ddms", "Exceeded MAX_BUF_SIZE!");
                 throw new BufferOverflowException();
             }
-            Log.d("ddms", "Expanding read buffer to "
-                + mReadBuffer.capacity() * 2);
+            Log.d("ddms", "Expanding read buffer to " + capacity);
 
-            ByteBuffer newBuffer = ByteBuffer.allocate(mReadBuffer.capacity() * 2);
+            ByteBuf oldBuf = mReadBuf;
+            ByteBuffer oldBuffer = mReadBuffer;
+            allocateReadBuffer((int) capacity);
 
             // copy entire buffer to new buffer
-            mReadBuffer.position(0);
-            newBuffer.put(mReadBuffer);  // leaves "position" at end of copied
-
-            mReadBuffer = newBuffer;
+            oldBuffer.flip();
+            mReadBuffer.put(oldBuffer);  // leaves "position" at end of copied
+            oldBuf.release();
         }
 
-        count = mChan.read(mReadBuffer);
-        if (count < 0)
-            throw new IOException("read failed");
+        int limit = mReadBuffer.limit();
+        mReadBuffer.limit(mReadBuffer.position() + count);
+        in.readBytes(mReadBuffer);
+        mReadBuffer.limit(limit);
 
         if (Log.Config.LOGV) Log.v("ddms", "Read " + count + " bytes from " + this);
-        //Log.hexDump("ddms", Log.DEBUG, mReadBuffer.array(),
-        //    mReadBuffer.arrayOffset(), mReadBuffer.position());
+    }
+
+    private void allocateReadBuffer(int capacity) {
+        ByteBufAllocator allocator = PooledByteBufAllocator.DEFAULT;
+        mReadBuf = AndroidDebugBridge.getNettyConfig().isClientReadBufferDirect() ?
+            allocator.directBuffer(capacity, capacity) : allocator.heapBuffer(capacity, capacity);
+        mReadBuffer = mReadBuf.nioBuffer(0, capacity);
+        mReadBufferCapacity = capacity;
+        mReadBufferPeakCapacity = Math.max(mReadBufferPeakCapacity, capacity);
+    }
+
+    /**
+     * Give a grown read buffer back to the pool once every packet in it has been consumed.
+     */
+    private void shrinkReadBuffer() {
+        if (mReadBuffer.position() == 0 && mReadBuffer.capacity() > INITIAL_BUF_SIZE) {
+            Log.d("ddms", "Shrinking read buffer of " + this + " to " + INITIAL_BUF_SIZE);
+            mReadBuf.release();
+            allocateReadBuffer(INITIAL_BUF_SIZE);
+        }
+    }
+
+    /**
+     * Hand the part of a streamed HPROF dump at the start of the data to its spill, without copying it.
+     */
+    private void spillHprof(ByteBuf in) {
+        HprofSpill spill = mHprofSpill;
+        if (spill == null || !spill.isStarted() || spill.isDone()) {
+            return;
+        }
+        int count = (int) Math.min(in.readableBytes(), spill.getRemaining());
+        spill.write(in.retainedSlice(in.readerIndex(), count));
+        in.skipBytes(count);
+        finishHprofSpillIfDone(spill);
+    }
+
+    /**
+     * Returns the next packet in the read buffer, unless a streamed HPROF dump has taken over the data.
+     */
+    private JdwpPacket nextJdwpPacket(Channel channel) throws IOException {
+        while (startHprofSpill(channel)) {
+            HprofSpill spill = mHprofSpill;
+            if (spill != null && spill.isStarted()) {
+                return null;
+            }
+        }
+        return getJdwpPacket();
+    }
+
+    /**
+     * If the read buffer starts with the header of the HPDS reply that is being streamed, consume
+     * it and hand the buffered part of the dump to the spill.
+     *
+     * @return true if the header was consumed.
+     */
+    private boolean startHprofSpill(Channel channel) {
+        HprofSpill spill = mHprofSpill;
+        if (spill == null || spill.isStarted() || mReadBuffer.position() < HPDS_HEADER_LEN ||
+            (mConnState != ST_NEED_DDM_PKT && mConnState != ST_NOT_DDM && mConnState != ST_READY)) {
+            return false;
+        }
+        ByteBuffer buf = mReadBuffer.duplicate().order(ChunkHandler.CHUNK_ORDER);
+        int length = buf.getInt(0x00);
+        int id = buf.getInt(0x04);
+        boolean isReply = (buf.get(0x08) & 0x80) != 0;
+        if (!isReply || id != spill.getRequestId()) {
+            return false;
+        }
+        if (buf.getShort(0x09) != 0 || length < HPDS_HEADER_LEN ||
+            buf.getInt(JdwpPacket.JDWP_HEADER_LEN) != HandleHeap.CHUNK_HPDS) {
+            // let the regular handlers deal with the failure
+            mHprofSpill = null;
+            spill.fail("VM did not stream the heap dump");
+            spill.finish(() -> HandleHeap.handleHPDSSpilled(this, spill));
+            return false;
+        }
+
+        removeReplyInterceptor(id);
+        MonitorThread.getInstance().getDdmExtension().ddmSeen(this);
+        Log.d("ddm-hprof", "Streaming hprof dump of " + this + ", size: " + (length - HPDS_HEADER_LEN) + " bytes");
+        spill.start(length - HPDS_HEADER_LEN, channel);
+        mReadBuffer.flip();
+        mReadBuffer.position(HPDS_HEADER_LEN);
+        spill.write(mReadBuffer);
+        mReadBuffer.compact();
+        finishHprofSpillIfDone(spill);
+        return true;
+    }
+
+    private void finishHprofSpillIfDone(HprofSpill spill) {
+        if (spill.isDone()) {
+            mHprofSpill = null;
+            spill.finish(() -> HandleHeap.handleHPDSSpilled(this, spill));
+        }
+    }
+
+    private void abortHprofSpill() {
+        HprofSpill spill = mHprofSpill;
+        if (spill != null) {
+            mHprofSpill = null;
+            spill.fail("Connection to " + this + " closed");
+            spill.finish(() -> HandleHeap.handleHPDSSpilled(this, spill));
+        }
+    }
+
+    private void releaseReadBuffer() {
+        if (mReadBuf != null) {
+            mReadBuf.release();
+            mReadBuf = null;
+            mReadBufferCapacity = 0;
+        }
+    }
+
+    /**
+     * Returns the capacity of the buffer currently holding the data read from the VM, in bytes.
+     */
+    public int getReadBufferCapacity() {
+        return mReadBufferCapacity;
+    }
+
+    /**
+     * Returns the largest capacity the read buffer has grown to, in bytes.
+     */
+    public int getReadBufferPeakCapacity() {
+        return mReadBufferPeakCapacity;
     }
 
     /**
@@ -806,20 +1005,15 @@ public class Client extends JdwpAgent {
         Log.d("ddms", "Closing " + this.toString());
 
         clear();
-        try {
-            if (mChan != null) {
-                mChan.close();
-                mChan = null;
-            }
-
-            if (mDebugger != null) {
-                mDebugger.close();
-                mDebugger = null;
-            }
+        AdbConnection connection = mConnection;
+        if (connection != null) {
+            mConnection = null;
+            connection.close();
         }
-        catch (IOException ioe) {
-            Log.w("ddms", "failed to close " + this);
-            // swallow it -- not much else to do
+
+        if (mDebugger != null) {
+            mDebugger.close();
+            mDebugger = null;
         }
 
         mDevice.removeClient(this, notify);
@@ -829,12 +1023,87 @@ public class Client extends JdwpAgent {
      * Returns whether this {@link Client} has a valid connection to the application VM.
      */
     public boolean isValid() {
-        return mChan != null;
+        return mConnection != null;
     }
 
     void update(int changeMask) {
         mDevice.update(this, changeMask);
     }
 
+    /**
+     * Parses the jdwp packets received from the VM and hands them to the extensions and the debugger.
+     */
+    private class JdwpInputHandler extends ChannelInboundHandlerAdapter implements AdbInputHandler {
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ByteBuf in = (ByteBuf) msg;
+            try {
+                // the payload of a streamed heap dump goes straight to its spill
+                spillHprof(in);
+                if (!in.isReadable()) {
+                    return;
+                }
+                read(in);
+
+                /*
+                 * See if we have a full packet in the buffer. It's possible we have
+                 * more than one packet, so we have to loop.
+                 */
+                JdwpPacket packet = nextJdwpPacket(ctx.channel());
+                while (packet != null) {
+                    packet.log("Client: received jdwp packet");
+                    incoming(packet, getDebugger());
+
+                    packet.consume();
+                    // find next
+                    packet = nextJdwpPacket(ctx.channel());
+                }
+                shrinkReadBuffer();
+            } catch (IOException e) {
+                // something closed down, no need to print anything. The client is simply dropped.
+                drop();
+            } catch (Exception ex) {
+                if (ex instanceof BufferOverflowException) {
+                    Log.w("ddms",
+                            "Client data packet exceeded maximum buffer size "
+                                    + Client.this);
+                } else {
+                    // don't know what this is, display it
+                    Log.e("ddms", ex);
+                }
+                drop();
+            } finally {
+                ReferenceCountUtil.release(in);
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            drop();
+        }
+
+        @Override
+        public void handlerRemoved(ChannelHandlerContext ctx) {
+            // called on the event loop once the connection is gone, nothing reads the buffer anymore
+            abortHprofSpill();
+            releaseReadBuffer();
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            Log.d("ddms", "Error reading from " + Client.this + ": " + cause.getMessage());
+            drop();
+        }
+
+        private void drop() {
+            MonitorThread monitorThread = MonitorThread.getInstance();
+            if (monitorThread != null) {
+                // does nothing if the client has already been dropped
+                monitorThread.dropClient(Client.this, true);
+            }
+        }
+    }
+
 }
 
@@ -2,6 +2,7 @@ package org.fesaid.tools.ddmlib;
 
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
+import java.io.File;
 
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
@@ -9,12 +10,13 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
@@ -28,8 +30,10 @@ public class ClientData {
     * Message handlers are welcome to stash arbitrary data here.
     *
     * IMPORTANT: The data here is written by HandleFoo methods and read by
-    * FooPanel methods, which run in different threads.  All non-trivial
-    * access should be synchronized against the ClientData object.
+    * FooPanel methods, which run in different threads.  Collections are
+    * published as immutable snapshots through volatile fields: writers
+    * synchronize against the ClientData object and replace the snapshot,
+    * readers never take the lock so they can't stall packet processing.
     */
 
 
@@ -161,10 +165,10 @@ public class ClientData {
     private DebuggerStatus mDebuggerInterest;
 
     // List of supported features by the client.
-    private final HashSet<String> mFeatures = new HashSet<String>();
+    private final Set<String> mFeatures = ConcurrentHashMap.newKeySet();
 
-    // Thread tracking (THCR, THDE).
-    private TreeMap<Integer,ThreadInfo> mThreadMap;
+    // Thread tracking (THCR, THDE), immutable snapshot.
+    private volatile Map<Integer,ThreadInfo> mThreadMap = Collections.emptyMap();
 
     /** VM Heap data */
     private final HeapData mHeapData = new HeapData();
@@ -172,29 +176,28 @@ public class ClientData {
     private final HeapData mNativeHeapData = new HeapData();
 
     /** Hprof data */
-    private HprofData mHprofData = null;
+    private volatile HprofData mHprofData = null;
 
-    private HashMap<Integer, HeapInfo> mHeapInfoMap = new HashMap<Integer, HeapInfo>();
+    /** heap info per heap id, immutable snapshot */
+    private volatile Map<Integer, HeapInfo> mHeapInfoMap = Collections.emptyMap();
 
     /** library map info. Stored here since the backtrace data
-     * is computed on a need to display basis.
+     * is computed on a need to display basis. Immutable snapshot.
      */
-    private ArrayList<NativeLibraryMapInfo> mNativeLibMapInfo =
-        new ArrayList<NativeLibraryMapInfo>();
+    private volatile List<NativeLibraryMapInfo> mNativeLibMapInfo = Collections.emptyList();
 
-    /** Native Alloc info list */
-    private ArrayList<NativeAllocationInfo> mNativeAllocationList =
-        new ArrayList<NativeAllocationInfo>();
-    private int mNativeTotalMemory;
+    /** Native Alloc info list, immutable snapshot */
+    private volatile List<NativeAllocationInfo> mNativeAllocationList = Collections.emptyList();
+    private volatile int mNativeTotalMemory;
 
-    private byte[] mAllocationsData;
-    private AllocationInfo[] mAllocations;
-    private AllocationTrackingStatus mAllocationStatus = AllocationTrackingStatus.UNKNOWN;
+    private volatile byte[] mAllocationsData;
+    private volatile AllocationInfo[] mAllocations;
+    private volatile AllocationTrackingStatus mAllocationStatus = AllocationTrackingStatus.UNKNOWN;
 
     @Deprecated
     private String mPendingHprofDump;
 
-    private MethodProfilingStatus mProfilingStatus = MethodProfilingStatus.UNKNOWN;
+    private volatile MethodProfilingStatus mProfilingStatus = MethodProfilingStatus.UNKNOWN;
     private String mPendingMethodProfiling;
 
     /**
@@ -321,23 +324,44 @@ public class ClientData {
     public static class HprofData {
         public enum Type {
             FILE,
-            DATA
+            DATA,
+            /**
+             * Streamed from the VM into a local file or a caller supplied channel.
+             */
+            STREAM
         }
 
         public final Type type;
         public final String filename;
         public final byte[] data;
+        /**
+         * Local file the dump was streamed to, null if it was streamed to a caller supplied channel.
+         */
+        public final File localFile;
+        public final long size;
 
         public HprofData(@NonNull String filename) {
             type = Type.FILE;
             this.filename = filename;
             this.data = null;
+            this.localFile = null;
+            this.size = -1;
         }
 
         public HprofData(@NonNull byte[] data) {
             type = Type.DATA;
             this.data = data;
             this.filename = null;
+            this.localFile = null;
+            this.size = data.length;
+        }
+
+        public HprofData(@Nullable File localFile, long size) {
+            type = Type.STREAM;
+            this.localFile = localFile;
+            this.size = size;
+            this.filename = null;
+            this.data = null;
         }
     }
 
@@ -360,6 +384,16 @@ public class ClientData {
          */
         void onSuccess(byte[] data, Client client);
 
+        /**
+         * Called when a HPROF dump requested by {@link Client#dumpHprof(File)} or
+         * {@link Client#dumpHprof(java.nio.channels.WritableByteChannel)} has been streamed.
+         * @param localFile the file the dump was written to, <code>null</code> for a caller supplied channel.
+         * @param size size of the dump in bytes.
+         * @param client the client that was profiled.
+         */
+        default void onSuccess(@Nullable File localFile, long size, Client client) {
+        }
+
         /**
          * Called when a hprof dump failed to end on the VM side
          * @param client the client that was profiled.
@@ -422,6 +456,10 @@ public class ClientData {
         mHprofData = new HprofData(filename);
     }
 
+    public void setHprofData(@Nullable File localFile, long size) {
+        mHprofData = new HprofData(localFile, size);
+    }
+
     public void clearHprofData() {
         mHprofData = null;
     }
@@ -478,7 +516,6 @@ public class ClientData {
         mPid = pid;
 
         mDebuggerInterest = DebuggerStatus.DEFAULT;
-        mThreadMap = new TreeMap<Integer,ThreadInfo>();
     }
 
     /**
@@ -628,8 +665,10 @@ public class ClientData {
                                   long objectsAllocated,
                                   long timeStamp,
                                   byte reason) {
-        mHeapInfoMap.put(heapId, new HeapInfo(maxSizeInBytes, sizeInBytes, bytesAllocated,
+        Map<Integer, HeapInfo> heapInfoMap = new HashMap<Integer, HeapInfo>(mHeapInfoMap);
+        heapInfoMap.put(heapId, new HeapInfo(maxSizeInBytes, sizeInBytes, bytesAllocated,
                 objectsAllocated, timeStamp, reason));
+        mHeapInfoMap = Collections.unmodifiableMap(heapInfoMap);
     }
 
     /**
@@ -649,11 +688,11 @@ public class ClientData {
     /**
      * Returns an iterator over the list of known VM heap ids.
      * <p>
-     * The caller must synchronize on the {@link ClientData} object while iterating.
+     * The iterator walks a snapshot, later updates are not visible to it.
      *
      * @return an iterator over the list of heap ids
      */
-    public synchronized Iterator<Integer> getVmHeapIds() {
+    public Iterator<Integer> getVmHeapIds() {
         return mHeapInfoMap.keySet().iterator();
     }
 
@@ -664,7 +703,7 @@ public class ClientData {
      * @return a map containing the info values for the specified heap.
      *         Returns <code>null</code> if the heap ID is unknown.
      */
-    public synchronized HeapInfo getVmHeapInfo(int heapId) {
+    public HeapInfo getVmHeapInfo(int heapId) {
         return mHeapInfoMap.get(heapId);
     }
 
@@ -673,14 +712,20 @@ public class ClientData {
      */
     synchronized void addThread(int threadId, String threadName) {
         ThreadInfo attr = new ThreadInfo(threadId, threadName);
-        mThreadMap.put(threadId, attr);
+        TreeMap<Integer,ThreadInfo> threadMap = new TreeMap<Integer,ThreadInfo>(mThreadMap);
+        threadMap.put(threadId, attr);
+        mThreadMap = Collections.unmodifiableMap(threadMap);
     }
 
     /**
      * Removes a thread from the list.
      */
     synchronized void removeThread(int threadId) {
-        mThreadMap.remove(threadId);
+        if (mThreadMap.containsKey(threadId)) {
+            TreeMap<Integer,ThreadInfo> threadMap = new TreeMap<Integer,ThreadInfo>(mThreadMap);
+            threadMap.remove(threadId);
+            mThreadMap = Collections.unmodifiableMap(threadMap);
+        }
     }
 
     /**
@@ -688,7 +733,7 @@ public class ClientData {
      * <p>The list is empty until a thread update was requested with
      * {@link Client#requestThreadUpdate()}.
      */
-    public synchronized ThreadInfo[] getThreads() {
+    public ThreadInfo[] getThreads() {
         Collection<ThreadInfo> threads = mThreadMap.values();
         return threads.toArray(new ThreadInfo[0]);
     }
@@ -696,20 +741,20 @@ public class ClientData {
     /**
      * Returns the {@link ThreadInfo} by thread id.
      */
-    synchronized ThreadInfo getThread(int threadId) {
+    ThreadInfo getThread(int threadId) {
         return mThreadMap.get(threadId);
     }
 
     synchronized void clearThreads() {
-        mThreadMap.clear();
+        mThreadMap = Collections.emptyMap();
     }
 
     /**
      * Returns the list of {@link NativeAllocationInfo}.
      * @see Client#requestNativeHeapInformation()
      */
-    public synchronized List<NativeAllocationInfo> getNativeAllocationList() {
-        return Collections.unmodifiableList(mNativeAllocationList);
+    public List<NativeAllocationInfo> getNativeAllocationList() {
+        return mNativeAllocationList;
     }
 
     /**
@@ -717,40 +762,62 @@ public class ClientData {
      * @param allocInfo The {@link NativeAllocationInfo} to add.
      */
     synchronized void addNativeAllocation(NativeAllocationInfo allocInfo) {
-        mNativeAllocationList.add(allocInfo);
+        addNativeAllocations(Collections.singletonList(allocInfo));
+    }
+
+    /**
+     * adds the {@link NativeAllocationInfo} of a whole heap dump at once, so the
+     * snapshot is copied only once.
+     * @param allocInfos The {@link NativeAllocationInfo}s to add.
+     */
+    synchronized void addNativeAllocations(Collection<NativeAllocationInfo> allocInfos) {
+        List<NativeAllocationInfo> list =
+                new ArrayList<NativeAllocationInfo>(mNativeAllocationList.size() + allocInfos.size());
+        list.addAll(mNativeAllocationList);
+        list.addAll(allocInfos);
+        mNativeAllocationList = Collections.unmodifiableList(list);
     }
 
     /**
      * Clear the current malloc info.
      */
     synchronized void clearNativeAllocationInfo() {
-        mNativeAllocationList.clear();
+        mNativeAllocationList = Collections.emptyList();
     }
 
     /**
      * Returns the total native memory.
      * @see Client#requestNativeHeapInformation()
      */
-    public synchronized int getTotalNativeMemory() {
+    public int getTotalNativeMemory() {
         return mNativeTotalMemory;
     }
 
-    synchronized void setTotalNativeMemory(int totalMemory) {
+    void setTotalNativeMemory(int totalMemory) {
         mNativeTotalMemory = totalMemory;
     }
 
     synchronized void addNativeLibraryMapInfo(long startAddr, long endAddr, String library) {
-        mNativeLibMapInfo.add(new NativeLibraryMapInfo(startAddr, endAddr, library));
+        addNativeLibraryMapInfos(Collections.singletonList(
+                new NativeLibraryMapInfo(startAddr, endAddr, library)));
+    }
+
+    synchronized void addNativeLibraryMapInfos(Collection<NativeLibraryMapInfo> mapInfos) {
+        List<NativeLibraryMapInfo> list =
+                new ArrayList<NativeLibraryMapInfo>(mNativeLibMapInfo.size() + mapInfos.size());
+        list.addAll(mNativeLibMapInfo);
+        list.addAll(mapInfos);
+        mNativeLibMapInfo = Collections.unmodifiableList(list);
     }
 
     /**
      * Returns the list of native libraries mapped in memory for this client.
      */
-    public synchronized List<NativeLibraryMapInfo> getMappedNativeLibraries() {
-        return Collections.unmodifiableList(mNativeLibMapInfo);
+    public List<NativeLibraryMapInfo> getMappedNativeLibraries() {
+        return mNativeLibMapInfo;
     }
 
-    synchronized void setAllocationStatus(AllocationTrackingStatus status) {
+    void setAllocationStatus(AllocationTrackingStatus status) {
         mAllocationStatus = status;
     }
 
@@ -758,11 +825,11 @@ public class ClientData {
      * Returns the allocation tracking status.
      * @see Client#requestAllocationStatus()
      */
-    public synchronized AllocationTrackingStatus getAllocationStatus() {
+    public AllocationTrackingStatus getAllocationStatus() {
         return mAllocationStatus;
     }
 
-    synchronized void setAllocationsData(byte[] data) {
+    void setAllocationsData(byte[] data) {
         mAllocationsData = data;
     }
 
@@ -770,12 +837,12 @@ public class ClientData {
      * Returns the raw data for tracked allocations.
      * @see Client#requestAllocationDetails()
      */
-    public synchronized byte[] getAllocationsData() {
+    public byte[] getAllocationsData() {
         return mAllocationsData;
     }
 
     @Deprecated
-    synchronized void setAllocations(AllocationInfo[] allocs) {
+    void setAllocations(AllocationInfo[] allocs) {
         mAllocations = allocs;
     }
 
@@ -784,9 +851,24 @@ public class ClientData {
      * @see Client#requestAllocationDetails()
      */
     @Nullable
-    public synchronized AllocationInfo[] getAllocations() {
-        if (mAllocationsData != null) {
-            return AllocationsParser.parse(ByteBuffer.wrap(mAllocationsData));
+    public AllocationInfo[] getAllocations() {
+        byte[] allocationsData = mAllocationsData;
+        if (allocationsData != null) {
+            return AllocationsParser.parse(ByteBuffer.wrap(allocationsData));
+        }
+        return null;
+    }
+
+    /**
+     * Returns a lazy view of the tracked allocations, cheaper than {@link #getAllocations()} when
+     * the allocations are only aggregated.
+     * @see Client#requestAllocationDetails()
+     */
+    @Nullable
+    public AllocationsView getAllocationsView() {
+        byte[] allocationsData = mAllocationsData;
+        if (allocationsData != null) {
+            return AllocationsParser.index(ByteBuffer.wrap(allocationsData));
         }
         return null;
     }
@@ -829,7 +911,7 @@ public class ClientData {
         return mPendingHprofDump != null;
     }
 
-    synchronized void setMethodProfilingStatus(MethodProfilingStatus status) {
+    void setMethodProfilingStatus(MethodProfilingStatus status) {
         mProfilingStatus = status;
     }
 
@@ -837,7 +919,7 @@ public class ClientData {
      * Returns the method profiling status.
      * @see Client#requestMethodProfilingStatus()
      */
-    public synchronized MethodProfilingStatus getMethodProfilingStatus() {
+    public MethodProfilingStatus getMethodProfilingStatus() {
         return mProfilingStatus;
     }
 
@@ -31,6 +31,8 @@ public final class DdmPreferences {
     /** Default values for the use of the ADBHOST environment variable. */
     private static final boolean DEFAULT_USE_ADBHOST = false;
     private static final String DEFAULT_ADBHOST_VALUE = "127.0.0.1";
+    /** Default number of files kept in flight by a multi-file sync push. */
+    private static final int DEFAULT_SYNC_PUSH_WINDOW = 1;
 
     private static boolean sThreadUpdate = DEFAULT_INITIAL_THREAD_UPDATE;
     private static boolean sInitialHeapUpdate = DEFAULT_INITIAL_HEAP_UPDATE;
@@ -43,6 +45,7 @@ public final class DdmPreferences {
 
     private static boolean sUseAdbHost = DEFAULT_USE_ADBHOST;
     private static String sAdbHostValue = DEFAULT_ADBHOST_VALUE;
+    private static int sSyncPushWindow = DEFAULT_SYNC_PUSH_WINDOW;
 
     private static boolean openAdbProxy = false;
     private static Integer adbProxyPort;
@@ -199,6 +202,22 @@ public final class DdmPreferences {
         sAdbHostValue = adbHostValue;
     }
 
+    /**
+     * Returns the number of files a multi-file sync push keeps in flight before waiting for their acknowledgement.
+     */
+    public static int getSyncPushWindow() {
+        return sSyncPushWindow;
+    }
+
+    /**
+     * Sets the number of files a multi-file sync push keeps in flight. A value of 1 pushes files one after another.
+     * <p>This change takes effect for newly started pushes only.
+     * @param window the number of files waiting for their acknowledgement at the same time.
+     */
+    public static void setSyncPushWindow(int window) {
+        sSyncPushWindow = Math.max(1, window);
+    }
+
     public static void setOpenAdbProxy(boolean open) {
         openAdbProxy = open;
     }
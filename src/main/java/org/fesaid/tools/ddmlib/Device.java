@@ -20,6 +20,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
@@ -27,6 +28,7 @@ import java.util.concurrent.Future;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 import lombok.extern.slf4j.Slf4j;
 import org.fesaid.tools.ddmlib.log.LogReceiver;
 import org.fesaid.tools.ddmlib.netty.AdbConnection;
@@ -54,11 +56,13 @@ import static com.android.sdklib.AndroidVersion.VersionCodes.KITKAT;
     /** True if ADB is running as root */
     private boolean mIsRoot = false;
 
+    /** Refreshes properties and battery level together. */
+    private final DeviceStateRefresher mStateRefresher = new DeviceStateRefresher(this);
     /** Device properties. */
-    private final PropertyFetcher mPropFetcher = new PropertyFetcher(this);
+    private final PropertyFetcher mPropFetcher = mStateRefresher.getPropertyFetcher();
     private final Map<String, String> mMountPoints = new HashMap<>();
 
-    private final BatteryFetcher mBatteryFetcher = new BatteryFetcher(this);
+    private final BatteryFetcher mBatteryFetcher = mStateRefresher.getBatteryFetcher();
 
     @GuardedBy("mClients")
     private final List<Client> mClients = new ArrayList<>();
@@ -93,7 +97,7 @@ import static com.android.sdklib.AndroidVersion.VersionCodes.KITKAT;
     /**
      * Socket for the connection monitoring client connection/disconnection.
      */
-    private AdbConnection mSocketChannel;
+    private volatile AdbConnection mSocketChannel;
 
     /** Path to the screen recorder binary on the device. */
     private static final String SCREEN_RECORDER_DEVICE_PATH = "/system/bin/screenrecord";
@@ -236,6 +240,14 @@ import static com.android.sdklib.AndroidVersion.VersionCodes.KITKAT;
         return mPropFetcher.getProperty(name);
     }
 
+    /**
+     * Returns the version of the cached system properties, increased every time they are read from the device. Callers
+     * caching values derived from system properties can compare it to skip recomputing them.
+     */
+    public long getPropertiesVersion() {
+        return mPropFetcher.getVersion();
+    }
+
     @Override
     public boolean supportsFeature(@NonNull Feature feature) {
         switch (feature) {
@@ -556,6 +568,13 @@ import static com.android.sdklib.AndroidVersion.VersionCodes.KITKAT;
             maxTimeUnits);
     }
 
+    @Override
+    public CompletableFuture<Void> executeShellCommandAsync(String command, IShellOutputReceiver receiver,
+        long maxTimeToOutputResponse, TimeUnit maxTimeUnits) {
+        return AdbHelper.executeRemoteCommandAsync(AndroidDebugBridge.getSocketAddress(), command, this, receiver,
+            maxTimeToOutputResponse, maxTimeUnits);
+    }
+
     @Override
     public void runEventLogService(LogReceiver receiver)
         throws TimeoutException, AdbCommandRejectedException, IOException {
@@ -576,6 +595,13 @@ import static com.android.sdklib.AndroidVersion.VersionCodes.KITKAT;
             String.format("tcp:%d", remotePort));
     }
 
+    @Override
+    public CompletableFuture<Void> createForwardAsync(int localPort, int remotePort) {
+        return AdbHelper.createForwardAsync(AndroidDebugBridge.getSocketAddress(), this,
+            String.format("tcp:%d", localPort),
+            String.format("tcp:%d", remotePort));
+    }
+
     @Override
     public void createForward(int localPort, String remoteSocketName,
         DeviceUnixSocketNamespace namespace) throws TimeoutException,
@@ -782,6 +808,32 @@ import static com.android.sdklib.AndroidVersion.VersionCodes.KITKAT;
         }
     }
 
+    @Override
+    public CompletableFuture<Void> pushFileAsync(String local, String remote) {
+        log.debug(String.format("Uploading %1$s onto device '%2$s'", getFileName(local), getSerialNumber()));
+        return withSyncService(sync -> sync.pushFileAsync(local, remote));
+    }
+
+    @Override
+    public CompletableFuture<Void> pullFileAsync(String remote, String local) {
+        log.debug(String.format("Downloading %1$s from device '%2$s'", getFileName(remote), getSerialNumber()));
+        return withSyncService(sync -> sync.pullFileAsync(remote, local));
+    }
+
+    @Override
+    public CompletableFuture<SyncService.FileStat> statFileAsync(String remote) {
+        return withSyncService(sync -> sync.statFileAsync(remote));
+    }
+
+    /**
+     * Runs one asynchronous operation on a new sync connection, which is closed when the operation completes.
+     */
+    private <T> CompletableFuture<T> withSyncService(Function<SyncService, CompletableFuture<T>> operation) {
+        SyncService syncService = new SyncService(AndroidDebugBridge.getSocketAddress(), this);
+        return syncService.openSyncAsync().thenCompose(operation)
+            .whenComplete((result, throwable) -> syncService.close());
+    }
+
     @Override
     public boolean isSameWithFile(String remote, InputStream local)  {
         try (SyncService sync = getSyncService()) {
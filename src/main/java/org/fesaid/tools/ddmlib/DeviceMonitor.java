@@ -11,9 +11,9 @@ import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.EventLoop;
 import io.netty.handler.codec.ByteToMessageDecoder;
 import java.io.IOException;
-import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 import java.util.HashMap;
@@ -24,14 +24,25 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
 import lombok.extern.slf4j.Slf4j;
 import org.fesaid.tools.ddmlib.ClientData.DebuggerStatus;
 import org.fesaid.tools.ddmlib.DebugPortManager.IDebugPortProvider;
 import org.fesaid.tools.ddmlib.jdwp.JdwpEvent;
 import org.fesaid.tools.ddmlib.netty.AdbConnection;
+import org.fesaid.tools.ddmlib.netty.AdbConnectionPool;
+import org.fesaid.tools.ddmlib.netty.AdbNettyConfig;
 import org.fesaid.tools.ddmlib.netty.input.AdbInputHandler;
 import org.fesaid.tools.ddmlib.netty.input.DeviceMonitorHandler;
 import org.fesaid.tools.ddmlib.thread.NamedThreadFactory;
@@ -56,15 +67,31 @@ import static org.fesaid.tools.ddmlib.AdbHelper.connect;
 public final class DeviceMonitor implements ClientTracker {
     public static final String ADB_TRACK_DEVICES_COMMAND = "host:track-devices";
     private static final String ADB_TRACK_JDWP_COMMAND = "track-jdwp";
+    /**
+     * If we don't wait a bit after dropping a client, the client will never answer the second handshake.
+     */
+    private static final long REOPEN_INITIAL_DELAY_MILLIS = 1000;
+    private static final long REOPEN_MAX_DELAY_MILLIS = 30000;
+    private static final int REOPEN_MAX_ATTEMPTS = 5;
+    private static final int JDWP_TRACKER_THREAD_SIZE = Runtime.getRuntime().availableProcessors();
 
     private volatile boolean mQuit = false;
     private final AndroidDebugBridge mServer;
     private DeviceListMonitorTask mDeviceListMonitorTask;
-    private final List<Device> mDevices = Lists.newCopyOnWriteArrayList();
+    /**
+     * Devices indexed by serial number, only modified by device list updates.
+     */
+    private final Map<String, Device> mDevices = new ConcurrentHashMap<>();
+    /**
+     * Immutable snapshot of {@link #mDevices} for readers, replaced whenever a device is added or removed.
+     */
+    private volatile Device[] mDeviceSnapshot = new Device[0];
     private final DebuggerPorts mDebuggerPorts = new DebuggerPorts(DdmPreferences.getDebugPortBase());
-    private final Map<Client, Integer> mClientsToReopen = new HashMap<>();
+    private final Map<Client, Integer> mClientsToReopen = new ConcurrentHashMap<>();
     private final BlockingQueue<Pair<SocketChannel, Device>> mChannelsToRegister = Queues.newLinkedBlockingQueue();
     private volatile ScheduledExecutorService jdwpTrackExecutor;
+    private volatile ExecutorService mOnboardingExecutor;
+    private final DeviceOnboardingMetrics mOnboardingMetrics = new DeviceOnboardingMetrics();
 
     /**
      * Creates a new {@link DeviceMonitor} object and links it to the running {@link AndroidDebugBridge} object.
@@ -80,6 +107,12 @@ public final class DeviceMonitor implements ClientTracker {
      * Starts the monitoring.
      */
     void start() {
+        AdbNettyConfig config = AndroidDebugBridge.getNettyConfig();
+        int concurrency = Math.max(1, config.getDeviceOnboardingConcurrency());
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(concurrency, concurrency, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), new NamedThreadFactory(config.getDeviceOnboardingThreadPrefix(), concurrency));
+        executor.allowCoreThreadTimeOut(true);
+        mOnboardingExecutor = executor;
         mDeviceListMonitorTask = new DeviceListMonitorTask(mServer, new DeviceListUpdateListener());
     }
 
@@ -92,13 +125,23 @@ public final class DeviceMonitor implements ClientTracker {
             mDeviceListMonitorTask.stop();
             mDeviceListMonitorTask = null;
         }
+        if (mOnboardingExecutor != null) {
+            mOnboardingExecutor.shutdownNow();
+        }
+    }
+
+    DeviceOnboardingMetrics getOnboardingMetrics() {
+        return mOnboardingMetrics;
     }
 
     private synchronized void createJdwpTrackerIfNecessary() {
         if (Objects.isNull(jdwpTrackExecutor)) {
             log.debug("createJdwpTracker");
-            jdwpTrackExecutor = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("JdwpTracker", 1));
-            jdwpTrackExecutor.scheduleAtFixedRate(this::deviceClientMonitorLoop, 0, 1, TimeUnit.SECONDS);
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(JDWP_TRACKER_THREAD_SIZE,
+                new NamedThreadFactory("JdwpTracker", JDWP_TRACKER_THREAD_SIZE));
+            executor.setKeepAliveTime(60, TimeUnit.SECONDS);
+            executor.allowCoreThreadTimeOut(true);
+            jdwpTrackExecutor = executor;
         }
     }
 
@@ -127,10 +170,24 @@ public final class DeviceMonitor implements ClientTracker {
      */
     @NonNull
     Device[] getDevices() {
-        // Since this is a copy of write array list, we don't want to do a compound operation
-        // (toArray with an appropriate size) without locking, so we just let the container provide
-        // an appropriately sized array
-        return mDevices.toArray(new Device[0]);
+        // the snapshot is shared by every reader, hand out a copy so callers can not modify it
+        return mDeviceSnapshot.clone();
+    }
+
+    /**
+     * Returns the device with the given serial number, or null if it is not connected.
+     */
+    @Nullable
+    Device getDevice(@NonNull String serialNumber) {
+        return mDevices.get(serialNumber);
+    }
+
+    private boolean isRegistered(@NonNull Device device) {
+        return mDevices.get(device.getSerialNumber()) == device;
+    }
+
+    private void publishDeviceSnapshot() {
+        mDeviceSnapshot = mDevices.values().toArray(new Device[0]);
     }
 
     @NonNull
@@ -138,14 +195,68 @@ public final class DeviceMonitor implements ClientTracker {
         return mServer;
     }
 
+    /**
+     * Drops the client right away and reopens it later. Each client is reopened on its own schedule, with a growing
+     * delay between failed attempts, so clients of other devices are never delayed by it.
+     */
     @Override
     public void trackClientToDropAndReopen(@NonNull Client client, int port) {
-        synchronized (mClientsToReopen) {
+        if (mClientsToReopen.putIfAbsent(client, port) == null) {
             log.debug("Adding " + client + " to list of client to reopen (" + port + ").");
-            mClientsToReopen.putIfAbsent(client, port);
+            createJdwpTrackerIfNecessary();
+            jdwpTrackExecutor.execute(() -> {
+                MonitorThread.getInstance().dropClient(client, false);
+                scheduleReopen(client, port, 1, REOPEN_INITIAL_DELAY_MILLIS);
+            });
         }
     }
 
+    /**
+     * Schedules a reopen attempt on the event loop of the device's track-jdwp connection, the attempt itself runs on
+     * the jdwp tracker executor.
+     */
+    private void scheduleReopen(@NonNull Client client, int port, int attempt, long delayMillis) {
+        Runnable reopen = () -> {
+            if (!mQuit) {
+                jdwpTrackExecutor.execute(() -> reopenClient(client, port, attempt, delayMillis));
+            }
+        };
+        AdbConnection monitoringConnection = client.getDeviceImpl().getClientMonitoringSocket();
+        if (monitoringConnection != null && monitoringConnection.isActive()) {
+            monitoringConnection.eventLoop().schedule(reopen, delayMillis, TimeUnit.MILLISECONDS);
+        } else {
+            jdwpTrackExecutor.schedule(reopen, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void reopenClient(@NonNull Client client, int port, int attempt, long delayMillis) {
+        Device device = client.getDeviceImpl();
+        if (mQuit || !isRegistered(device) || !device.isOnline()) {
+            mClientsToReopen.remove(client);
+            return;
+        }
+        int debuggerPort = port == IDebugPortProvider.NO_STATIC_PORT ? getNextDebuggerPort() : port;
+        Log.d("DeviceMonitor", "Reopening " + client + ", attempt " + attempt);
+        openClient(device, client.getClientData().getPid(), debuggerPort, MonitorThread.getInstance())
+            .thenAccept(opened -> {
+                if (opened) {
+                    mClientsToReopen.remove(client);
+                    device.update(Device.CHANGE_CLIENT_LIST);
+                    return;
+                }
+                if (port == IDebugPortProvider.NO_STATIC_PORT) {
+                    mDebuggerPorts.free(debuggerPort);
+                }
+                if (attempt < REOPEN_MAX_ATTEMPTS) {
+                    scheduleReopen(client, port, attempt + 1, Math.min(delayMillis * 2, REOPEN_MAX_DELAY_MILLIS));
+                } else {
+                    Log.w("DeviceMonitor", "Failed to reopen " + client + " after " + attempt + " attempts");
+                    mClientsToReopen.remove(client);
+                    device.update(Device.CHANGE_CLIENT_LIST);
+                }
+            });
+    }
+
     /**
      * Attempts to connect to the debug bridge server.
      *
@@ -162,16 +273,27 @@ public final class DeviceMonitor implements ClientTracker {
     }
 
     /**
-     * Updates the device list with the new items received from the monitoring service.
+     * Updates the device list with the new items received from the monitoring service. Only the devices which have
+     * been added, removed or changed state are touched.
      */
-    private void updateDevices(@NonNull List<Device> newList) {
-        DeviceListComparisonResult result = DeviceListComparisonResult.compare(mDevices, newList);
+    private void updateDevices(@NonNull Map<String, IDevice.DeviceState> newDevices) {
+        DeviceListComparisonResult result = DeviceListComparisonResult.compare(mDevices, newDevices,
+            (serialNumber, state) -> new Device(DeviceMonitor.this, serialNumber, state));
+        if (!result.removed.isEmpty() || !result.added.isEmpty()) {
+            for (IDevice device : result.removed) {
+                mDevices.remove(device.getSerialNumber(), device);
+            }
+            for (IDevice device : result.added) {
+                mDevices.put(device.getSerialNumber(), (Device) device);
+            }
+            publishDeviceSnapshot();
+        }
         for (IDevice device : result.removed) {
             removeDevice((Device) device);
             AndroidDebugBridge.deviceDisconnected(device);
         }
 
-        List<Device> newlyOnline = Lists.newArrayListWithExpectedSize(mDevices.size());
+        List<Device> newlyOnline = Lists.newArrayListWithExpectedSize(result.updated.size() + result.added.size());
 
         for (Map.Entry<IDevice, IDevice.DeviceState> entry : result.updated.entrySet()) {
             Device device = (Device) entry.getKey();
@@ -184,36 +306,91 @@ public final class DeviceMonitor implements ClientTracker {
         }
 
         for (IDevice device : result.added) {
-            mDevices.add((Device) device);
             AndroidDebugBridge.deviceConnected(device);
             if (device.isOnline()) {
                 newlyOnline.add((Device) device);
             }
         }
 
-        if (AndroidDebugBridge.getClientSupport()) {
-            for (Device device : newlyOnline) {
-                if (!startMonitoringDevice(device)) {
+        // each of the onboarding stages blocks on its own round trip, run devices in parallel so a burst of devices
+        // coming back after an adb restart is not set up one by one
+        for (Device device : newlyOnline) {
+            long onlineNanos = System.nanoTime();
+            try {
+                mOnboardingExecutor.execute(() -> onboardDevice(device, onlineNanos));
+            } catch (RejectedExecutionException e) {
+                log.debug("Skip onboarding {}, device monitor stopped", device.getSerialNumber());
+            }
+        }
+    }
+
+    /**
+     * Starts the monitoring service of a device which just came online, then reads its avd name and properties.
+     */
+    private void onboardDevice(@NonNull Device device, long onlineNanos) {
+        mOnboardingMetrics.record(DeviceOnboardingMetrics.Stage.QUEUE, onlineNanos);
+        if (mQuit || !isRegistered(device) || !device.isOnline()) {
+            mOnboardingMetrics.skipped();
+            return;
+        }
+        AdbConnectionPool connectionPool = AdbHelper.getConnectionPool();
+        if (connectionPool != null) {
+            // open the transport connections the onboarding round trips below are about to borrow
+            connectionPool.warmUp(AndroidDebugBridge.getSocketAddress(), device.getSerialNumber());
+        }
+        boolean failed = false;
+        try {
+            if (AndroidDebugBridge.getClientSupport()) {
+                long begin = System.nanoTime();
+                boolean started = startMonitoringDevice(device);
+                mOnboardingMetrics.record(DeviceOnboardingMetrics.Stage.START_MONITORING, begin);
+                if (!started) {
+                    failed = true;
                     log.error("Failed to start monitoring " + device.getSerialNumber());
+                } else if (mQuit || !isRegistered(device) || !device.isOnline()) {
+                    // removed or offline while the monitoring started, removeDevice may have missed the socket
+                    AdbConnection channel = device.getClientMonitoringSocket();
+                    if (channel != null) {
+                        channel.close();
+                    }
+                    mOnboardingMetrics.skipped();
+                    return;
                 } else {
                     log.debug("Start monitor device {}", device.getSerialNumber());
                 }
             }
-        }
 
-        for (Device device : newlyOnline) {
-            queryAvdName(device);
+            if (device.isEmulator()) {
+                long begin = System.nanoTime();
+                queryAvdName(device);
+                mOnboardingMetrics.record(DeviceOnboardingMetrics.Stage.QUERY_AVD_NAME, begin);
+            }
 
             // Initiate a property fetch so that future requests can be served out of this cache.
-            // This is necessary for backwards compatibility
-            device.getSystemProperty(IDevice.PROP_BUILD_API_LEVEL);
+            // This is necessary for backwards compatibility, wait for it so the device is usable once onboarded
+            long begin = System.nanoTime();
+            device.getSystemProperty(IDevice.PROP_BUILD_API_LEVEL).get(DdmPreferences.getTimeOut(),
+                TimeUnit.MILLISECONDS);
+            mOnboardingMetrics.record(DeviceOnboardingMetrics.Stage.FETCH_PROPERTIES, begin);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | java.util.concurrent.TimeoutException | RuntimeException e) {
+            failed = true;
+            log.warn("Onboarding device {} failed", device.getSerialNumber(), e);
+        } finally {
+            if (failed) {
+                mOnboardingMetrics.failed();
+            }
+            mOnboardingMetrics.record(DeviceOnboardingMetrics.Stage.TOTAL, onlineNanos);
         }
     }
 
     private void removeDevice(@NonNull Device device) {
         device.setState(IDevice.DeviceState.DISCONNECTED);
         device.clearClientList();
-        mDevices.remove(device);
+        if (mDevices.remove(device.getSerialNumber(), device)) {
+            publishDeviceSnapshot();
+        }
         AdbConnection channel = device.getClientMonitoringSocket();
         if (channel != null) {
             channel.close();
@@ -261,38 +438,6 @@ public final class DeviceMonitor implements ClientTracker {
         return false;
     }
 
-    private void deviceClientMonitorLoop() {
-        if (mQuit) {
-            return;
-        }
-        try {
-            synchronized (mClientsToReopen) {
-                if (!mClientsToReopen.isEmpty()) {
-                    Set<Client> clients = mClientsToReopen.keySet();
-                    MonitorThread monitorThread = MonitorThread.getInstance();
-                    for (Client client : clients) {
-                        Device device = client.getDeviceImpl();
-                        int pid = client.getClientData().getPid();
-                        monitorThread.dropClient(client, false);
-                        // This is kinda bad, but if we don't wait a bit, the client
-                        // will never answer the second handshake!
-                        Thread.sleep(1000);
-                        int port = mClientsToReopen.get(client);
-                        if (port == IDebugPortProvider.NO_STATIC_PORT) {
-                            port = getNextDebuggerPort();
-                        }
-                        Log.d("DeviceMonitor", "Reopening " + client);
-                        openClient(device, pid, port, monitorThread);
-                        device.update(Device.CHANGE_CLIENT_LIST);
-                    }
-                    mClientsToReopen.clear();
-                }
-            }
-        } catch (InterruptedException e) {
-            log.error("Interrupted, {}", e);
-        }
-    }
-
     private boolean sendDeviceMonitoringRequest(@NonNull AdbConnection socket, @NonNull Device device)
         throws TimeoutException, AdbCommandRejectedException {
         try {
@@ -311,40 +456,42 @@ public final class DeviceMonitor implements ClientTracker {
         }
     }
 
-    /** Opens and creates a new client. */
-    private static void openClient(@NonNull Device device, int pid, int port,
+    /**
+     * Opens and creates a new client without blocking. The connection is served by the event loop of the device's
+     * track-jdwp connection, so the traffic of all the clients of a device stays on one event loop while different
+     * devices spread over the whole group. The client is created on the jdwp tracker executor since it handshakes,
+     * binds the debugger listener and registers it to the monitor thread.
+     *
+     * @return future completed with true if the client has been created and is valid
+     */
+    private CompletableFuture<Boolean> openClient(@NonNull Device device, int pid, int port,
         @NonNull MonitorThread monitorThread) {
-
-        SocketChannel clientSocket;
-        try {
-            clientSocket = AdbHelper.createPassThroughConnection(
-                AndroidDebugBridge.getSocketAddress(), device, pid);
-
-            // required for Selector
-            clientSocket.configureBlocking(false);
-        } catch (UnknownHostException uhe) {
-            Log.d("DeviceMonitor", "Unknown Jdwp pid: " + pid);
-            return;
-        } catch (TimeoutException e) {
-            Log.w("DeviceMonitor",
-                "Failed to connect to client '" + pid + "': timeout");
-            return;
-        } catch (AdbCommandRejectedException e) {
-            Log.w("DeviceMonitor",
-                "Adb rejected connection to client '" + pid + "': " + e.getMessage());
-            return;
-
-        } catch (IOException ioe) {
-            Log.w("DeviceMonitor",
-                "Failed to connect to client '" + pid + "': " + ioe.getMessage());
-            return;
-        }
-
-        createClient(device, pid, clientSocket, port, monitorThread);
+        AdbConnection monitoringConnection = device.getClientMonitoringSocket();
+        EventLoop eventLoop = monitoringConnection != null && monitoringConnection.isActive() ?
+            monitoringConnection.eventLoop() : null;
+        return AdbHelper.openJdwpConnectionAsync(AndroidDebugBridge.getSocketAddress(), device, pid, eventLoop)
+            .handleAsync((connection, throwable) -> {
+                if (throwable == null) {
+                    return createClient(device, pid, connection, port, monitorThread);
+                }
+                Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ?
+                    throwable.getCause() : throwable;
+                if (cause instanceof TimeoutException) {
+                    Log.w("DeviceMonitor",
+                        "Failed to connect to client '" + pid + "': timeout");
+                } else if (cause instanceof AdbCommandRejectedException) {
+                    Log.w("DeviceMonitor",
+                        "Adb rejected connection to client '" + pid + "': " + cause.getMessage());
+                } else {
+                    Log.w("DeviceMonitor",
+                        "Failed to connect to client '" + pid + "': " + cause.getMessage());
+                }
+                return false;
+            }, jdwpTrackExecutor);
     }
 
-    /** Creates a client and register it to the monitor thread */
-    private static void createClient(@NonNull Device device, int pid, @NonNull SocketChannel socket,
+    /** Creates a client and register it to the monitor thread, returns true if the client is valid */
+    private static boolean createClient(@NonNull Device device, int pid, @NonNull AdbConnection connection,
         int debuggerPort, @NonNull MonitorThread monitorThread) {
 
         /*
@@ -352,7 +499,7 @@ public final class DeviceMonitor implements ClientTracker {
          * it to the list, and initiate the JDWP handshake.
          */
 
-        Client client = new Client(device, socket, pid);
+        Client client = new Client(device, connection, pid);
 
         if (client.sendHandshake()) {
             try {
@@ -382,7 +529,9 @@ public final class DeviceMonitor implements ClientTracker {
         if (client.isValid()) {
             device.addClient(client);
             monitorThread.addClient(client);
+            return true;
         }
+        return false;
     }
 
     private int getNextDebuggerPort() {
@@ -441,7 +590,7 @@ public final class DeviceMonitor implements ClientTracker {
     private class DeviceListUpdateListener implements DeviceListMonitorTask.UpdateListener {
         @Override
         public void connectionError(@NonNull Exception e) {
-            for (Device device : mDevices) {
+            for (Device device : mDeviceSnapshot) {
                 removeDevice(device);
                 AndroidDebugBridge.deviceDisconnected(device);
             }
@@ -449,12 +598,8 @@ public final class DeviceMonitor implements ClientTracker {
 
         @Override
         public void deviceListUpdate(@NonNull Map<String, IDevice.DeviceState> devices) {
-            List<Device> l = Lists.newArrayListWithExpectedSize(devices.size());
-            for (Map.Entry<String, IDevice.DeviceState> entry : devices.entrySet()) {
-                l.add(new Device(DeviceMonitor.this, entry.getKey(), entry.getValue()));
-            }
-            // now merge the new devices with the old ones.
-            updateDevices(l);
+            // merge the new devices with the old ones, devices are only created for new serial numbers
+            updateDevices(devices);
         }
     }
 
@@ -476,39 +621,53 @@ public final class DeviceMonitor implements ClientTracker {
         @NonNull
         public static DeviceListComparisonResult compare(@NonNull List<? extends IDevice> previous,
             @NonNull List<? extends IDevice> current) {
-            current = Lists.newArrayList(current);
+            Map<String, IDevice> previousBySerial = Maps.newHashMapWithExpectedSize(previous.size());
+            for (IDevice device : previous) {
+                previousBySerial.put(device.getSerialNumber(), device);
+            }
+            Map<String, IDevice> currentBySerial = Maps.newLinkedHashMapWithExpectedSize(current.size());
+            Map<String, IDevice.DeviceState> currentStates = Maps.newLinkedHashMapWithExpectedSize(current.size());
+            for (IDevice device : current) {
+                currentBySerial.put(device.getSerialNumber(), device);
+                currentStates.put(device.getSerialNumber(), device.getState());
+            }
+            return compare(previousBySerial, currentStates, (serialNumber, state) -> currentBySerial.get(serialNumber));
+        }
 
-            final Map<IDevice, IDevice.DeviceState> updated = Maps.newHashMapWithExpectedSize(current.size());
+        /**
+         * Compares the known devices with a new device list using hash lookups only, devices are created for the
+         * serial numbers which are not known yet.
+         *
+         * @param previous known devices by serial number
+         * @param current states of the new device list by serial number
+         * @param deviceFactory creates the device of an added serial number
+         * @return the difference
+         */
+        @NonNull
+        public static DeviceListComparisonResult compare(@NonNull Map<String, ? extends IDevice> previous,
+            @NonNull Map<String, IDevice.DeviceState> current,
+            @NonNull BiFunction<String, IDevice.DeviceState, ? extends IDevice> deviceFactory) {
+            final Map<IDevice, IDevice.DeviceState> updated = Maps.newHashMapWithExpectedSize(1);
             final List<IDevice> added = Lists.newArrayListWithExpectedSize(1);
             final List<IDevice> removed = Lists.newArrayListWithExpectedSize(1);
 
-            for (IDevice device : previous) {
-                IDevice currentDevice = find(current, device);
-                if (currentDevice != null) {
-                    if (currentDevice.getState() != device.getState()) {
-                        updated.put(device, currentDevice.getState());
-                    }
-                    current.remove(currentDevice);
-                } else {
-                    removed.add(device);
+            for (Map.Entry<String, IDevice.DeviceState> entry : current.entrySet()) {
+                IDevice device = previous.get(entry.getKey());
+                if (device == null) {
+                    added.add(deviceFactory.apply(entry.getKey(), entry.getValue()));
+                } else if (device.getState() != entry.getValue()) {
+                    updated.put(device, entry.getValue());
                 }
             }
-
-            added.addAll(current);
-
-            return new DeviceListComparisonResult(updated, added, removed);
-        }
-
-        @Nullable
-        private static IDevice find(@NonNull List<? extends IDevice> devices,
-            @NonNull IDevice device) {
-            for (IDevice d : devices) {
-                if (d.getSerialNumber().equals(device.getSerialNumber())) {
-                    return d;
+            if (previous.size() + added.size() != current.size()) {
+                for (Map.Entry<String, ? extends IDevice> entry : previous.entrySet()) {
+                    if (!current.containsKey(entry.getKey())) {
+                        removed.add(entry.getValue());
+                    }
                 }
             }
 
-            return null;
+            return new DeviceListComparisonResult(updated, added, removed);
         }
     }
 
@@ -638,6 +797,11 @@ public final class DeviceMonitor implements ClientTracker {
         private int length;
         private boolean readLength = true;
         private Device device;
+        /**
+         * Last client list update of the device, updates run one after the other on the jdwp tracker executor since
+         * they drop and register clients to the monitor thread. Only accessed on the event loop.
+         */
+        private CompletableFuture<Void> clientListUpdate = CompletableFuture.completedFuture(null);
 
         JdwpTrackHandler(Device device) {
             this.device = device;
@@ -650,7 +814,7 @@ public final class DeviceMonitor implements ClientTracker {
                     in.readBytes(lengthFieldBuffer, 0, JDWP_LENGTH_FIELD_SIZE);
                     length = Integer.parseInt(new String(lengthFieldBuffer), 16);
                     if (length <= 0) {
-                        processIncomingJdwpData(new JdwpEvent(device, new HashSet<>()));
+                        updateClientList(new JdwpEvent(device, new HashSet<>()));
                     } else {
                         readLength = false;
                     }
@@ -670,7 +834,7 @@ public final class DeviceMonitor implements ClientTracker {
                             // looks like this pid is not really a number. Lets ignore it.
                         }
                     }
-                    processIncomingJdwpData(new JdwpEvent(device, newPids));
+                    updateClientList(new JdwpEvent(device, newPids));
                     readLength = true;
                 }
             }
@@ -690,14 +854,26 @@ public final class DeviceMonitor implements ClientTracker {
         }
 
         private void reconnectIfNecessary() {
-            // restart the monitoring of that device
-            if (mDevices.contains(device) && !mQuit) {
+            // restart the monitoring of that device, onboarding starts it again once an offline device is back
+            if (isRegistered(device) && device.isOnline() && !mQuit) {
                 log.debug("Restarting monitoring service for " + device);
                 startMonitoringDevice(device);
             }
         }
 
-        private void processIncomingJdwpData(JdwpEvent jdwpEvent) {
+        private void updateClientList(JdwpEvent jdwpEvent) {
+            // the next update waits for the clients opened by the previous one, so they are not opened twice
+            clientListUpdate = clientListUpdate
+                .handle((result, throwable) -> {
+                    if (throwable != null) {
+                        Log.e("DeviceMonitor", throwable);
+                    }
+                    return null;
+                })
+                .thenComposeAsync(v -> processIncomingJdwpData(jdwpEvent), jdwpTrackExecutor);
+        }
+
+        private CompletableFuture<Void> processIncomingJdwpData(JdwpEvent jdwpEvent) {
             // This methods reads @length bytes from the @monitorSocket channel.
             // These bytes correspond to the pids of the current set of processes on the device.
             // It takes this set of pids and compares them with the existing set of clients
@@ -731,13 +907,20 @@ public final class DeviceMonitor implements ClientTracker {
             monitorThread.dropClients(clientsToRemove, false);
 
             // at this point whatever pid is left in the list needs to be converted into Clients.
+            CompletableFuture<?>[] openings = new CompletableFuture<?>[pidsToAdd.size()];
+            int index = 0;
             for (int newPid : pidsToAdd) {
-                openClient(device, newPid, getNextDebuggerPort(), monitorThread);
+                openings[index++] = openClient(device, newPid, getNextDebuggerPort(), monitorThread);
             }
 
-            if (!pidsToAdd.isEmpty() || !clientsToRemove.isEmpty()) {
+            if (!pidsToAdd.isEmpty()) {
+                // clients are connected asynchronously, notify once all of them are added
+                return CompletableFuture.allOf(openings).whenComplete((result, throwable) ->
+                    AndroidDebugBridge.deviceChanged(device, Device.CHANGE_CLIENT_LIST));
+            } else if (!clientsToRemove.isEmpty()) {
                 AndroidDebugBridge.deviceChanged(device, Device.CHANGE_CLIENT_LIST);
             }
+            return CompletableFuture.completedFuture(null);
         }
     }
 }
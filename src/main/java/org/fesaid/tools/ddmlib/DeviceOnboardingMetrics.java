@@ -0,0 +1,79 @@
+package org.fesaid.tools.ddmlib;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import org.fesaid.tools.ddmlib.utils.Histogram;
+
+/**
+ * Timing of the stages a device goes through after it comes online, until it is fully usable.
+ *
+ * @author Chen Yang/CL10060-N/chen.yang@linecorp.com
+ */
+public class DeviceOnboardingMetrics {
+
+    public enum Stage {
+        /**
+         * Time spent waiting for a free onboarding slot.
+         */
+        QUEUE,
+        /**
+         * Connecting and sending the {@code track-jdwp} request.
+         */
+        START_MONITORING,
+        /**
+         * Reading the avd name from the emulator console, only recorded for emulators.
+         */
+        QUERY_AVD_NAME,
+        /**
+         * Initial system property fetch.
+         */
+        FETCH_PROPERTIES,
+        /**
+         * From the device being reported online until every other stage finished.
+         */
+        TOTAL
+    }
+
+    private final Map<Stage, Histogram> histograms = new EnumMap<>(Stage.class);
+    private final LongAdder failedCount = new LongAdder();
+    private final LongAdder skippedCount = new LongAdder();
+
+    DeviceOnboardingMetrics() {
+        for (Stage stage : Stage.values()) {
+            histograms.put(stage, new Histogram());
+        }
+    }
+
+    void record(Stage stage, long beginNanos) {
+        histograms.get(stage).record((System.nanoTime() - beginNanos) / 1000000);
+    }
+
+    void failed() {
+        failedCount.increment();
+    }
+
+    void skipped() {
+        skippedCount.increment();
+    }
+
+    public Histogram.Snapshot snapshot(Stage stage) {
+        return histograms.get(stage).snapshot();
+    }
+
+    /**
+     * @return number of devices whose monitoring service could not be started, or whose avd name or properties could
+     * not be read
+     */
+    public long getFailedCount() {
+        return failedCount.sum();
+    }
+
+    /**
+     * @return number of devices which went offline or were removed before their onboarding started, or while their
+     * monitoring service was starting
+     */
+    public long getSkippedCount() {
+        return skippedCount.sum();
+    }
+}
@@ -0,0 +1,120 @@
+package org.fesaid.tools.ddmlib;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.extern.slf4j.Slf4j;
+import org.fesaid.tools.ddmlib.netty.AdbNettyConfig;
+import org.fesaid.tools.ddmlib.thread.NamedThreadFactory;
+import org.fesaid.tools.ddmlib.utils.Histogram;
+
+/**
+ * Bounded executor shared by the background device queries, property and battery fetches and asynchronous listings,
+ * instead of a new thread per query. Tasks beyond {@link AdbNettyConfig#getDeviceQueryQueueCapacity()} waiting ones
+ * are rejected.
+ *
+ * @author Chen Yang/CL10060-N/chen.yang@linecorp.com
+ */
+@Slf4j
+public final class DeviceQueryExecutor {
+    private static volatile DeviceQueryExecutor sInstance;
+
+    private final ThreadPoolExecutor executor;
+    private final Histogram queueMillis = new Histogram();
+    private final Histogram runMillis = new Histogram();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+
+    private DeviceQueryExecutor(AdbNettyConfig config) {
+        int threadSize = Math.max(1, config.getDeviceQueryThreadSize());
+        executor = new ThreadPoolExecutor(threadSize, threadSize, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(Math.max(1, config.getDeviceQueryQueueCapacity())),
+            new NamedThreadFactory(config.getDeviceQueryThreadPrefix(), threadSize));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return the shared executor, created from {@link AndroidDebugBridge}'s netty config on first use
+     */
+    public static DeviceQueryExecutor getInstance() {
+        DeviceQueryExecutor instance = sInstance;
+        if (instance == null) {
+            synchronized (DeviceQueryExecutor.class) {
+                instance = sInstance;
+                if (instance == null) {
+                    instance = new DeviceQueryExecutor(AndroidDebugBridge.getNettyConfig());
+                    sInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Run a query in background.
+     *
+     * @param name name of the query, used when the task throws
+     * @param task query
+     * @throws RejectedExecutionException if the queue is full
+     */
+    void execute(String name, Runnable task) {
+        long submitNanos = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                long begin = System.nanoTime();
+                queueMillis.record(TimeUnit.NANOSECONDS.toMillis(begin - submitNanos));
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    failedCount.increment();
+                    log.warn("Device query {} failed", name, e);
+                } finally {
+                    runMillis.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejectedCount.increment();
+            log.warn("Device query {} rejected, {} queries waiting", name, executor.getQueue().size());
+            throw e;
+        }
+    }
+
+    /**
+     * @return number of queries waiting for a thread
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public long getCompletedCount() {
+        return executor.getCompletedTaskCount();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    public long getFailedCount() {
+        return failedCount.sum();
+    }
+
+    /**
+     * @return time queries spent waiting in the queue
+     */
+    public Histogram.Snapshot getQueueLatency() {
+        return queueMillis.snapshot();
+    }
+
+    /**
+     * @return time queries spent running
+     */
+    public Histogram.Snapshot getRunLatency() {
+        return runMillis.snapshot();
+    }
+}
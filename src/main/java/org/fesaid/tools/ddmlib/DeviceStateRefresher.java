@@ -0,0 +1,160 @@
+package org.fesaid.tools.ddmlib;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Refreshes the properties and the battery level of a device with one combined shell invocation shared by its
+ * {@link PropertyFetcher} and {@link BatteryFetcher}. Requests made while a refresh is running are coalesced into it,
+ * and every refresh updates both caches whichever of them asked for it.
+ */
+class DeviceStateRefresher {
+    private static final String BATTERY_MARKER = "--ddmlib-battery--";
+    private static final String REFRESH_COMMAND =
+        "getprop; echo " + BATTERY_MARKER + "; cat /sys/class/power_supply/*/capacity";
+    private static final long REFRESH_TIMEOUT_MS = 2 * 1000;
+
+    private final IDevice mDevice;
+    private final PropertyFetcher mPropertyFetcher;
+    private final BatteryFetcher mBatteryFetcher;
+    private boolean mRefreshing;
+    private boolean mPropertiesRequested;
+    private boolean mBatteryRequested;
+    private final LongAdder mRefreshCount = new LongAdder();
+    private final LongAdder mCoalescedCount = new LongAdder();
+
+    DeviceStateRefresher(@NonNull IDevice device) {
+        mDevice = device;
+        mPropertyFetcher = new PropertyFetcher(device, this);
+        mBatteryFetcher = new BatteryFetcher(device, this);
+    }
+
+    PropertyFetcher getPropertyFetcher() {
+        return mPropertyFetcher;
+    }
+
+    BatteryFetcher getBatteryFetcher() {
+        return mBatteryFetcher;
+    }
+
+    /**
+     * Request fresh properties, {@link PropertyFetcher} is notified once they are read. Must not be called while
+     * holding the lock of a fetcher.
+     */
+    void requestProperties() {
+        request(true, false);
+    }
+
+    /**
+     * Request a fresh battery level, {@link BatteryFetcher} is notified once it is read. Must not be called while
+     * holding the lock of a fetcher.
+     */
+    void requestBattery() {
+        request(false, true);
+    }
+
+    long getRefreshCount() {
+        return mRefreshCount.sum();
+    }
+
+    /**
+     * @return number of requests served by a refresh which was already running
+     */
+    long getCoalescedCount() {
+        return mCoalescedCount.sum();
+    }
+
+    private void request(boolean properties, boolean battery) {
+        synchronized (this) {
+            mPropertiesRequested |= properties;
+            mBatteryRequested |= battery;
+            if (mRefreshing) {
+                mCoalescedCount.increment();
+                return;
+            }
+            mRefreshing = true;
+        }
+        try {
+            DeviceQueryExecutor.getInstance().execute(
+                String.format("refresh-state-%s", mDevice.getSerialNumber()), this::refresh);
+        } catch (RejectedExecutionException e) {
+            finish(null, e);
+        }
+    }
+
+    private void refresh() {
+        mRefreshCount.increment();
+        RefreshReceiver receiver = new RefreshReceiver();
+        try {
+            mDevice.executeShellCommand(REFRESH_COMMAND, receiver, REFRESH_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (Throwable e) {
+            finish(null, e);
+            return;
+        }
+        finish(receiver, null);
+    }
+
+    private void finish(@Nullable RefreshReceiver receiver, @Nullable Throwable failure) {
+        boolean properties;
+        boolean battery;
+        synchronized (this) {
+            properties = mPropertiesRequested;
+            battery = mBatteryRequested;
+            mPropertiesRequested = false;
+            mBatteryRequested = false;
+            mRefreshing = false;
+        }
+        if (receiver == null) {
+            if (properties) {
+                mPropertyFetcher.handleException(failure);
+            }
+            if (battery) {
+                mBatteryFetcher.handleBatteryLevelFailure(failure);
+            }
+            return;
+        }
+        mPropertyFetcher.onRefreshed(receiver.mPropReceiver.getCollectedProperties(), properties);
+        mBatteryFetcher.onRefreshed(receiver.mBatteryReceiver.getBatteryLevel(), battery);
+    }
+
+    /**
+     * Splits the combined output between the getprop and the battery receivers at the marker line.
+     */
+    private static final class RefreshReceiver extends MultiLineReceiver {
+        private final PropertyFetcher.GetPropReceiver mPropReceiver = new PropertyFetcher.GetPropReceiver();
+        private final BatteryFetcher.SysFsBatteryLevelReceiver mBatteryReceiver =
+            new BatteryFetcher.SysFsBatteryLevelReceiver();
+        private boolean mBatterySection;
+
+        @Override
+        public void processNewLines(@NonNull String[] lines) {
+            List<String> propLines = new ArrayList<>(lines.length);
+            List<String> batteryLines = new ArrayList<>(2);
+            for (String line : lines) {
+                if (!mBatterySection && BATTERY_MARKER.equals(line)) {
+                    mBatterySection = true;
+                } else if (mBatterySection) {
+                    batteryLines.add(line);
+                } else {
+                    propLines.add(line);
+                }
+            }
+            if (!propLines.isEmpty()) {
+                mPropReceiver.processNewLines(propLines.toArray(new String[0]));
+            }
+            if (!batteryLines.isEmpty()) {
+                mBatteryReceiver.processNewLines(batteryLines.toArray(new String[0]));
+            }
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    }
+}
@@ -1,11 +1,15 @@
 package org.fesaid.tools.ddmlib;
 
 import com.android.annotations.NonNull;
+import com.android.utils.Pair;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -91,8 +95,8 @@ public final class FileListingService {
     private Device mDevice;
     private FileEntry mRoot;
 
-    // Used for locking so final.
-    final private ArrayList<Thread> mThreadList = new ArrayList<Thread>();
+    // Used for locking so final. The head is the listing currently running on the DeviceQueryExecutor.
+    final private Deque<Pair<String, Runnable>> mPendingListings = new ArrayDeque<>();
 
     /**
      * Represents an entry in a directory. This can be a file or a directory.
@@ -699,82 +703,71 @@ public final class FileListingService {
         }
 
         // this is a asynchronous call.
-        // we launch a thread that will do ls and give the listing
+        // we queue a task that will do ls and give the listing
         // to the receiver
-        Thread t = new Thread("ls " + entry.getFullPath()) { //$NON-NLS-1$
-                    @Override
-                    public void run() {
-                        doLs(entry);
+        Runnable listing = () -> {
+            try {
+                doLs(entry);
 
-                        receiver.setChildren(entry, entry.getCachedChildren());
+                receiver.setChildren(entry, entry.getCachedChildren());
 
-                        final FileEntry[] children = entry.getCachedChildren();
-                        if (children.length > 0 && children[0].isApplicationPackage()) {
-                            final HashMap<String, FileEntry> map = new HashMap<String, FileEntry>();
+                final FileEntry[] children = entry.getCachedChildren();
+                if (children.length > 0 && children[0].isApplicationPackage()) {
+                    final HashMap<String, FileEntry> map = new HashMap<String, FileEntry>();
 
-                            for (FileEntry child : children) {
-                                String path = child.getFullPath();
-                                map.put(path, child);
-                            }
+                    for (FileEntry child : children) {
+                        String path = child.getFullPath();
+                        map.put(path, child);
+                    }
 
-                            // call pm.
-                            String command = PM_FULL_LISTING;
-                            try {
-                                mDevice.executeShellCommand(
-                                        command,
-                                        new MultiLineReceiver() {
-                                            @Override
-                                            public void processNewLines(@NonNull String[] lines) {
-                                                for (String line : lines) {
-                                                    if (!line.isEmpty()) {
-                                                        // get the filepath and package from the line
-                                                        Matcher m = sPmPattern.matcher(line);
-                                                        if (m.matches()) {
-                                                            // get the children with that path
-                                                            FileEntry entry = map.get(m.group(1));
-                                                            if (entry != null) {
-                                                                entry.info = m.group(2);
-                                                                receiver.refreshEntry(entry);
-                                                            }
-                                                        }
+                    // call pm.
+                    String command = PM_FULL_LISTING;
+                    try {
+                        mDevice.executeShellCommand(
+                                command,
+                                new MultiLineReceiver() {
+                                    @Override
+                                    public void processNewLines(@NonNull String[] lines) {
+                                        for (String line : lines) {
+                                            if (!line.isEmpty()) {
+                                                // get the filepath and package from the line
+                                                Matcher m = sPmPattern.matcher(line);
+                                                if (m.matches()) {
+                                                    // get the children with that path
+                                                    FileEntry entry = map.get(m.group(1));
+                                                    if (entry != null) {
+                                                        entry.info = m.group(2);
+                                                        receiver.refreshEntry(entry);
                                                     }
                                                 }
                                             }
-
-                                            @Override
-                                            public boolean isCancelled() {
-                                                return false;
-                                            }
-                                        });
-                            } catch (Exception e) {
-                                // adb failed somehow, we do nothing.
-                            }
-                        }
-
-                        // if another thread is pending, launch it
-                        synchronized (mThreadList) {
-                            // first remove ourselves from the list
-                            mThreadList.remove(this);
-
-                            // then launch the next one if applicable.
-                            if (!mThreadList.isEmpty()) {
-                                Thread t = mThreadList.get(0);
-                                t.start();
-                            }
-                        }
+                                        }
+                                    }
+
+                                    @Override
+                                    public boolean isCancelled() {
+                                        return false;
+                                    }
+                                });
+                    } catch (Exception e) {
+                        // adb failed somehow, we do nothing.
                     }
-                };
+                }
+            } finally {
+                // if another listing is pending, launch it
+                runNextListing();
+            }
+        };
 
         // we don't want to run multiple ls on the device at the same time, so we
-        // store the thread in a list and launch it only if there's no other thread running.
-        // the thread will launch the next one once it's done.
-        synchronized (mThreadList) {
-            // add to the list
-            mThreadList.add(t);
+        // queue the listing and launch it only if there's no other listing running.
+        // the listing will launch the next one once it's done.
+        synchronized (mPendingListings) {
+            mPendingListings.addLast(new Pair<>(entry.getFullPath(), listing));
 
             // if it's the only one, launch it.
-            if (mThreadList.size() == 1) {
-                t.start();
+            if (mPendingListings.size() == 1) {
+                executeListing(mPendingListings.peekFirst());
             }
         }
 
@@ -782,6 +775,28 @@ public final class FileListingService {
         return null;
     }
 
+    private void runNextListing() {
+        synchronized (mPendingListings) {
+            // first remove the listing which just finished
+            mPendingListings.pollFirst();
+
+            // then launch the next one if applicable.
+            if (!mPendingListings.isEmpty()) {
+                executeListing(mPendingListings.peekFirst());
+            }
+        }
+    }
+
+    private void executeListing(Pair<String, Runnable> listing) {
+        try {
+            DeviceQueryExecutor.getInstance().execute("ls " + listing.getFirst(), listing.getSecond());
+        } catch (RejectedExecutionException e) {
+            Log.w("ls", "Listing " + listing.getFirst() + " rejected: " + e.getMessage());
+            // drop it and move on, the receiver is never called as when adb fails
+            runNextListing();
+        }
+    }
+
     /**
      * Returns the children of a {@link FileEntry}.
      * <p>
@@ -241,14 +241,35 @@ final class HandleHeap extends ChunkHandler {
      * @param fileName name of output file (on device)
      */
     public static void sendHPDS(Client client)
+        throws IOException {
+        sendHPDS(client, null);
+    }
+
+    /**
+     * Sends an HPDS request to the client, the response is written to the
+     * given spill as it arrives instead of being buffered when it is not null.
+     */
+    static void sendHPDS(Client client, HprofSpill spill)
         throws IOException {
         ByteBuffer rawBuf = allocBuffer(0);
         JdwpPacket packet = new JdwpPacket(rawBuf);
         ByteBuffer buf = getChunkDataBuf(rawBuf);
 
         finishChunkPacket(packet, CHUNK_HPDS, buf.position());
+        if (spill != null) {
+            // the reply can be read as soon as the request is sent
+            spill.setRequestId(packet.getId());
+            client.setHprofSpill(spill);
+        }
         Log.d("ddm-heap", "Sending " + name(CHUNK_HPDS));
-        client.send(packet, mInst);
+        try {
+            client.send(packet, mInst);
+        } catch (IOException e) {
+            if (spill != null) {
+                client.clearHprofSpill(spill);
+            }
+            throw e;
+        }
     }
 
     /*
@@ -301,6 +322,28 @@ final class HandleHeap extends ChunkHandler {
         client.getClientData().clearHprofData();
     }
 
+    /*
+     * Handle the end of a HeaP Dump Streamed to a spill, the data has
+     * already been written by the client.
+     */
+    static void handleHPDSSpilled(Client client, HprofSpill spill) {
+        IHprofDumpHandler handler = ClientData.getHprofDumpHandler();
+        if (spill.getFailure() == null) {
+            Log.d("ddm-hprof", "streamed hprof file, size: " + spill.getWritten() + " bytes");
+            client.getClientData().setHprofData(spill.getFile(), spill.getWritten());
+            if (handler != null) {
+                handler.onSuccess(spill.getFile(), spill.getWritten(), client);
+            }
+        } else {
+            Log.w("ddm-hprof", "Streaming hprof failed: " + spill.getFailure().getMessage());
+            if (handler != null) {
+                handler.onEndFailure(client, spill.getFailure().getMessage());
+            }
+        }
+        client.update(Client.CHANGE_HPROF);
+        client.getClientData().clearHprofData();
+    }
+
     /**
      * Sends a REAE (REcent Allocation Enable) request to the client.
      */
@@ -6,6 +6,8 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Handle thread status updates.
@@ -232,6 +234,7 @@ final class HandleNativeHeap extends ChunkHandler {
         }
 
         int iterations = allocSize / allocInfoSize;
+        List<NativeAllocationInfo> allocations = new ArrayList<NativeAllocationInfo>(iterations);
         for (int i = 0 ; i < iterations ; i++) {
             NativeAllocationInfo info = new NativeAllocationInfo(
                     buffer.getSizeT() /* size */,
@@ -246,8 +249,10 @@ final class HandleNativeHeap extends ChunkHandler {
 
                 info.addStackCallAddress(addr);
             }
-            clientData.addNativeAllocation(info);
+            allocations.add(info);
         }
+        // publish the whole dump as one snapshot
+        clientData.addNativeAllocations(allocations);
     }
 
     private void handleNHSG(Client client, ByteBuffer data) {
@@ -285,6 +290,7 @@ final class HandleNativeHeap extends ChunkHandler {
         BufferedReader reader = new BufferedReader(input);
 
         String line;
+        List<NativeLibraryMapInfo> mapInfos = new ArrayList<NativeLibraryMapInfo>();
 
         try {
             while ((line = reader.readLine()) != null) {
@@ -321,13 +327,14 @@ final class HandleNativeHeap extends ChunkHandler {
                     continue;
                 }
 
-                clientData.addNativeLibraryMapInfo(startAddr, endAddr, library);
+                mapInfos.add(new NativeLibraryMapInfo(startAddr, endAddr, library));
                 Log.d("ddms", library + "(" + Long.toHexString(startAddr) +
                       " - " + Long.toHexString(endAddr) + ")");
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
+        clientData.addNativeLibraryMapInfos(mapInfos);
     }
 
 
@@ -0,0 +1,227 @@
+package org.fesaid.tools.ddmlib;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.fesaid.tools.ddmlib.thread.NamedThreadFactory;
+
+/**
+ * Target of a streamed HPROF dump. The payload of the HPDS reply is written to it while it is read from the VM instead
+ * of being buffered, so the dump is never held in memory.
+ *
+ * <p>The data is handed over from the network thread and written by a thread of its own, so a slow disk or a slow
+ * caller channel never stalls the event loop shared with the other clients of the device. Reading from the client
+ * connection stops while more than {@link #MAX_QUEUED_BYTES} are waiting to be written.
+ */
+final class HprofSpill {
+    private static final String WRITER_THREAD_NAME = "ddm-hprof-writer";
+    private static final long MAX_QUEUED_BYTES = 8 * 1024 * 1024;
+    private static final long RESUME_QUEUED_BYTES = MAX_QUEUED_BYTES / 2;
+
+    @Nullable
+    private final File mFile;
+    @NonNull
+    private final WritableByteChannel mChannel;
+    @NonNull
+    private final ExecutorService mWriter = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<>(), new NamedThreadFactory(WRITER_THREAD_NAME, 1));
+    private final AtomicLong mQueuedBytes = new AtomicLong();
+    private final AtomicBoolean mPaused = new AtomicBoolean();
+    private int mRequestId;
+    private long mRemaining = -1;
+    @Nullable
+    private Channel mSource;
+    private volatile long mWritten;
+    @Nullable
+    private volatile IOException mFailure;
+
+    private HprofSpill(@Nullable File file, @NonNull WritableByteChannel channel) {
+        mFile = file;
+        mChannel = channel;
+    }
+
+    /**
+     * Spill into a local file, created or truncated, and closed once the dump is complete.
+     */
+    static HprofSpill toFile(@NonNull File file) throws IOException {
+        return new HprofSpill(file, FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+    }
+
+    /**
+     * Spill into a channel owned by the caller, it is not closed.
+     */
+    static HprofSpill toChannel(@NonNull WritableByteChannel channel) {
+        return new HprofSpill(null, channel);
+    }
+
+    void setRequestId(int requestId) {
+        mRequestId = requestId;
+    }
+
+    int getRequestId() {
+        return mRequestId;
+    }
+
+    /**
+     * Called once the header of the HPDS reply has been read.
+     *
+     * @param length length of the hprof data following the header
+     * @param source connection the dump is read from, paused while too much data is queued
+     */
+    void start(long length, @NonNull Channel source) {
+        mRemaining = length;
+        mSource = source;
+    }
+
+    boolean isStarted() {
+        return mRemaining >= 0;
+    }
+
+    boolean isDone() {
+        return mRemaining == 0;
+    }
+
+    long getRemaining() {
+        return mRemaining;
+    }
+
+    /**
+     * Queue the hprof data at the start of the buffer, up to the end of the dump. The data is copied since the buffer
+     * is reused by the caller.
+     */
+    void write(@NonNull ByteBuffer buffer) {
+        int length = (int) Math.min(buffer.remaining(), mRemaining);
+        ByteBuffer data = buffer.duplicate();
+        data.limit(data.position() + length);
+        buffer.position(buffer.position() + length);
+        write(Unpooled.copiedBuffer(data));
+    }
+
+    /**
+     * Queue hprof data, ownership of the buffer is taken over. Must be called from the event loop of the source
+     * connection. After a write failure the data is still consumed but dropped, so the packets following the dump can
+     * be read.
+     */
+    void write(@NonNull ByteBuf data) {
+        int length = data.readableBytes();
+        mRemaining -= length;
+        if (mQueuedBytes.addAndGet(length) >= MAX_QUEUED_BYTES && mSource != null) {
+            // stop reading before flagging the pause, so the writer can not resume ahead of it
+            mSource.config().setAutoRead(false);
+            mPaused.set(true);
+            if (mQueuedBytes.get() <= RESUME_QUEUED_BYTES) {
+                resume();
+            }
+        }
+        try {
+            mWriter.execute(() -> writeQueued(data));
+        } catch (RejectedExecutionException e) {
+            data.release();
+            dequeued(length);
+        }
+    }
+
+    private void writeQueued(ByteBuf data) {
+        int length = data.readableBytes();
+        try {
+            if (mFailure == null) {
+                for (ByteBuffer buffer : data.nioBuffers()) {
+                    while (buffer.hasRemaining()) {
+                        mChannel.write(buffer);
+                    }
+                }
+                mWritten += length;
+            }
+        } catch (IOException e) {
+            Log.w("ddm-hprof", "Failed to write hprof data: " + e.getMessage());
+            mFailure = e;
+        } finally {
+            data.release();
+            dequeued(length);
+        }
+    }
+
+    private void dequeued(int length) {
+        if (mQueuedBytes.addAndGet(-length) <= RESUME_QUEUED_BYTES) {
+            resume();
+        }
+    }
+
+    private void resume() {
+        if (mPaused.compareAndSet(true, false)) {
+            mSource.config().setAutoRead(true);
+        }
+    }
+
+    /**
+     * Runs the callback on the writer thread once every queued byte has been written and the spill is closed.
+     */
+    void finish(@NonNull Runnable onFinished) {
+        try {
+            mWriter.execute(() -> {
+                close();
+                onFinished.run();
+            });
+        } catch (RejectedExecutionException e) {
+            close();
+            onFinished.run();
+        }
+    }
+
+    /**
+     * Marks the dump as failed, e.g. when the VM rejected the request or the connection went away.
+     */
+    void fail(@NonNull String message) {
+        if (mFailure == null) {
+            mFailure = new IOException(message);
+        }
+    }
+
+    /**
+     * Closes the file opened by {@link #toFile(File)}, a caller supplied channel is left open. Data queued after this
+     * call is dropped.
+     */
+    void close() {
+        mWriter.shutdown();
+        if (mFile != null) {
+            try {
+                mChannel.close();
+            } catch (IOException e) {
+                Log.w("ddm-hprof", "Failed to close " + mFile + ": " + e.getMessage());
+                if (mFailure == null) {
+                    mFailure = e;
+                }
+            }
+        }
+    }
+
+    @Nullable
+    File getFile() {
+        return mFile;
+    }
+
+    long getWritten() {
+        return mWritten;
+    }
+
+    @Nullable
+    IOException getFailure() {
+        return mFailure;
+    }
+}
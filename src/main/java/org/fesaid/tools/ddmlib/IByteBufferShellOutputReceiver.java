@@ -0,0 +1,20 @@
+package org.fesaid.tools.ddmlib;
+
+import com.android.annotations.NonNull;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link IShellOutputReceiver} which is handed the network buffers directly.
+ *
+ * <p>Each read from the device is delivered in one call, without being copied or sliced into
+ * small arrays, {@link #addOutput(byte[], int, int)} is not called by the connection for such
+ * receivers.
+ */
+public interface IByteBufferShellOutputReceiver extends IShellOutputReceiver {
+    /**
+     * Called every time some new data is available.
+     * @param data The new data, between its position and limit. The buffer is only valid for the
+     *             duration of the call and may be a direct buffer; its content must not be modified.
+     */
+    void addOutput(@NonNull ByteBuffer data);
+}
@@ -8,6 +8,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -372,6 +373,24 @@ public interface IDevice extends IShellEnabledDevice {
         throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException,
         IOException;
 
+    /**
+     * Executes a shell command on the device without blocking the calling thread, the output is handed to the
+     * receiver as it arrives.
+     *
+     * @param command the shell command to execute
+     * @param receiver the {@link IShellOutputReceiver} that will receives the output of the shell command
+     * @param maxTimeToOutputResponse the maximum amount of time during which the command is allowed to not output any
+     * response, 0 means no limit. The future completes with a {@link ShellCommandUnresponsiveException} after it.
+     * @param maxTimeUnits Units for non-zero {@code maxTimeToOutputResponse} values.
+     * @return future completed when the command finished
+     */
+    default CompletableFuture<Void> executeShellCommandAsync(String command, IShellOutputReceiver receiver,
+        long maxTimeToOutputResponse, TimeUnit maxTimeUnits) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        future.completeExceptionally(new UnsupportedOperationException());
+        return future;
+    }
+
     /**
      * execute command with a single line result
      *
@@ -443,6 +462,19 @@ public interface IDevice extends IShellEnabledDevice {
     void createForward(int localPort, int remotePort)
         throws TimeoutException, AdbCommandRejectedException, IOException;
 
+    /**
+     * Asynchronous version of {@link #createForward(int, int)}.
+     *
+     * @param localPort the local port to forward
+     * @param remotePort the remote port.
+     * @return future completed once adb accepted the forward
+     */
+    default CompletableFuture<Void> createForwardAsync(int localPort, int remotePort) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        future.completeExceptionally(new UnsupportedOperationException());
+        return future;
+    }
+
     /**
      * Creates a port forwarding between a local TCP port and a remote Unix Domain Socket.
      *
@@ -541,6 +573,44 @@ public interface IDevice extends IShellEnabledDevice {
     void pullFile(String remote, String local)
         throws IOException, AdbCommandRejectedException, TimeoutException, SyncException;
 
+    /**
+     * Push a single file without blocking the calling thread.
+     *
+     * @param local the local filepath.
+     * @param remote The remote filepath.
+     * @return future completed once the device acknowledged the file
+     */
+    default CompletableFuture<Void> pushFileAsync(String local, String remote) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        future.completeExceptionally(new UnsupportedOperationException());
+        return future;
+    }
+
+    /**
+     * Pulls a single file without blocking the calling thread.
+     *
+     * @param remote the full path to the remote file
+     * @param local The local destination.
+     * @return future completed once the whole file has been written locally
+     */
+    default CompletableFuture<Void> pullFileAsync(String remote, String local) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        future.completeExceptionally(new UnsupportedOperationException());
+        return future;
+    }
+
+    /**
+     * Returns the stat info of a remote file without blocking the calling thread.
+     *
+     * @param remote the full path to the remote file
+     * @return future of the mode, size and last modified info, completed with null if the stat failed
+     */
+    default CompletableFuture<SyncService.FileStat> statFileAsync(String remote) {
+        CompletableFuture<SyncService.FileStat> future = new CompletableFuture<>();
+        future.completeExceptionally(new UnsupportedOperationException());
+        return future;
+    }
+
     /**
      * Check file same with a stream
      * @implNote stream shouldn't be empty, at least one byte could read
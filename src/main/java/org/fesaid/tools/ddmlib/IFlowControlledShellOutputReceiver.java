@@ -0,0 +1,27 @@
+package org.fesaid.tools.ddmlib;
+
+import com.android.annotations.NonNull;
+
+/**
+ * {@link IShellOutputReceiver} which can pause the connection delivering its output.
+ *
+ * <p>The output is delivered on a network thread shared with other connections, so a receiver
+ * which can not keep up must never block in {@link #addOutput(byte[], int, int)}. It pauses
+ * reading instead, and resumes it from any thread once it caught up.
+ */
+public interface IFlowControlledShellOutputReceiver extends IShellOutputReceiver {
+    /**
+     * Pauses and resumes reading the output of the command, methods can be called from any
+     * thread. Data already read is still delivered after {@link #pauseReading()}.
+     */
+    interface ReadControl {
+        void pauseReading();
+
+        void resumeReading();
+    }
+
+    /**
+     * Called by the connection before any output is delivered.
+     */
+    void setReadControl(@NonNull ReadControl readControl);
+}
@@ -1,6 +1,8 @@
 package org.fesaid.tools.ddmlib;
 
 import com.android.annotations.NonNull;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import org.fesaid.tools.ddmlib.jdwp.JdwpCommands;
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -168,6 +170,18 @@ public final class JdwpPacket {
         mBuffer.position(oldPosn);
     }
 
+    /**
+     * Copy our packet into a new buffer, the packet can be consumed right after.
+     */
+    ByteBuf copyToByteBuf() {
+        assert mLength > 0;
+
+        ByteBuffer packet = mBuffer.duplicate();
+        packet.position(0);
+        packet.limit(mLength);
+        return Unpooled.copiedBuffer(packet);
+    }
+
     /**
      * "Move" the packet data out of the buffer we're sitting on and into
      * buf at the current position.
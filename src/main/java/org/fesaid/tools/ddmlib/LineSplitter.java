@@ -0,0 +1,121 @@
+package org.fesaid.tools.ddmlib;
+
+import com.android.annotations.NonNull;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Splits raw shell output into lines at the byte level.
+ *
+ * <p>Incoming data is scanned for <code>\n</code> in place, a line is only copied when it spans
+ * two chunks, in which case its head is carried in a growable buffer reused for the whole stream.
+ * A trailing <code>\r</code> is stripped. Since lines are cut before they are decoded, multi-byte
+ * UTF-8 characters split across chunks stay intact.
+ */
+final class LineSplitter {
+    private static final int INITIAL_CARRY_SIZE = 256;
+
+    /**
+     * Receives the lines found by a {@link LineSplitter}. The byte range is only valid for the
+     * duration of the call.
+     */
+    interface LineHandler {
+        void onLine(@NonNull byte[] data, int offset, int length);
+    }
+
+    private final LineHandler mHandler;
+    private byte[] mCarry = new byte[INITIAL_CARRY_SIZE];
+    private int mCarryLength;
+
+    LineSplitter(@NonNull LineHandler handler) {
+        mHandler = handler;
+    }
+
+    /**
+     * Splits the given chunk, the unfinished line at its end is kept for the next chunk.
+     */
+    void split(@NonNull byte[] data, int offset, int length) {
+        int end = offset + length;
+        int start = offset;
+        for (int i = offset; i < end; i++) {
+            if (data[i] != '\n') {
+                continue;
+            }
+            if (mCarryLength > 0) {
+                // the line started in a previous chunk
+                append(data, start, i - start);
+                emit(mCarry, 0, mCarryLength);
+                mCarryLength = 0;
+            } else {
+                emit(data, start, i - start);
+            }
+            start = i + 1;
+        }
+        if (start < end) {
+            append(data, start, end - start);
+        }
+    }
+
+    /**
+     * Splits the remaining bytes of the given buffer and consumes them.
+     */
+    void split(@NonNull ByteBuffer data) {
+        if (data.hasArray()) {
+            split(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            data.position(data.limit());
+            return;
+        }
+        while (data.hasRemaining()) {
+            // read the line straight into the carry, no intermediate array
+            int length = data.remaining();
+            int start = data.position();
+            int newline = -1;
+            for (int i = start; i < start + length; i++) {
+                if (data.get(i) == '\n') {
+                    newline = i;
+                    break;
+                }
+            }
+            int count = (newline == -1 ? start + length : newline) - start;
+            ensureCarry(count);
+            data.get(mCarry, mCarryLength, count);
+            mCarryLength += count;
+            if (newline != -1) {
+                data.get();
+                emit(mCarry, 0, mCarryLength);
+                mCarryLength = 0;
+            }
+        }
+    }
+
+    /**
+     * Returns the unfinished line, empty if the data ended with a line break, and forgets it.
+     */
+    @NonNull
+    String takeUnfinishedLine(@NonNull Charset charset) {
+        String line = new String(mCarry, 0, mCarryLength, charset);
+        mCarryLength = 0;
+        return line;
+    }
+
+    private void emit(byte[] data, int offset, int length) {
+        // in older devices, \n is preceded by a \r
+        if (length > 0 && data[offset + length - 1] == '\r') {
+            length--;
+        }
+        mHandler.onLine(data, offset, length);
+    }
+
+    private void append(byte[] data, int offset, int length) {
+        ensureCarry(length);
+        System.arraycopy(data, offset, mCarry, mCarryLength, length);
+        mCarryLength += length;
+    }
+
+    private void ensureCarry(int length) {
+        if (mCarryLength + length > mCarry.length) {
+            mCarry = Arrays.copyOf(mCarry, Math.max(mCarry.length * 2, mCarryLength + length));
+        }
+    }
+}
@@ -6,7 +6,6 @@ import org.fesaid.tools.ddmlib.jdwp.JdwpExtension;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.nio.BufferOverflowException;
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.NotYetBoundException;
 import java.nio.channels.SelectionKey;
@@ -22,6 +21,8 @@ import java.util.Set;
 
 /**
  * Monitor open connections.
+ * <p>Client connections are served by the event loops of the adb connections, see {@link Client}, this thread only
+ * multiplexes the debugger listeners and connections.
  */
 @SuppressWarnings({"unused", "WeakerAccess"})
 final class MonitorThread extends Thread {
@@ -230,10 +231,7 @@ final class MonitorThread extends Thread {
                     SelectionKey key = iter.next();
                     iter.remove();
                     try {
-                        if (key.attachment() instanceof Client) {
-                            processClientActivity(key);
-                        }
-                        else if (key.attachment() instanceof Debugger) {
+                        if (key.attachment() instanceof Debugger) {
                             processDebuggerActivity(key);
                         }
                         else if (key.attachment() instanceof MonitorThread) {
@@ -266,56 +264,6 @@ final class MonitorThread extends Thread {
         return mDebugSelectedPort;
     }
 
-    /**
-     * Something happened. Figure out what.
-     */
-    private void processClientActivity(SelectionKey key) {
-        Client client = (Client)key.attachment();
-
-        try {
-            if (!key.isReadable() || !key.isValid()) {
-                Log.d("ddms", "Invalid key from " + client + ". Dropping client.");
-                dropClient(client, true);
-                return;
-            }
-
-            client.read();
-
-            /*
-             * See if we have a full packet in the buffer. It's possible we have
-             * more than one packet, so we have to loop.
-             */
-            JdwpPacket packet = client.getJdwpPacket();
-            while (packet != null) {
-                packet.log("Client: received jdwp packet");
-                client.incoming(packet, client.getDebugger());
-
-                packet.consume();
-                // find next
-                packet = client.getJdwpPacket();
-            }
-        } catch (CancelledKeyException | IOException e) {
-            // key was canceled probably due to a disconnected client before we could
-            // read stuff coming from the client, so we drop it.
-            dropClient(client, true);
-        } // something closed down, no need to print anything. The client is simply dropped.
-        catch (Exception ex) {
-            Log.e("ddms", ex);
-
-            /* close the client; automatically un-registers from selector */
-            dropClient(client, true);
-
-            if (ex instanceof BufferOverflowException) {
-                Log.w("ddms",
-                        "Client data packet exceeded maximum buffer size "
-                                + client);
-            } else {
-                // don't know what this is, display it
-                Log.e("ddms", ex);
-            }
-        }
-    }
-
     /**
      * Drops a client from the monitor.
      * <p>This will lock the {@link Client} list of the {@link Device} running <var>client</var>.
@@ -460,9 +408,8 @@ final class MonitorThread extends Thread {
 
     /**
      * Add a new Client to the list of things we monitor. Also adds the client's
-     * channel and the client's debugger listener to the selection list. This
-     * should only be called from one thread (the VMWatcherThread) to avoid a
-     * race between "alreadyOpen" and Client creation.
+     * debugger listener to the selection list, the client's connection is already
+     * read by its own event loop.
      */
     synchronized void addClient(Client client) {
         if (sInstance == null) {
@@ -479,8 +426,8 @@ final class MonitorThread extends Thread {
             }
 
             /*
-             * Register the Client's socket channel with the selector. We attach
-             * the Client to the SelectionKey. If you try to register a new
+             * Register the debugger listener with the selector. We attach the
+             * Debugger to the SelectionKey. If you try to register a new
              * channel with the Selector while it is waiting for I/O, you will
              * block. The solution is to call wakeup() and then hold a lock to
              * ensure that the registration happens before the Selector goes
@@ -489,8 +436,6 @@ final class MonitorThread extends Thread {
             try {
                 wakeup();
 
-                client.register(mSelector);
-
                 Debugger dbg = client.getDebugger();
                 if (dbg != null) {
                     dbg.registerListener(mSelector);
@@ -2,8 +2,9 @@ package org.fesaid.tools.ddmlib;
 
 import com.android.annotations.NonNull;
 import com.google.common.base.Charsets;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.List;
 
 /**
  * Base implementation of {@link IShellOutputReceiver}, that takes the raw data coming from the
@@ -12,17 +13,22 @@ import java.util.Collection;
  * <p>Additionally, it splits the string by lines.
  *
  * <p>Classes extending it must implement {@link #processNewLines(String[])} which receives new
- * parsed lines as they become available.
+ * parsed lines as they become available. Receivers on a hot path can override
+ * {@link #processNewLines(List)} as well, which receives the lines without copying them into a
+ * new array for every batch.
  * @author AOSP
  */
-public abstract class MultiLineReceiver implements IShellOutputReceiver {
+public abstract class MultiLineReceiver implements IByteBufferShellOutputReceiver {
 
     private boolean mTrimLines = true;
 
-    /** unfinished message line, stored for next packet */
-    private String mUnfinishedLine = null;
+    /** splits the raw output, carries the unfinished line to the next packet */
+    private final LineSplitter mSplitter = new LineSplitter(this::addLine);
 
-    private final Collection<String> mArray = new ArrayList<>();
+    /** whether output was received since the last flush, an empty last line is still flushed */
+    private boolean mHasOutput = false;
+
+    private final List<String> mArray = new ArrayList<>();
 
     /**
      * Set the trim lines flag.
@@ -36,61 +42,54 @@ public abstract class MultiLineReceiver implements IShellOutputReceiver {
     @Override
     public final void addOutput(byte[] data, int offset, int length) {
         if (!isCancelled()) {
-            String s = new String(data, offset, length, Charsets.UTF_8);
+            mHasOutput = true;
+            // lines are cut on the raw bytes and each one is decoded once
+            mArray.clear();
+            mSplitter.split(data, offset, length);
+            processLines();
+        }
+    }
 
-            // ok we've got a string
-            // if we had an unfinished line we add it.
-            if (mUnfinishedLine != null) {
-                s = mUnfinishedLine + s;
-                mUnfinishedLine = null;
+    @Override
+    public final void addOutput(@NonNull ByteBuffer data) {
+        if (!isCancelled()) {
+            mHasOutput = true;
+            mArray.clear();
+            mSplitter.split(data);
+            processLines();
+        }
+    }
+
+    private void addLine(byte[] data, int offset, int length) {
+        if (mTrimLines) {
+            // same as String.trim(), UTF-8 multi-byte sequences never contain bytes <= ' '
+            while (length > 0 && (data[offset] & 0xff) <= ' ') {
+                offset++;
+                length--;
+            }
+            while (length > 0 && (data[offset + length - 1] & 0xff) <= ' ') {
+                length--;
             }
+        }
+        mArray.add(new String(data, offset, length, Charsets.UTF_8));
+    }
 
-            // now we split the lines
+    private void processLines() {
+        if (!mArray.isEmpty()) {
+            // at this point we've split all the lines.
+            // send them for final processing, the list is reused for the next batch
+            processNewLines(mArray);
             mArray.clear();
-            int start = 0;
-            do {
-                int index = s.indexOf('\n', start);
-
-                // if \n was not found, this is an unfinished line and we store it to be processed for the next packet
-
-                if (index == -1) {
-                    mUnfinishedLine = s.substring(start);
-                    break;
-                }
-
-                // we found a \n, in older devices, this is preceded by a \r
-                int newlineLength = 1;
-                if (index > 0 && s.charAt(index - 1) == '\r') {
-                    index--;
-                    newlineLength = 2;
-                }
-
-                // extract the line
-                String line = s.substring(start, index);
-                if (mTrimLines) {
-                    line = line.trim();
-                }
-                mArray.add(line);
-
-                // move start to after the \r\n we found
-                start = index + newlineLength;
-            } while (true);
-
-            if (!mArray.isEmpty()) {
-                // at this point we've split all the lines.
-                // make the array
-                String[] lines = mArray.toArray(new String[0]);
-
-                // send it for final processing
-                processNewLines(lines);
-            }
         }
     }
 
     @Override
     public void flush() {
-        if (mUnfinishedLine != null) {
-            processNewLines(new String[] {mUnfinishedLine});
+        if (mHasOutput) {
+            mHasOutput = false;
+            mArray.clear();
+            mArray.add(mSplitter.takeUnfinishedLine(Charsets.UTF_8));
+            processLines();
         }
 
         done();
@@ -112,4 +111,18 @@ public abstract class MultiLineReceiver implements IShellOutputReceiver {
      * @param lines The array containing the new lines.
      */
     public abstract void processNewLines(@NonNull String[] lines);
+
+    /**
+     * Called when new lines are being received by the remote process, hands them to
+     * {@link #processNewLines(String[])} by default.
+     *
+     * <p>The list is reused for every batch, it is only valid for the duration of the call and
+     * must not be modified. Overriding this method avoids the array allocated for each batch,
+     * {@link #processNewLines(String[])} is not called then.
+     *
+     * @param lines The list containing the new lines.
+     */
+    protected void processNewLines(@NonNull List<String> lines) {
+        processNewLines(lines.toArray(new String[0]));
+    }
 }
@@ -0,0 +1,219 @@
+package org.fesaid.tools.ddmlib;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.fesaid.tools.ddmlib.FileListingService.FileEntry;
+import org.fesaid.tools.ddmlib.SyncException.SyncError;
+import org.fesaid.tools.ddmlib.SyncService.ISyncProgressMonitor;
+import org.fesaid.tools.ddmlib.SyncService.PullStats;
+import org.fesaid.tools.ddmlib.thread.NamedThreadFactory;
+
+/**
+ * Pulls a tree of remote entries over several sync connections to the same device.
+ * <p>The calling thread walks the remote directories and queues every file as soon as its directory has been listed,
+ * while each worker owns one {@link SyncService} and pulls files from the queue, so listing overlaps with transfers.
+ *
+ * @author Chen Yang/CL10060-N/chen.yang@linecorp.com
+ */
+@Slf4j
+final class ParallelSyncPull {
+    private static final String THREAD_NAME_PREFIX = "SyncPull";
+    private static final PullJob END = new PullJob(null, null);
+
+    private final InetSocketAddress mAddress;
+    private final Device mDevice;
+    private final int mConnections;
+    private final BlockingQueue<PullJob> mJobs = new LinkedBlockingQueue<>();
+    private volatile Exception mFailure;
+
+    ParallelSyncPull(InetSocketAddress address, Device device, int connections) {
+        mAddress = address;
+        mDevice = device;
+        mConnections = connections;
+    }
+
+    /**
+     * Pulls file(s) or folder(s), the monitor is started with an unknown total since listing is not done upfront.
+     *
+     * @param entries the remote item(s) to pull
+     * @param localPath the local destination folder
+     * @param monitor The progress monitor, advanced with the bytes received by all the connections and by 1 for every
+     * pulled directory.
+     * @return the file bytes received and the time the pull took.
+     * @throws SyncException if a file could not be pulled
+     * @throws TimeoutException in case of a timeout reading responses from the device.
+     */
+    PullStats pull(FileEntry[] entries, String localPath, ISyncProgressMonitor monitor)
+        throws SyncException, TimeoutException {
+        AggregateProgressMonitor aggregateMonitor = new AggregateProgressMonitor(monitor);
+        ExecutorService executor = new ThreadPoolExecutor(mConnections, mConnections, 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(), new NamedThreadFactory(THREAD_NAME_PREFIX, mConnections));
+        List<Future<?>> workers = new ArrayList<>(mConnections);
+        long begin = System.nanoTime();
+        aggregateMonitor.start(0);
+        try {
+            for (int i = 0; i < mConnections; i++) {
+                workers.add(executor.submit(() -> work(aggregateMonitor)));
+            }
+            try {
+                list(entries, localPath, new FileListingService(mDevice), aggregateMonitor);
+            } catch (SyncException e) {
+                fail(e);
+            } finally {
+                for (int i = 0; i < mConnections; i++) {
+                    mJobs.add(END);
+                }
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Interrupted", e);
+        } catch (ExecutionException e) {
+            fail(e);
+        } finally {
+            executor.shutdownNow();
+            aggregateMonitor.stop();
+        }
+        PullStats stats = new PullStats(aggregateMonitor.getTransferred(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin), mConnections);
+        log.debug("Pulled {} from {}", stats, mDevice.getSerialNumber());
+        if (mFailure instanceof SyncException) {
+            throw (SyncException) mFailure;
+        } else if (mFailure instanceof TimeoutException) {
+            throw (TimeoutException) mFailure;
+        } else if (mFailure != null) {
+            throw new SyncException(SyncError.TRANSFER_PROTOCOL_ERROR, mFailure);
+        }
+        return stats;
+    }
+
+    private void list(FileEntry[] entries, String localPath, FileListingService fileListingService,
+        AggregateProgressMonitor monitor) throws SyncException {
+        for (FileEntry e : entries) {
+            if (monitor.isCanceled()) {
+                throw new SyncException(SyncError.CANCELED);
+            }
+            if (mFailure != null) {
+                return;
+            }
+            int type = e.getType();
+            String dest = localPath + File.separator + e.getName();
+            if (type == FileListingService.TYPE_DIRECTORY) {
+                // make the directory before any of its files is pulled
+                new File(dest).mkdir();
+                FileEntry[] children = fileListingService.getChildren(e, true, null);
+                list(children, dest, fileListingService, monitor);
+                monitor.advanceDirectory();
+            } else if (type == FileListingService.TYPE_FILE) {
+                mJobs.add(new PullJob(e.getFullPath(), dest));
+            }
+        }
+    }
+
+    private Void work(ISyncProgressMonitor monitor) {
+        boolean broken = false;
+        try (SyncService sync = new SyncService(mAddress, mDevice)) {
+            try {
+                sync.openSync();
+            } catch (Exception e) {
+                fail(e);
+                broken = true;
+            }
+            PullJob job;
+            while ((job = mJobs.take()) != END) {
+                if (broken || mFailure != null || monitor.isCanceled()) {
+                    // keep draining the queue so the other workers get their end marker
+                    continue;
+                }
+                monitor.startSubTask(job.mRemotePath);
+                try {
+                    sync.doPullFile(job.mRemotePath, job.mLocalPath, monitor);
+                } catch (SyncException | TimeoutException | RuntimeException e) {
+                    fail(e);
+                    broken = true;
+                }
+            }
+        } catch (InterruptedException e) {
+            fail(e);
+        }
+        return null;
+    }
+
+    private void fail(Exception e) {
+        if (mFailure == null) {
+            mFailure = e instanceof ExecutionException && e.getCause() instanceof Exception ?
+                (Exception) e.getCause() : e;
+        }
+    }
+
+    private static final class PullJob {
+        private final String mRemotePath;
+        private final String mLocalPath;
+
+        private PullJob(String remotePath, String localPath) {
+            mRemotePath = remotePath;
+            mLocalPath = localPath;
+        }
+    }
+
+    /**
+     * Serializes the progress reported by every connection into the caller's monitor, and counts the bytes they
+     * received.
+     */
+    private static final class AggregateProgressMonitor implements ISyncProgressMonitor {
+        private final ISyncProgressMonitor mDelegate;
+        private long mTransferred;
+
+        private AggregateProgressMonitor(ISyncProgressMonitor delegate) {
+            mDelegate = delegate;
+        }
+
+        @Override
+        public synchronized void start(int totalWork) {
+            mDelegate.start(totalWork);
+        }
+
+        @Override
+        public synchronized void stop() {
+            mDelegate.stop();
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return mDelegate.isCanceled();
+        }
+
+        @Override
+        public synchronized void startSubTask(String name) {
+            mDelegate.startSubTask(name);
+        }
+
+        @Override
+        public synchronized void advance(int work) {
+            mTransferred += work;
+            mDelegate.advance(work);
+        }
+
+        /**
+         * Reports a pulled directory to the caller's monitor without counting it as a transferred byte.
+         */
+        private synchronized void advanceDirectory() {
+            mDelegate.advance(1);
+        }
+
+        private synchronized long getTransferred() {
+            return mTransferred;
+        }
+    }
+}
@@ -2,8 +2,10 @@ package org.fesaid.tools.ddmlib;
 
 import com.android.annotations.NonNull;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.SettableFuture;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -11,13 +13,11 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
- * Fetches and caches 'getprop' values from device.
+ * Caches 'getprop' values from device, fetched by a {@link DeviceStateRefresher}.
  */
 class PropertyFetcher {
     /** the amount of time to wait between unsuccessful prop fetch attempts */
-    private static final String GETPROP_COMMAND = "getprop"; //$NON-NLS-1$
     private static final Pattern GETPROP_PATTERN = Pattern.compile("^\\[([^]]+)\\]\\:\\s*\\[(.*)\\]$"); //$NON-NLS-1$
-    private static final int GETPROP_TIMEOUT_SEC = 2;
     private static final int EXPECTED_PROP_COUNT = 150;
 
     private enum CacheState {
@@ -67,34 +67,99 @@ class PropertyFetcher {
         }
     }
 
-    private final Map<String, String> mProperties = Maps.newHashMapWithExpectedSize(
-            EXPECTED_PROP_COUNT);
+    /**
+     * Immutable snapshot of the cached properties, replaced on every refresh.
+     */
+    private volatile Map<String, String> mProperties = ImmutableMap.of();
+    private volatile long mVersion;
+    private long mLastRefreshNanos;
     private final IDevice mDevice;
+    private final DeviceStateRefresher mRefresher;
     private CacheState mCacheState = CacheState.UNPOPULATED;
     private final Map<String, SettableFuture<String>> mPendingRequests =
             Maps.newHashMapWithExpectedSize(4);
 
-    public PropertyFetcher(IDevice device) {
+    PropertyFetcher(IDevice device, DeviceStateRefresher refresher) {
         mDevice = device;
+        mRefresher = refresher;
     }
 
     /**
      * Returns the full list of cached properties.
      */
-    public synchronized Map<String, String> getProperties() {
+    public Map<String, String> getProperties() {
         return mProperties;
     }
 
+    /**
+     * Returns the version of the cached properties, increased every time they are refreshed.
+     */
+    long getVersion() {
+        return mVersion;
+    }
+
     /**
      * Ideally we should not cache mutable system properties. But removing cache will result in more
      * blocking calls. Thus we keep the option to enable it here.
      */
     private static boolean sEnableCachingMutableProps = true;
+    /**
+     * How long cached mutable properties are served without querying the device again.
+     */
+    private static volatile long sMutablePropsFreshnessNanos = TimeUnit.SECONDS.toNanos(1);
+    /**
+     * Freshness of the mutable properties starting with a given prefix, overrides the default one above.
+     */
+    private static volatile Map<String, Long> sFreshnessByPrefix = ImmutableMap.of();
 
     public static void enableCachingMutableProps(boolean enabled) {
         sEnableCachingMutableProps = enabled;
     }
 
+    /**
+     * Sets how long cached mutable properties without a more specific policy are served.
+     */
+    public static void setMutablePropsFreshness(long freshness, @NonNull TimeUnit timeUnit) {
+        sMutablePropsFreshnessNanos = timeUnit.toNanos(freshness);
+    }
+
+    /**
+     * Sets how long cached mutable properties starting with the given prefix are served, a full property name sets the
+     * policy of that property only. The longest matching prefix wins. Immutable properties are never refreshed.
+     *
+     * @param prefix property name prefix, e.g. {@code "persist.sys."} or {@code "sys.boot_completed"}
+     * @param freshness how long a value is served after it was read, 0 to always query the device
+     * @param timeUnit unit of freshness
+     */
+    public static synchronized void setPropertyFreshness(@NonNull String prefix, long freshness,
+            @NonNull TimeUnit timeUnit) {
+        Map<String, Long> policies = new HashMap<>(sFreshnessByPrefix);
+        policies.put(prefix, timeUnit.toNanos(freshness));
+        sFreshnessByPrefix = ImmutableMap.copyOf(policies);
+    }
+
+    /**
+     * Removes the policy set by {@link #setPropertyFreshness(String, long, TimeUnit)} for the given prefix.
+     */
+    public static synchronized void clearPropertyFreshness(@NonNull String prefix) {
+        Map<String, Long> policies = new HashMap<>(sFreshnessByPrefix);
+        policies.remove(prefix);
+        sFreshnessByPrefix = ImmutableMap.copyOf(policies);
+    }
+
+    private static long getFreshnessNanos(@NonNull String name) {
+        long freshness = sMutablePropsFreshnessNanos;
+        int matchedLength = -1;
+        for (Map.Entry<String, Long> policy : sFreshnessByPrefix.entrySet()) {
+            String prefix = policy.getKey();
+            if (prefix.length() > matchedLength && name.startsWith(prefix)) {
+                freshness = policy.getValue();
+                matchedLength = prefix.length();
+            }
+        }
+        return freshness;
+    }
+
     /**
      * Make a possibly asynchronous request for a system property value.
      *
@@ -102,24 +167,33 @@ class PropertyFetcher {
      * @return a {@link Future} that can be used to retrieve the prop value
      */
     @NonNull
-    public synchronized Future<String> getProperty(@NonNull String name) {
+    public Future<String> getProperty(@NonNull String name) {
         SettableFuture<String> result;
-        if (mCacheState.equals(CacheState.FETCHING)) {
-            result = addPendingRequest(name);
-        } else if (mDevice.isOnline() && mCacheState.equals(CacheState.UNPOPULATED)
-                || !isImmutableProperty(name)) {
-            // cache is empty, or this is a volatile prop that requires a query
-            result = addPendingRequest(name);
-            mCacheState = CacheState.FETCHING;
-            initiatePropertiesQuery();
-        } else {
-            result = SettableFuture.create();
-            // cache is populated and this is a ro prop
-            result.set(mProperties.get(name));
+        synchronized (this) {
+            if (mCacheState.equals(CacheState.FETCHING)) {
+                return addPendingRequest(name);
+            } else if (mDevice.isOnline() && mCacheState.equals(CacheState.UNPOPULATED)
+                    || !isImmutableProperty(name) && !isMutablePropertyFresh(name)) {
+                // cache is empty, or this is a volatile prop whose cached value is stale
+                result = addPendingRequest(name);
+                mCacheState = CacheState.FETCHING;
+            } else {
+                result = SettableFuture.create();
+                // cache is populated and this is a ro prop, or a fresh enough volatile one
+                result.set(mProperties.get(name));
+                return result;
+            }
         }
+        // the refresher completes the pending requests, it must not be called while holding our lock
+        mRefresher.requestProperties();
         return result;
     }
 
+    private boolean isMutablePropertyFresh(@NonNull String name) {
+        return sEnableCachingMutableProps && mCacheState.equals(CacheState.POPULATED)
+                && System.nanoTime() - mLastRefreshNanos <= getFreshnessNanos(name);
+    }
+
     private SettableFuture<String> addPendingRequest(String name) {
         SettableFuture<String> future = mPendingRequests.get(name);
         if (future == null) {
@@ -129,37 +203,34 @@ class PropertyFetcher {
         return future;
     }
 
-    private void initiatePropertiesQuery() {
-        String threadName = String.format("query-prop-%s", mDevice.getSerialNumber());
-        Thread propThread = new Thread(threadName) {
-            @Override
-            public void run() {
-                try {
-                    GetPropReceiver propReceiver = new GetPropReceiver();
-                    mDevice.executeShellCommand(GETPROP_COMMAND, propReceiver, GETPROP_TIMEOUT_SEC,
-                            TimeUnit.SECONDS);
-                    populateCache(propReceiver.getCollectedProperties());
-                } catch (Throwable e) {
-                    handleException(e);
-                }
-            }
-        };
-        propThread.setDaemon(true);
-        propThread.start();
+    /**
+     * Called by the refresher with the properties it read.
+     *
+     * @param props properties read from the device
+     * @param requested whether this fetcher asked for the refresh
+     */
+    synchronized void onRefreshed(@NonNull Map<String, String> props, boolean requested) {
+        if (!props.isEmpty() || requested) {
+            populateCache(props);
+        }
     }
 
-    private synchronized void populateCache(@NonNull Map<String, String> props) {
+    private void populateCache(@NonNull Map<String, String> props) {
         mCacheState = props.isEmpty() ? CacheState.UNPOPULATED : CacheState.POPULATED;
         if (!props.isEmpty()) {
+            Map<String, String> properties = new HashMap<>(mProperties);
             if (sEnableCachingMutableProps) {
-                mProperties.putAll(props);
+                properties.putAll(props);
             } else {
                 for (Map.Entry<String, String> entry : props.entrySet()) {
                     if (isImmutableProperty(entry.getKey())) {
-                        mProperties.put(entry.getKey(), entry.getValue());
+                        properties.put(entry.getKey(), entry.getValue());
                     }
                 }
             }
+            mProperties = ImmutableMap.copyOf(properties);
+            mVersion++;
+            mLastRefreshNanos = System.nanoTime();
         }
         for (Map.Entry<String, SettableFuture<String>> entry : mPendingRequests.entrySet()) {
             if (sEnableCachingMutableProps || isImmutableProperty(entry.getKey())) {
@@ -171,8 +242,8 @@ class PropertyFetcher {
         mPendingRequests.clear();
     }
 
-    private synchronized void handleException(Throwable e) {
-        mCacheState = CacheState.UNPOPULATED;
+    synchronized void handleException(Throwable e) {
+        mCacheState = mProperties.isEmpty() ? CacheState.UNPOPULATED : CacheState.POPULATED;
         Log.w("PropertyFetcher",
                 String.format("%s getting properties for device %s: %s",
                         e.getClass().getSimpleName(), mDevice.getSerialNumber(),
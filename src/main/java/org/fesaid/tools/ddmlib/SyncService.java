@@ -2,18 +2,26 @@ package org.fesaid.tools.ddmlib;
 
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
 import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetSocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import lombok.extern.slf4j.Slf4j;
 import org.fesaid.tools.ddmlib.FileListingService.FileEntry;
 import org.fesaid.tools.ddmlib.SyncException.SyncError;
 import org.fesaid.tools.ddmlib.netty.AdbConnection;
+import org.fesaid.tools.ddmlib.netty.input.PipelinedPushHandler;
 import org.fesaid.tools.ddmlib.netty.input.PullFileHandler;
 import org.fesaid.tools.ddmlib.netty.input.PushFileHandler;
 import org.fesaid.tools.ddmlib.netty.input.SameFileCheckHandler;
@@ -22,8 +30,7 @@ import org.fesaid.tools.ddmlib.utils.ArrayHelper;
 import org.fesaid.tools.ddmlib.utils.FilePermissionUtil;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
-import static org.fesaid.tools.ddmlib.AdbHelper.connect;
-import static org.fesaid.tools.ddmlib.AdbHelper.setDevice;
+import static org.fesaid.tools.ddmlib.AdbHelper.openTransport;
 import static org.fesaid.tools.ddmlib.DdmPreferences.getTimeOut;
 
 /**
@@ -78,6 +85,10 @@ public class SyncService implements Closeable {
 
     public static final int SYNC_DATA_MAX = 64 * 1024;
     private static final int REMOTE_PATH_MAX_LENGTH = 1024;
+    /**
+     * Max number of DATA packets written to the connection and not yet flushed to the socket by a file push.
+     */
+    private static final int MAX_IN_FLIGHT_REGIONS = 16;
 
 
     /**
@@ -143,6 +154,49 @@ public class SyncService implements Closeable {
         }
     }
 
+    /**
+     * Summary of a pull over several sync connections.
+     */
+    public static class PullStats {
+        private final long myBytes;
+        private final long myElapsedMillis;
+        private final int myConnections;
+
+        public PullStats(long bytes, long elapsedMillis, int connections) {
+            myBytes = bytes;
+            myElapsedMillis = elapsedMillis;
+            myConnections = connections;
+        }
+
+        /**
+         * @return the number of file bytes received, directories are not counted.
+         */
+        public long getBytes() {
+            return myBytes;
+        }
+
+        public long getElapsedMillis() {
+            return myElapsedMillis;
+        }
+
+        public int getConnections() {
+            return myConnections;
+        }
+
+        /**
+         * @return the aggregate throughput of all the connections.
+         */
+        public long getBytesPerSecond() {
+            return myBytes * 1000 / Math.max(1, myElapsedMillis);
+        }
+
+        @Override
+        public String toString() {
+            return myBytes + " bytes in " + myElapsedMillis + " ms over " + myConnections + " connections, "
+                + getBytesPerSecond() / 1024 + " KB/s";
+        }
+    }
+
     /**
      * A Sync progress monitor that does nothing
      */
@@ -200,8 +254,7 @@ public class SyncService implements Closeable {
      */
     boolean openSync() throws TimeoutException, AdbCommandRejectedException, IOException {
         try {
-            mChannel = connect(mAddress, mDevice.getSerialNumber());
-            setDevice(mChannel, mDevice);
+            mChannel = openTransport(mAddress, mDevice);
             mChannel.sendAndWaitSuccess("sync:", getTimeOut(), MILLISECONDS);
             return true;
         } catch (Exception e) {
@@ -213,6 +266,24 @@ public class SyncService implements Closeable {
         }
     }
 
+    /**
+     * Asynchronous version of {@link #openSync()}.
+     * <p>The asynchronous operations of a sync service must not overlap, the next one can be started once the future
+     * of the previous one completed.
+     *
+     * @return future of this service, completed once the sync connection is opened
+     */
+    CompletableFuture<SyncService> openSyncAsync() {
+        return AdbHelper.openTransportAsync(mAddress, mDevice).thenCompose(adbConnection -> {
+            mChannel = adbConnection;
+            return AdbHelper.sendAsync(adbConnection, "sync:");
+        }).whenComplete((result, throwable) -> {
+            if (throwable != null) {
+                close();
+            }
+        }).thenApply(v -> this);
+    }
+
     /**
      * Closes the connection.
      */
@@ -271,6 +342,40 @@ public class SyncService implements Closeable {
         monitor.stop();
     }
 
+    /**
+     * Pulls file(s) or folder(s) over several sync connections to the device.
+     * <p>Remote directories are listed while files are being transferred, so unlike
+     * {@link #pull(FileEntry[], String, ISyncProgressMonitor)} the total size is not known upfront and the monitor is
+     * started with 0. The monitor is advanced with the bytes received by all the connections.
+     *
+     * @param entries the remote item(s) to pull
+     * @param localPath The local destination. If the entries count is &gt; 1 or if the unique entry is a folder, this
+     * should be a folder.
+     * @param monitor The progress monitor. Cannot be null.
+     * @param connections the number of sync connections pulling files at the same time.
+     * @return the bytes received and the time the pull took.
+     * @throws SyncException SyncException
+     * @throws TimeoutException TimeoutException
+     */
+    public PullStats pull(FileEntry[] entries, String localPath, ISyncProgressMonitor monitor, int connections)
+        throws SyncException, TimeoutException {
+        if (connections <= 1) {
+            long begin = System.nanoTime();
+            pull(entries, localPath, monitor);
+            // the entries were listed by the pull, so this only walks the cached children
+            return new PullStats(getTotalRemoteFileBytes(entries, new FileListingService(mDevice)),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin), 1);
+        }
+        File f = new File(localPath);
+        if (!f.exists()) {
+            throw new SyncException(SyncError.NO_DIR_TARGET);
+        }
+        if (!f.isDirectory()) {
+            throw new SyncException(SyncError.TARGET_IS_FILE);
+        }
+        return new ParallelSyncPull(mAddress, mDevice, connections).pull(entries, localPath, monitor);
+    }
+
     /**
      * Pulls a single file.
      *
@@ -338,6 +443,23 @@ public class SyncService implements Closeable {
      * @throws TimeoutException in case of a timeout reading responses from the device.
      */
     public void push(String[] local, FileEntry remote, ISyncProgressMonitor monitor)
+        throws SyncException, IOException, TimeoutException {
+        push(local, remote, monitor, DdmPreferences.getSyncPushWindow());
+    }
+
+    /**
+     * Push several files, keeping up to <var>window</var> files in flight on the sync connection. Responses are
+     * matched in order, so the push is limited by bandwidth instead of by the round trip of each file.
+     *
+     * @param local An array of loca files to push
+     * @param remote the remote {@link FileEntry} representing a directory.
+     * @param monitor The progress monitor. Cannot be null.
+     * @param window max number of files waiting for their acknowledgement, 1 pushes files one after another.
+     * @throws SyncException if file could not be pushed
+     * @throws IOException in case of I/O error on the connection.
+     * @throws TimeoutException in case of a timeout reading responses from the device.
+     */
+    public void push(String[] local, FileEntry remote, ISyncProgressMonitor monitor, int window)
         throws SyncException, IOException, TimeoutException {
         if (!remote.isDirectory()) {
             throw new SyncException(SyncError.REMOTE_IS_FILE);
@@ -355,7 +477,18 @@ public class SyncService implements Closeable {
 
         monitor.start(total);
 
-        doPush(fileArray, remote.getFullPath(), monitor);
+        if (window > 1) {
+            PipelinedPushHandler pipelinedPushHandler = new PipelinedPushHandler(window);
+            mChannel.addHandler(pipelinedPushHandler);
+            try {
+                doPushPipelined(fileArray, remote.getFullPath(), monitor, pipelinedPushHandler);
+                pipelinedPushHandler.waitFinish(getTimeOut(), MILLISECONDS);
+            } finally {
+                mChannel.removeHandler(pipelinedPushHandler);
+            }
+        } else {
+            doPush(fileArray, remote.getFullPath(), monitor);
+        }
 
         monitor.stop();
     }
@@ -394,6 +527,26 @@ public class SyncService implements Closeable {
         doPushFile(stream, remote, monitor, mode, (int) (System.currentTimeMillis() / 1000));
     }
 
+    /**
+     * compute the recursive file size of all the files in the list, without the weight of the folders.
+     *
+     * @param entries entries
+     * @param fls fls
+     * @return bytes
+     */
+    private long getTotalRemoteFileBytes(FileEntry[] entries, FileListingService fls) {
+        long bytes = 0;
+        for (FileEntry e : entries) {
+            int type = e.getType();
+            if (type == FileListingService.TYPE_DIRECTORY) {
+                bytes += getTotalRemoteFileBytes(fls.getChildren(e, true, null), fls);
+            } else if (type == FileListingService.TYPE_FILE) {
+                bytes += e.getSizeValue();
+            }
+        }
+        return bytes;
+    }
+
     /**
      * compute the recursive file size of all the files in the list. Folder have a weight of 1.
      *
@@ -492,7 +645,7 @@ public class SyncService implements Closeable {
      * @throws SyncException if file could not be pushed
      * @throws TimeoutException in case of a timeout reading responses from the device.
      */
-    private void doPullFile(String remotePath, String localPath, ISyncProgressMonitor monitor) throws
+    void doPullFile(String remotePath, String localPath, ISyncProgressMonitor monitor) throws
         SyncException, TimeoutException {
 
         if (remotePath.getBytes(AdbHelper.DEFAULT_CHARSET).length > REMOTE_PATH_MAX_LENGTH) {
@@ -557,6 +710,53 @@ public class SyncService implements Closeable {
         }
     }
 
+    /**
+     * Push multiple files without waiting for the acknowledgement of each file before sending the next one.
+     *
+     * @param fileArray file array
+     * @param remotePath remote path
+     * @param monitor monitor
+     * @param handler handler matching the responses of the in flight files
+     * @throws SyncException if file could not be pushed
+     * @throws IOException in case of I/O error on the connection.
+     * @throws TimeoutException in case of a timeout reading responses from the device.
+     */
+    private void doPushPipelined(File[] fileArray, String remotePath, ISyncProgressMonitor monitor,
+        PipelinedPushHandler handler) throws SyncException, IOException, TimeoutException {
+        for (File f : fileArray) {
+            // check if we're canceled
+            if (monitor.isCanceled()) {
+                throw new SyncException(SyncError.CANCELED);
+            }
+            if (f.exists()) {
+                if (f.isDirectory()) {
+                    // append the name of the directory to the remote path
+                    String dest = remotePath + "/" + f.getName();
+                    monitor.startSubTask(dest);
+                    doPushPipelined(f.listFiles(), dest, monitor, handler);
+
+                    monitor.advance(1);
+                } else if (f.isFile()) {
+                    // append the name of the file to the remote path
+                    String remoteFile = remotePath + "/" + f.getName();
+                    monitor.startSubTask(remoteFile);
+                    byte[] remotePathContent = remoteFile.getBytes(AdbHelper.DEFAULT_CHARSET);
+                    if (remotePathContent.length > REMOTE_PATH_MAX_LENGTH) {
+                        throw new SyncException(SyncError.REMOTE_PATH_LENGTH);
+                    }
+                    try (FileChannel fileChannel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+                        handler.acquire(remoteFile, getTimeOut(), MILLISECONDS);
+                        mChannel.syncSend(createSendFileReq(ID_SEND, remotePathContent,
+                            FilePermissionUtil.getFilePosixPermission(f)), getTimeOut(), MILLISECONDS);
+                        sendFileRegions(fileChannel, monitor);
+                        mChannel.syncSend(createReq(ID_DONE, (int) (f.lastModified() / 1000)), getTimeOut(),
+                            MILLISECONDS);
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Push a single file
      *
@@ -569,13 +769,97 @@ public class SyncService implements Closeable {
      */
     private void doPushFile(String localPath, String remotePath, ISyncProgressMonitor monitor) throws SyncException,
         IOException, TimeoutException {
+        byte[] remotePathContent = remotePath.getBytes(AdbHelper.DEFAULT_CHARSET);
+        if (remotePathContent.length > REMOTE_PATH_MAX_LENGTH) {
+            throw new SyncException(SyncError.REMOTE_PATH_LENGTH);
+        }
         File localFile = new File(localPath);
-        try (FileInputStream inputStream = new FileInputStream(localFile)) {
-            doPushFile(inputStream, remotePath, monitor, FilePermissionUtil.getFilePosixPermission(localFile),
-                (int) (localFile.lastModified() / 1000));
+        try (FileChannel fileChannel = FileChannel.open(localFile.toPath(), StandardOpenOption.READ)) {
+            PushFileHandler pushFileHandler = new PushFileHandler();
+            mChannel.syncSendAndHandle(createSendFileReq(ID_SEND, remotePathContent,
+                FilePermissionUtil.getFilePosixPermission(localFile)), pushFileHandler, getTimeOut(), MILLISECONDS);
+            sendFileRegions(fileChannel, monitor);
+            mChannel.syncSend(createReq(ID_DONE, (int) (localFile.lastModified() / 1000)), getTimeOut(), MILLISECONDS);
+            pushFileHandler.waitFinish(getTimeOut(), MILLISECONDS);
         }
     }
 
+    /**
+     * Asynchronous version of {@link #pushFile(String, String, ISyncProgressMonitor)}. Every DATA packet is queued on
+     * the connection at once as a region of the local file, the future completes when the device acknowledged the
+     * file.
+     *
+     * @param local the local filepath
+     * @param remote the remote filepath (length max is 1024)
+     * @return future completed with a {@link SyncException} or {@link TimeoutException} on failure
+     */
+    public CompletableFuture<Void> pushFileAsync(String local, String remote) {
+        byte[] remotePathContent = remote.getBytes(AdbHelper.DEFAULT_CHARSET);
+        if (remotePathContent.length > REMOTE_PATH_MAX_LENGTH) {
+            return failedFuture(new SyncException(SyncError.REMOTE_PATH_LENGTH));
+        }
+        File localFile = new File(local);
+        if (localFile.isDirectory()) {
+            return failedFuture(new SyncException(SyncError.LOCAL_IS_DIRECTORY));
+        }
+        FileChannel fileChannel;
+        long size;
+        try {
+            fileChannel = FileChannel.open(localFile.toPath(), StandardOpenOption.READ);
+            size = fileChannel.size();
+        } catch (IOException e) {
+            return failedFuture(new SyncException(SyncError.FILE_READ_ERROR, e));
+        }
+        AdbConnection channel = mChannel;
+        PushFileHandler pushFileHandler = new PushFileHandler();
+        channel.addHandler(pushFileHandler);
+        channel.writeAndFlush(Unpooled.wrappedBuffer(createSendFileReq(ID_SEND, remotePathContent,
+            FilePermissionUtil.getFilePosixPermission(localFile))));
+        for (long position = 0; position < size; position += SYNC_DATA_MAX) {
+            int length = (int) Math.min(SYNC_DATA_MAX, size - position);
+            channel.writeFileRegion(createReq(ID_DATA, length), fileChannel, position, length);
+        }
+        ChannelFuture doneWritten = channel.writeAndFlush(Unpooled.wrappedBuffer(
+            createReq(ID_DONE, (int) (localFile.lastModified() / 1000))));
+        return toCompletableFuture(doneWritten)
+            .thenCompose(v -> channel.timeout(pushFileHandler.getFuture(), getTimeOut(), MILLISECONDS,
+                () -> new TimeoutException("Wait result timeout.")))
+            .whenComplete((result, throwable) -> {
+                channel.removeHandler(pushFileHandler);
+                try {
+                    fileChannel.close();
+                } catch (IOException ignored) {
+                }
+            });
+    }
+
+    /**
+     * Asynchronous version of {@link #pullFile(String, String, ISyncProgressMonitor)}. The data is written to the
+     * local file on the event loop of the connection as it arrives.
+     *
+     * @param remote the full path to the remote file (length max is 1024)
+     * @param local the local destination
+     * @return future completed with a {@link SyncException} or {@link TimeoutException} on failure
+     */
+    public CompletableFuture<Void> pullFileAsync(String remote, String local) {
+        byte[] remotePathContent = remote.getBytes(AdbHelper.DEFAULT_CHARSET);
+        if (remotePathContent.length > REMOTE_PATH_MAX_LENGTH) {
+            return failedFuture(new SyncException(SyncError.REMOTE_PATH_LENGTH));
+        }
+        AdbConnection channel = mChannel;
+        PullFileHandler pullFileHandler = new PullFileHandler(S_NULL_SYNC_PROGRESS_MONITOR, new File(local));
+        CompletableFuture<Void> finish = pullFileHandler.getFuture();
+        channel.timeout(pullFileHandler.getRespondBeginFuture(), getTimeOut(), MILLISECONDS,
+            () -> new TimeoutException("wait result timeout.")).whenComplete((result, throwable) -> {
+                if (throwable != null) {
+                    finish.completeExceptionally(throwable);
+                }
+            });
+        channel.addHandler(pullFileHandler);
+        channel.writeAndFlush(Unpooled.wrappedBuffer(createFileReq(ID_RECV, remotePathContent)));
+        return finish.whenComplete((result, throwable) -> channel.removeHandler(pullFileHandler));
+    }
+
     /**
      * Push a single file
      *
@@ -594,6 +878,68 @@ public class SyncService implements Closeable {
         PushFileHandler pullFileHandler = new PushFileHandler();
         mChannel.syncSendAndHandle(createSendFileReq(ID_SEND, remotePath.getBytes(AdbHelper.DEFAULT_CHARSET), mode),
             pullFileHandler, getTimeOut(), MILLISECONDS);
+        sendFileData(inputStream, monitor);
+        mChannel.syncSend(createReq(ID_DONE, time), getTimeOut(), MILLISECONDS);
+        pullFileHandler.waitFinish(getTimeOut(), MILLISECONDS);
+    }
+
+    /**
+     * Send the content of a file as DATA packets, the SEND request must already have been written. Each packet body
+     * is a region of the file transferred straight to the socket, and up to {@link #MAX_IN_FLIGHT_REGIONS} packets
+     * are written before waiting for the oldest one.
+     *
+     * @param fileChannel the local file to push
+     * @param monitor the monitor. The monitor must be started already.
+     * @throws SyncException if the push has been canceled or a write failed
+     * @throws IOException in case of I/O error reading the file.
+     * @throws TimeoutException in case of a timeout writing to the connection.
+     */
+    private void sendFileRegions(FileChannel fileChannel, ISyncProgressMonitor monitor) throws SyncException,
+        IOException, TimeoutException {
+        Deque<ChannelFuture> inFlight = new ArrayDeque<>(MAX_IN_FLIGHT_REGIONS);
+        long size = fileChannel.size();
+        long position = 0;
+        while (position < size) {
+            // check if we're canceled
+            if (monitor.isCanceled()) {
+                throw new SyncException(SyncError.CANCELED);
+            }
+            int length = (int) Math.min(SYNC_DATA_MAX, size - position);
+            inFlight.addLast(mChannel.writeFileRegion(createReq(ID_DATA, length), fileChannel, position, length));
+            position += length;
+            monitor.advance(length);
+            if (inFlight.size() >= MAX_IN_FLIGHT_REGIONS) {
+                waitWritten(inFlight.pollFirst());
+            }
+        }
+        while (!inFlight.isEmpty()) {
+            waitWritten(inFlight.pollFirst());
+        }
+    }
+
+    private static void waitWritten(ChannelFuture future) throws SyncException, TimeoutException {
+        try {
+            if (!future.await(getTimeOut(), MILLISECONDS)) {
+                throw new TimeoutException("Send data timeout.");
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Interrupted", e);
+        }
+        if (!future.isSuccess()) {
+            throw new SyncException(SyncError.TRANSFER_PROTOCOL_ERROR, future.cause());
+        }
+    }
+
+    /**
+     * Send the content of a stream as DATA packets, the SEND request must already have been written.
+     *
+     * @param inputStream the local stream to push
+     * @param monitor the monitor. The monitor must be started already.
+     * @throws SyncException if the push has been canceled
+     * @throws IOException in case of I/O error reading the stream.
+     */
+    private void sendFileData(InputStream inputStream, ISyncProgressMonitor monitor) throws SyncException,
+        IOException {
         System.arraycopy(ID_DATA, 0, getBuffer(), 0, ID_DATA.length);
         while (true) {
             // check if we're canceled
@@ -613,8 +959,6 @@ public class SyncService implements Closeable {
             // and advance the monitor
             monitor.advance(readCount);
         }
-        mChannel.syncSend(createReq(ID_DONE, time), getTimeOut(), MILLISECONDS);
-        pullFileHandler.waitFinish(getTimeOut(), MILLISECONDS);
     }
 
     /**
@@ -631,6 +975,39 @@ public class SyncService implements Closeable {
         return statFileHandler.waitData(getTimeOut(), MILLISECONDS);
     }
 
+    /**
+     * Asynchronous version of {@link #statFile(String)}.
+     *
+     * @param path the remote file
+     * @return future of the stat info, completed with null if the stat failed on the device
+     */
+    public CompletableFuture<FileStat> statFileAsync(@NonNull String path) {
+        AdbConnection channel = mChannel;
+        StatFileHandler statFileHandler = new StatFileHandler();
+        channel.addHandler(statFileHandler);
+        channel.writeAndFlush(Unpooled.wrappedBuffer(createFileReq(ID_STAT, path)));
+        return channel.timeout(statFileHandler.getFuture(), getTimeOut(), MILLISECONDS,
+            () -> new TimeoutException("Wait data timeout."));
+    }
+
+    private static CompletableFuture<Void> toCompletableFuture(ChannelFuture channelFuture) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        channelFuture.addListener(f -> {
+            if (f.isSuccess()) {
+                future.complete(null);
+            } else {
+                future.completeExceptionally(new SyncException(SyncError.TRANSFER_PROTOCOL_ERROR, f.cause()));
+            }
+        });
+        return future;
+    }
+
+    private static <T> CompletableFuture<T> failedFuture(Throwable cause) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(cause);
+        return future;
+    }
+
     /**
      * Create a command with a code and an int values
      *
@@ -77,6 +77,8 @@ public final class LogReceiver implements IShellOutputReceiver {
     private int mEntryHeaderOffset = 0;
     /** Offset in the partial entry data */
     private int mEntryDataOffset = 0;
+    /** Bytes of a v2+ entry header, after the first {@link #ENTRY_HEADER_SIZE}, still to be skipped */
+    private int mEntryHeaderSkip = 0;
 
     /** Listener waiting for receive fully read {@link LogEntry} objects */
     private ILogListener mListener;
@@ -143,6 +145,16 @@ public final class LogReceiver implements IShellOutputReceiver {
                     }
                 }
             }
+            // newer loggers have longer headers (euid, lid or uid), skip what we don't read.
+            if (mEntryHeaderSkip > 0) {
+                int skip = Math.min(length, mEntryHeaderSkip);
+                offset += skip;
+                length -= skip;
+                mEntryHeaderSkip -= skip;
+                if (mEntryHeaderSkip > 0) {
+                    return;
+                }
+            }
             // at this point, we have an entry, and offset/length have been updated to skip
             // the entry header.
             // if we have enough data for this entry or more, we'll need to end this entry
@@ -211,8 +223,9 @@ public final class LogReceiver implements IShellOutputReceiver {
         // create the new entry and fill it.
         LogEntry entry = new LogEntry();
         entry.len = ArrayHelper.swapU16bitFromArray(data, offset);
-        // we've read only 16 bits, but since there's also a 16 bit padding,
-        // we can skip right over both.
+        // the next 16 bits are padding in v1 entries, and the header size since v2.
+        int headerSize = ArrayHelper.swapU16bitFromArray(data, offset + 2);
+        mEntryHeaderSkip = Math.max(0, headerSize - ENTRY_HEADER_SIZE);
         offset += 4;
         entry.pid = ArrayHelper.swap32bitFromArray(data, offset);
         offset += 4;
@@ -0,0 +1,87 @@
+package org.fesaid.tools.ddmlib.logcat;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import org.fesaid.tools.ddmlib.IDevice;
+import org.fesaid.tools.ddmlib.Log.LogLevel;
+import org.fesaid.tools.ddmlib.log.LogReceiver.LogEntry;
+
+/**
+ * Converts the entries of {@code adb logcat -B}, as framed by {@link
+ * org.fesaid.tools.ddmlib.log.LogReceiver}, to {@link LogCatMessage} objects without any text
+ * parsing.
+ *
+ * <p>The payload of a text log entry is the priority byte, the tag and the message, each string
+ * terminated by a NUL.
+ */
+final class LogCatBinaryParser {
+    private LogCatBinaryParser() {
+    }
+
+    /**
+     * @return the message of the entry, or <code>null</code> if its payload is not a text log.
+     */
+    @Nullable
+    static LogCatMessage parse(@NonNull LogEntry entry, @Nullable IDevice device) {
+        byte[] data = entry.data;
+        int tagEnd = indexOfNul(data, 1, entry.len);
+        if (entry.len < 2 || tagEnd == -1) {
+            return null;
+        }
+        int messageEnd = indexOfNul(data, tagEnd + 1, entry.len);
+        if (messageEnd == -1) {
+            messageEnd = entry.len;
+        }
+        // a trailing line break is not part of the message
+        while (messageEnd > tagEnd + 1 && (data[messageEnd - 1] == '\n' || data[messageEnd - 1] == '\r')) {
+            messageEnd--;
+        }
+
+        LogCatHeader header =
+                new LogCatHeader(
+                        parsePriority(data[0]),
+                        entry.pid,
+                        entry.tid,
+                        LogCatMessageParser.getPackageName(device, entry.pid),
+                        new String(data, 1, tagEnd - 1, StandardCharsets.UTF_8),
+                        Instant.ofEpochSecond(entry.sec & 0xffffffffL, entry.nsec));
+
+        // one line per element, like the text format
+        LogCatMessage message = null;
+        int start = tagEnd + 1;
+        for (int i = start; i <= messageEnd; i++) {
+            if (i == messageEnd || data[i] == '\n') {
+                String line = new String(data, start, i - start, StandardCharsets.UTF_8);
+                if (message == null) {
+                    message = new LogCatMessage(header, line);
+                } else {
+                    message.getMessage().add(line);
+                }
+                start = i + 1;
+            }
+        }
+        return message;
+    }
+
+    @NonNull
+    private static LogLevel parsePriority(byte priority) {
+        for (LogLevel level : LogLevel.values()) {
+            if (level.getPriority() == priority) {
+                return level;
+            }
+        }
+        // same default as the text parser, FATAL shares its value with ASSERT
+        return LogLevel.WARN;
+    }
+
+    private static int indexOfNul(byte[] data, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (data[i] == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
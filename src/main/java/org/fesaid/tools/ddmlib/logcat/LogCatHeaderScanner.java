@@ -0,0 +1,267 @@
+package org.fesaid.tools.ddmlib.logcat;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import java.time.Instant;
+
+/**
+ * Scans {@code logcat -v long} header lines without regular expressions. It accepts exactly the
+ * lines matched by the header patterns of {@link LogCatMessageParser} and {@link
+ * LogCatLongEpochMessageParser}:
+ *
+ * <pre>[ 08-18 16:39:11.760  2977: 2988 D/PhoneInterfaceManager ]</pre>
+ *
+ * <pre>[          1517949446.554  2848: 2848 I/MainActivity ]</pre>
+ *
+ * <p>Fields are read in place by index, only the tag is copied out of the line. One instance is
+ * reused for every line of a parser, so it is not thread safe.
+ */
+final class LogCatHeaderScanner {
+    private static final int DATE_TIME_LENGTH = "MM-DD HH:MM:SS.mmm".length();
+    /** more digits may not fit in a long, the formatter deals with those */
+    private static final int MAX_EPOCH_SECONDS_DIGITS = 18;
+
+    private String mLine;
+    private int mPos;
+
+    private LogCatTimestamp mTimestamp;
+    private Instant mInstant;
+    private int mProcessId;
+    private int mThreadId;
+    private char mPriority;
+    private String mTag;
+
+    /**
+     * Scans a header with a {@code MM-DD HH:MM:SS.mmm} timestamp.
+     *
+     * @return false if the line is not a header
+     */
+    boolean scanLong(@NonNull String line) {
+        reset(line);
+        if (!skip('[') || !skip(' ') || mLine.length() - mPos < DATE_TIME_LENGTH) {
+            return false;
+        }
+        int start = mPos;
+        if (!isDigits(start, 2) || mLine.charAt(start + 2) != '-' ||
+            !isDigits(start + 3, 2) || mLine.charAt(start + 5) != ' ' ||
+            !isDigits(start + 6, 2) || mLine.charAt(start + 8) != ':' ||
+            !isDigits(start + 9, 2) || mLine.charAt(start + 11) != ':' ||
+            !isDigits(start + 12, 2) || mLine.charAt(start + 14) != '.' ||
+            !isDigits(start + 15, 3)) {
+            return false;
+        }
+        mPos += DATE_TIME_LENGTH;
+        if (!scanRest()) {
+            return false;
+        }
+        mTimestamp = new LogCatTimestamp(
+            number(start, 2), number(start + 3, 2),
+            number(start + 6, 2), number(start + 9, 2), number(start + 12, 2),
+            number(start + 15, 3));
+        return true;
+    }
+
+    /**
+     * Scans a header with a {@code seconds.mmm} epoch timestamp.
+     *
+     * @return false if the line is not a header
+     */
+    boolean scanEpoch(@NonNull String line) {
+        reset(line);
+        if (!skip('[') || skipSpaces() == 0) {
+            return false;
+        }
+        int start = mPos;
+        int secondsDigits = skipDigits();
+        if (secondsDigits == 0 || !skip('.') || !isDigits(mPos, 3)) {
+            return false;
+        }
+        int millisStart = mPos;
+        mPos += 3;
+        if (!scanRest()) {
+            return false;
+        }
+        if (secondsDigits > MAX_EPOCH_SECONDS_DIGITS) {
+            mInstant = LogCatLongEpochMessageParser.EPOCH_TIME_FORMATTER.parse(
+                mLine.substring(start, millisStart + 3), Instant::from);
+        } else {
+            long seconds = 0;
+            for (int i = start; i < start + secondsDigits; i++) {
+                seconds = seconds * 10 + (mLine.charAt(i) - '0');
+            }
+            mInstant = Instant.ofEpochSecond(seconds, number(millisStart, 3) * 1_000_000L);
+        }
+        return true;
+    }
+
+    /**
+     * Scans {@code " +PID: *TID L/TAG +]"} up to the end of the line.
+     */
+    private boolean scanRest() {
+        if (skipSpaces() == 0) {
+            return false;
+        }
+        int pidStart = mPos;
+        int pidDigits = skipDigits();
+        if (pidDigits == 0 || !skip(':')) {
+            return false;
+        }
+        skipSpaces();
+        int tidStart = mPos;
+        while (mPos < mLine.length() && isWordChar(mLine.charAt(mPos))) {
+            mPos++;
+        }
+        int tidEnd = mPos;
+        if (tidEnd == tidStart || !skip(' ') || mPos + 2 > mLine.length()) {
+            return false;
+        }
+        char priority = mLine.charAt(mPos);
+        if ("VDIWEAF".indexOf(priority) < 0 || mLine.charAt(mPos + 1) != '/') {
+            return false;
+        }
+        mPos += 2;
+
+        // the tag is followed by at least one space and the closing bracket
+        int end = mLine.length() - 1;
+        if (end < mPos + 1 || mLine.charAt(end) != ']' || mLine.charAt(end - 1) != ' ') {
+            return false;
+        }
+        int tagEnd = end - 1;
+        while (tagEnd > mPos && mLine.charAt(tagEnd - 1) == ' ') {
+            tagEnd--;
+        }
+        for (int i = mPos; i < tagEnd; i++) {
+            if (isLineTerminator(mLine.charAt(i))) {
+                return false;
+            }
+        }
+
+        mProcessId = parseProcessId(pidStart, pidDigits);
+        mThreadId = parseThreadId(tidStart, tidEnd);
+        mPriority = priority;
+        mTag = mLine.substring(mPos, tagEnd);
+        return true;
+    }
+
+    private void reset(String line) {
+        mLine = line;
+        mPos = 0;
+        mTimestamp = null;
+        mInstant = null;
+        mTag = null;
+    }
+
+    private boolean skip(char c) {
+        if (mPos < mLine.length() && mLine.charAt(mPos) == c) {
+            mPos++;
+            return true;
+        }
+        return false;
+    }
+
+    private int skipSpaces() {
+        int start = mPos;
+        while (mPos < mLine.length() && mLine.charAt(mPos) == ' ') {
+            mPos++;
+        }
+        return mPos - start;
+    }
+
+    private int skipDigits() {
+        int start = mPos;
+        while (mPos < mLine.length() && isDigit(mLine.charAt(mPos))) {
+            mPos++;
+        }
+        return mPos - start;
+    }
+
+    private boolean isDigits(int start, int count) {
+        if (start + count > mLine.length()) {
+            return false;
+        }
+        for (int i = start; i < start + count; i++) {
+            if (!isDigit(mLine.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int number(int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            value = value * 10 + (mLine.charAt(i) - '0');
+        }
+        return value;
+    }
+
+    private int parseProcessId(int start, int digits) {
+        long value = 0;
+        for (int i = start; i < start + digits; i++) {
+            value = value * 10 + (mLine.charAt(i) - '0');
+            if (value > Integer.MAX_VALUE) {
+                return -1;
+            }
+        }
+        return (int) value;
+    }
+
+    private int parseThreadId(int start, int end) {
+        // plain decimal ids are the common case, anything else (hex, octal, overflow) goes
+        // through the same decoding as before
+        if (end - start < 10 && (mLine.charAt(start) != '0' || end - start == 1)) {
+            int value = 0;
+            for (int i = start; i < end; i++) {
+                char c = mLine.charAt(i);
+                if (!isDigit(c)) {
+                    return LogCatMessageParser.parseThreadId(mLine.substring(start, end));
+                }
+                value = value * 10 + (c - '0');
+            }
+            return value;
+        }
+        return LogCatMessageParser.parseThreadId(mLine.substring(start, end));
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isWordChar(char c) {
+        return isDigit(c) || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    /**
+     * Characters not matched by {@code .} in a regular expression.
+     */
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    @Nullable
+    LogCatTimestamp getTimestamp() {
+        return mTimestamp;
+    }
+
+    @Nullable
+    Instant getInstant() {
+        return mInstant;
+    }
+
+    int getProcessId() {
+        return mProcessId;
+    }
+
+    int getThreadId() {
+        return mThreadId;
+    }
+
+    char getPriority() {
+        return mPriority;
+    }
+
+    @NonNull
+    String getTag() {
+        return mTag;
+    }
+}
@@ -9,27 +9,12 @@ import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeFormatterBuilder;
 import java.time.temporal.ChronoField;
 import java.util.Locale;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /** Parses the headers output by adb logcat -v long -v epoch. */
 public final class LogCatLongEpochMessageParser extends LogCatMessageParser {
     public static final Pattern EPOCH_TIME = Pattern.compile("\\d+\\.\\d\\d\\d");
 
-    private static final Pattern HEADER =
-            Pattern.compile(
-                    "^\\[ +("
-                            + EPOCH_TIME
-                            + ") +("
-                            + PROCESS_ID
-                            + "): *("
-                            + THREAD_ID
-                            + ") ("
-                            + PRIORITY
-                            + ")/("
-                            + TAG
-                            + ") +]$");
-
     public static final DateTimeFormatter EPOCH_TIME_FORMATTER =
             new DateTimeFormatterBuilder()
                     .appendValue(ChronoField.INSTANT_SECONDS)
@@ -39,17 +24,15 @@ public final class LogCatLongEpochMessageParser extends LogCatMessageParser {
     @Nullable
     @Override
     public LogCatHeader processLogHeader(@NonNull String string, @Nullable IDevice device) {
-        Matcher matcher = HEADER.matcher(string);
-
-        if (!matcher.matches()) {
+        if (!mScanner.scanEpoch(string)) {
             return null;
         }
 
-        Instant timestamp = EPOCH_TIME_FORMATTER.parse(matcher.group(1), Instant::from);
-        int processId = parseProcessId(matcher.group(2));
-        int threadId = parseThreadId(matcher.group(3));
-        LogLevel priority = parsePriority(matcher.group(4));
-        String tag = matcher.group(5);
+        Instant timestamp = mScanner.getInstant();
+        int processId = mScanner.getProcessId();
+        int threadId = mScanner.getThreadId();
+        LogLevel priority = parsePriority(mScanner.getPriority());
+        String tag = mScanner.getTag();
 
         mPrevHeader =
                 new LogCatHeader(
@@ -5,44 +5,20 @@ import com.android.annotations.Nullable;
 import org.fesaid.tools.ddmlib.IDevice;
 import org.fesaid.tools.ddmlib.Log.LogLevel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /** Class to parse raw output of {@code adb logcat -v long} to {@link LogCatMessage} objects. */
 public class LogCatMessageParser {
-    private static final Pattern DATE_TIME =
-            Pattern.compile("\\d\\d-\\d\\d \\d\\d:\\d\\d:\\d\\d\\.\\d\\d\\d");
-
-    static final Pattern PROCESS_ID = Pattern.compile("\\d+");
-    static final Pattern THREAD_ID = Pattern.compile("\\w+");
-    static final Pattern PRIORITY = Pattern.compile("[VDIWEAF]");
-    static final Pattern TAG = Pattern.compile(".*?");
-
     /**
-     * Pattern for logcat -v long header ([ MM-DD HH:MM:SS.mmm PID:TID LEVEL/TAG ]). Example:
+     * Scanner for logcat -v long header ([ MM-DD HH:MM:SS.mmm PID:TID LEVEL/TAG ]). Example:
      *
      * <pre>[ 08-18 16:39:11.760  2977: 2988 D/PhoneInterfaceManager ]</pre>
      *
-     * <p>Group 1: Date + Time<br>
-     * Group 2: PID<br>
-     * Group 3: TID (hex on some systems!)<br>
-     * Group 4: Log Level character<br>
-     * Group 5: Tag
+     * <p>The TID is hex on some systems. Every line goes through it, so it reads the fields in
+     * place instead of matching a regular expression.
      */
-    private static final Pattern HEADER =
-            Pattern.compile(
-                    "^\\[ ("
-                            + DATE_TIME
-                            + ") +("
-                            + PROCESS_ID
-                            + "): *("
-                            + THREAD_ID
-                            + ") ("
-                            + PRIORITY
-                            + ")/("
-                            + TAG
-                            + ") +]$");
+    final LogCatHeaderScanner mScanner = new LogCatHeaderScanner();
 
     @Nullable
     LogCatHeader mPrevHeader;
@@ -58,17 +34,15 @@ public class LogCatMessageParser {
      */
     @Nullable
     public LogCatHeader processLogHeader(@NonNull String line, @Nullable IDevice device) {
-        Matcher matcher = HEADER.matcher(line);
-
-        if (!matcher.matches()) {
+        if (!mScanner.scanLong(line)) {
             return null;
         }
 
-        LogCatTimestamp dateTime = LogCatTimestamp.fromString(matcher.group(1));
-        int processId = parseProcessId(matcher.group(2));
-        int threadId = parseThreadId(matcher.group(3));
-        LogLevel priority = parsePriority(matcher.group(4));
-        String tag = matcher.group(5);
+        LogCatTimestamp dateTime = mScanner.getTimestamp();
+        int processId = mScanner.getProcessId();
+        int threadId = mScanner.getThreadId();
+        LogLevel priority = parsePriority(mScanner.getPriority());
+        String tag = mScanner.getTag();
 
         mPrevHeader =
                 new LogCatHeader(
@@ -123,6 +97,20 @@ public class LogCatMessageParser {
         return priority;
     }
 
+    /**
+     * Same as {@link #parsePriority(String)} for a single letter.
+     */
+    @NonNull
+    static LogLevel parsePriority(char letter) {
+        LogLevel priority = LogLevel.getByLetter(letter);
+
+        if (priority == null) {
+            return letter == 'F' ? LogLevel.ASSERT : LogLevel.WARN;
+        }
+
+        return priority;
+    }
+
     @NonNull
     static String getPackageName(@Nullable IDevice device, int processId) {
         if (device == null || processId == -1) {
@@ -149,7 +137,15 @@ public class LogCatMessageParser {
      */
     @NonNull
     public List<LogCatMessage> processLogLines(@NonNull String[] lines, @Nullable IDevice device) {
-        List<LogCatMessage> messages = new ArrayList<>(lines.length);
+        return processLogLines(Arrays.asList(lines), device);
+    }
+
+    /**
+     * Same as {@link #processLogLines(String[], IDevice)}, for lines already held in a list.
+     */
+    @NonNull
+    public List<LogCatMessage> processLogLines(@NonNull List<String> lines, @Nullable IDevice device) {
+        List<LogCatMessage> messages = new ArrayList<>(lines.size());
 
         for (String line : lines) {
             if (line.isEmpty()) {
@@ -4,26 +4,45 @@ import com.android.annotations.NonNull;
 import com.android.annotations.concurrency.GuardedBy;
 import java.util.concurrent.TimeUnit;
 import org.fesaid.tools.ddmlib.AdbCommandRejectedException;
+import org.fesaid.tools.ddmlib.AndroidDebugBridge;
 import org.fesaid.tools.ddmlib.IDevice;
+import org.fesaid.tools.ddmlib.IFlowControlledShellOutputReceiver;
 import org.fesaid.tools.ddmlib.IShellOutputReceiver;
+import org.fesaid.tools.ddmlib.Log;
 import org.fesaid.tools.ddmlib.Log.LogLevel;
 import org.fesaid.tools.ddmlib.MultiLineReceiver;
 import org.fesaid.tools.ddmlib.ShellCommandUnresponsiveException;
 import org.fesaid.tools.ddmlib.TimeoutException;
+import org.fesaid.tools.ddmlib.log.LogReceiver;
+import org.fesaid.tools.ddmlib.log.LogReceiver.LogEntry;
+import org.fesaid.tools.ddmlib.netty.AdbNettyConfig;
+import org.fesaid.tools.ddmlib.thread.NamedThreadFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
+ * Runs logcat on a device and hands the messages to the {@link LogCatListener}s.
+ * <p>Messages are queued in a bounded buffer and delivered in batches by a dispatcher thread of the task, so a slow
+ * listener never stalls the connection reading the logcat output. See {@link
+ * AdbNettyConfig#getLogcatDispatchQueueCapacity()} for the capacity and the overflow policy.
+ *
  * @author AOSP
  */
 @SuppressWarnings("unused")
 public class LogCatReceiverTask implements Runnable {
     private static final String LOGCAT_COMMAND = "logcat -v long";
+    private static final String LOGCAT_BINARY_COMMAND = "logcat -B";
     private static final int DEVICE_POLL_INTERVAL_MSEC = 1000;
 
     private static final LogCatMessage S_DEVICE_DISCONNECTED_MSG =
@@ -32,21 +51,55 @@ public class LogCatReceiverTask implements Runnable {
             new LogCatMessage(LogLevel.ERROR, "LogCat Connection timed out");
     private static final LogCatMessage S_CONNECTION_ERROR_MSG =
             new LogCatMessage(LogLevel.ERROR, "LogCat Connection error");
+    /** marks the end of the messages in the dispatch queue */
+    private static final LogCatMessage S_END_MSG = new LogCatMessage(LogLevel.VERBOSE, "");
 
     private final IDevice mDevice;
-    private final LogCatOutputReceiver mReceiver;
+    private final boolean mBinary;
+    private final IShellOutputReceiver mReceiver;
     private final LogCatMessageParser mParser;
     private final AtomicBoolean mCancelled;
 
+    private final BlockingQueue<LogCatMessage> mQueue;
+    private final int mCapacity;
+    private final int mBatchSize;
+    private final boolean mBlockOnOverflow;
+    /** pauses the logcat connection while the queue is full when blocking on overflow */
+    private volatile IFlowControlledShellOutputReceiver.ReadControl mReadControl;
+    private final AtomicBoolean mReadPaused = new AtomicBoolean();
+    private final String mDispatcherThreadPrefix;
+    private final LongAdder mQueuedCount = new LongAdder();
+    private final LongAdder mDroppedCount = new LongAdder();
+    private final LongAdder mDeliveredCount = new LongAdder();
+
     @GuardedBy("this")
     private final Set<LogCatListener> mListeners = new HashSet<>();
 
     public LogCatReceiverTask(@NonNull IDevice device) {
+        this(device, false);
+    }
+
+    /**
+     * @param binary read {@code logcat -B} entries instead of parsing {@code logcat -v long} text.
+     *               The binary output goes through the exec service, so it needs Android 5.0 or
+     *               newer.
+     */
+    public LogCatReceiverTask(@NonNull IDevice device, boolean binary) {
         mDevice = device;
+        mBinary = binary;
 
-        mReceiver = new LogCatOutputReceiver();
+        mReceiver = binary ? new LogCatBinaryReceiver() : new LogCatOutputReceiver();
         mParser = new LogCatMessageParser();
         mCancelled = new AtomicBoolean();
+
+        AdbNettyConfig config = AndroidDebugBridge.getNettyConfig();
+        mCapacity = Math.max(1, config.getLogcatDispatchQueueCapacity());
+        mBatchSize = Math.max(1, config.getLogcatDispatchBatchSize());
+        mBlockOnOverflow = config.isLogcatDispatchBlockOnOverflow();
+        // when blocking, the capacity is enforced by pausing the connection, the messages of the reads already in
+        // flight still have to fit
+        mQueue = mBlockOnOverflow ? new LinkedBlockingQueue<>() : new ArrayBlockingQueue<>(mCapacity);
+        mDispatcherThreadPrefix = config.getLogcatDispatchThreadPrefix();
     }
 
     @Override
@@ -60,19 +113,34 @@ public class LogCatReceiverTask implements Runnable {
             }
         }
 
+        Thread dispatcher = new NamedThreadFactory(mDispatcherThreadPrefix, 1, true).newThread(this::dispatch);
         try {
-            mDevice.executeShellCommand(LOGCAT_COMMAND, mReceiver, Long.MAX_VALUE, TimeUnit.DAYS);
-        } catch (TimeoutException e) {
-            notifyListeners(Collections.singletonList(S_CONNECTION_TIMEOUT_MSG));
-        } catch (AdbCommandRejectedException ignored) {
-            // will not be thrown as long as the shell supports logcat
-        } catch (ShellCommandUnresponsiveException ignored) {
-            // this will not be thrown since the last argument is 0
-        } catch (IOException e) {
-            notifyListeners(Collections.singletonList(S_CONNECTION_ERROR_MSG));
-        }
+            dispatcher.start();
+            try {
+                if (mBinary) {
+                    // exec: the shell service may run the command in a pty, which mangles binary data
+                    mDevice.executeShellCommand(LOGCAT_BINARY_COMMAND, mReceiver, 0, TimeUnit.DAYS, null);
+                } else {
+                    mDevice.executeShellCommand(LOGCAT_COMMAND, mReceiver, Long.MAX_VALUE, TimeUnit.DAYS);
+                }
+            } catch (TimeoutException e) {
+                notifyListeners(Collections.singletonList(S_CONNECTION_TIMEOUT_MSG));
+            } catch (AdbCommandRejectedException ignored) {
+                // will not be thrown as long as the shell supports logcat
+            } catch (ShellCommandUnresponsiveException ignored) {
+                // this will not be thrown since the last argument is 0
+            } catch (IOException e) {
+                notifyListeners(Collections.singletonList(S_CONNECTION_ERROR_MSG));
+            }
 
-        notifyListeners(Collections.singletonList(S_DEVICE_DISCONNECTED_MSG));
+            notifyListeners(Collections.singletonList(S_DEVICE_DISCONNECTED_MSG));
+        } finally {
+            // the dispatcher exits once everything before the end marker has been delivered, also when the command
+            // failed with an unchecked exception
+            if (!enqueue(S_END_MSG, true)) {
+                dispatcher.interrupt();
+            }
+        }
     }
 
     public void stop() {
@@ -80,7 +148,7 @@ public class LogCatReceiverTask implements Runnable {
     }
 
     @SuppressWarnings("WeakerAccess")
-    private class LogCatOutputReceiver extends MultiLineReceiver {
+    private class LogCatOutputReceiver extends MultiLineReceiver implements IFlowControlledShellOutputReceiver {
         public LogCatOutputReceiver() {
             setTrimLine(false);
         }
@@ -91,14 +159,24 @@ public class LogCatReceiverTask implements Runnable {
             return mCancelled.get();
         }
 
+        @Override
+        public void setReadControl(@NonNull ReadControl readControl) {
+            mReadControl = readControl;
+        }
+
         @Override
         public void processNewLines(@NonNull String[] lines) {
+            processNewLines(Arrays.asList(lines));
+        }
+
+        @Override
+        protected void processNewLines(@NonNull List<String> lines) {
             if (!mCancelled.get()) {
                 processLogLines(lines);
             }
         }
 
-        private void processLogLines(String[] lines) {
+        private void processLogLines(List<String> lines) {
             List<LogCatMessage> newMessages = mParser.processLogLines(lines, mDevice);
             if (!newMessages.isEmpty()) {
                 notifyListeners(newMessages);
@@ -106,6 +184,53 @@ public class LogCatReceiverTask implements Runnable {
         }
     }
 
+    /**
+     * Decodes the entries framed by a {@link LogReceiver} straight into {@link LogCatMessage}s.
+     */
+    private class LogCatBinaryReceiver implements IFlowControlledShellOutputReceiver, LogReceiver.ILogListener {
+        private final LogReceiver mLogReceiver = new LogReceiver(this);
+        private final List<LogCatMessage> mMessages = new ArrayList<>();
+
+        @Override
+        public void addOutput(byte[] data, int offset, int length) {
+            if (mCancelled.get()) {
+                return;
+            }
+            mLogReceiver.addOutput(data, offset, length);
+            if (!mMessages.isEmpty()) {
+                // the messages are copied into the dispatch queue
+                notifyListeners(mMessages);
+                mMessages.clear();
+            }
+        }
+
+        @Override
+        public void newEntry(LogEntry entry) {
+            LogCatMessage message = LogCatBinaryParser.parse(entry, mDevice);
+            if (message != null) {
+                mMessages.add(message);
+            }
+        }
+
+        @Override
+        public void newData(byte[] data, int offset, int length) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return mCancelled.get();
+        }
+
+        @Override
+        public void setReadControl(@NonNull ReadControl readControl) {
+            mReadControl = readControl;
+        }
+    }
+
     public synchronized void addLogCatListener(LogCatListener l) {
         mListeners.add(l);
     }
@@ -114,9 +239,134 @@ public class LogCatReceiverTask implements Runnable {
         mListeners.remove(l);
     }
 
-    private synchronized void notifyListeners(List<LogCatMessage> messages) {
-        for (LogCatListener l: mListeners) {
-            l.log(messages);
+    /**
+     * Queue messages for the dispatcher, connection status messages are never dropped. Called on the event loop
+     * reading the logcat output, except for the status messages, so it must never block.
+     */
+    private void notifyListeners(List<LogCatMessage> messages) {
+        boolean status = messages.size() == 1 && isStatusMessage(messages.get(0));
+        for (LogCatMessage message : messages) {
+            if (!enqueue(message, status)) {
+                return;
+            }
+        }
+        if (mBlockOnOverflow && mQueue.size() >= mCapacity) {
+            pauseReading();
+        }
+    }
+
+    private void pauseReading() {
+        IFlowControlledShellOutputReceiver.ReadControl readControl = mReadControl;
+        if (readControl == null) {
+            return;
+        }
+        // pause before flagging it, so the dispatcher can not resume ahead of the pause
+        readControl.pauseReading();
+        mReadPaused.set(true);
+        if (mQueue.size() <= mCapacity / 2) {
+            // the dispatcher caught up meanwhile
+            resumeReading();
+        }
+    }
+
+    private void resumeReading() {
+        if (mReadPaused.compareAndSet(true, false)) {
+            mReadControl.resumeReading();
+        }
+    }
+
+    private static boolean isStatusMessage(LogCatMessage message) {
+        return message == S_DEVICE_DISCONNECTED_MSG || message == S_CONNECTION_TIMEOUT_MSG ||
+            message == S_CONNECTION_ERROR_MSG;
+    }
+
+    /**
+     * @return false if the calling thread was interrupted while waiting for room
+     */
+    private boolean enqueue(LogCatMessage message, boolean block) {
+        if (block) {
+            try {
+                mQueue.put(message);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                mDroppedCount.increment();
+                return false;
+            }
+        } else if (!mQueue.offer(message)) {
+            mDroppedCount.increment();
+            return true;
+        }
+        if (message != S_END_MSG) {
+            mQueuedCount.increment();
+        }
+        return true;
+    }
+
+    private void dispatch() {
+        List<LogCatMessage> batch = new ArrayList<>(mBatchSize);
+        boolean end = false;
+        while (!end) {
+            try {
+                batch.add(mQueue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            mQueue.drainTo(batch, mBatchSize - 1);
+            if (batch.get(batch.size() - 1) == S_END_MSG) {
+                batch.remove(batch.size() - 1);
+                end = true;
+            }
+            if (!batch.isEmpty()) {
+                deliver(new ArrayList<>(batch));
+            }
+            batch.clear();
+            if (mReadPaused.get() && mQueue.size() <= mCapacity / 2) {
+                resumeReading();
+            }
         }
     }
+
+    private void deliver(List<LogCatMessage> messages) {
+        LogCatListener[] listeners;
+        synchronized (this) {
+            listeners = mListeners.toArray(new LogCatListener[0]);
+        }
+        // listeners are called outside the lock, so they can add or remove listeners
+        for (LogCatListener l : listeners) {
+            try {
+                l.log(messages);
+            } catch (RuntimeException e) {
+                Log.e("ddms", e);
+            }
+        }
+        mDeliveredCount.add(messages.size());
+    }
+
+    /**
+     * Returns the number of messages accepted in the dispatch queue since the task started.
+     */
+    public long getQueuedCount() {
+        return mQueuedCount.sum();
+    }
+
+    /**
+     * Returns the number of messages dropped because the dispatch queue was full.
+     */
+    public long getDroppedCount() {
+        return mDroppedCount.sum();
+    }
+
+    /**
+     * Returns the number of messages delivered to the listeners.
+     */
+    public long getDeliveredCount() {
+        return mDeliveredCount.sum();
+    }
+
+    /**
+     * Returns the number of messages waiting for the dispatcher.
+     */
+    public int getPendingCount() {
+        return mQueue.size();
+    }
 }
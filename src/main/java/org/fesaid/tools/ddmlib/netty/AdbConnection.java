@@ -4,12 +4,18 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
-import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.EventLoop;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.util.concurrent.ScheduledFuture;
 import java.io.Closeable;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import org.fesaid.tools.ddmlib.AdbCommandRejectedException;
+import org.fesaid.tools.ddmlib.AdbHelper;
 import org.fesaid.tools.ddmlib.TimeoutException;
 import org.fesaid.tools.ddmlib.netty.input.AdbInputHandler;
 import org.fesaid.tools.ddmlib.netty.input.AdbRespondHandler;
@@ -44,26 +50,95 @@ public class AdbConnection implements Closeable {
         }
     }
 
+    /**
+     * Send a request without blocking, the returned future completes once adb answered OKAY, or exceptionally with an
+     * {@link AdbCommandRejectedException}.
+     *
+     * @param message request
+     * @param nextHandlers handlers of the data following the OKAY
+     * @return future of the response
+     */
+    public CompletableFuture<Void> sendAsync(String message, AdbInputHandler... nextHandlers) {
+        AdbRespondHandler adbRespondHandler = new AdbRespondHandler();
+        channel.pipeline().addLast(adbRespondHandler);
+        if (nextHandlers != null && nextHandlers.length > 0) {
+            channel.pipeline().addLast(nextHandlers);
+        }
+        CompletableFuture<Void> future = adbRespondHandler.getRespondFuture();
+        channel.writeAndFlush(Unpooled.wrappedBuffer(AdbHelper.formAdbRequest(message))).addListener(f -> {
+            if (!f.isSuccess()) {
+                future.completeExceptionally(new AdbCommandRejectedException("Send data failed, " +
+                    (Objects.isNull(f.cause()) ? "" : f.cause().getMessage())));
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Complete the future exceptionally if it is not done in time, the timer runs on the event loop of this
+     * connection.
+     *
+     * @param future future to watch
+     * @param timeout timeout, 0 means no timeout
+     * @param timeUnit time unit
+     * @param cause supplier of the exception completing the future on timeout
+     * @return the given future
+     */
+    public <T> CompletableFuture<T> timeout(CompletableFuture<T> future, long timeout, TimeUnit timeUnit,
+        Supplier<? extends Throwable> cause) {
+        if (timeout > 0 && !future.isDone()) {
+            ScheduledFuture<?> task = channel.eventLoop().schedule(() -> future.completeExceptionally(cause.get()),
+                timeout, timeUnit);
+            future.whenComplete((result, throwable) -> task.cancel(false));
+        }
+        return future;
+    }
+
     public boolean isActive() {
         return channel != null && channel.isActive();
     }
 
-    public void buildProxyConnectionIfNecessary(ChannelHandlerContext ctx, String serialNumber) {
+    /**
+     * @return event loop serving this connection, can be used to schedule timers without a dedicated thread
+     */
+    public EventLoop eventLoop() {
+        return channel.eventLoop();
+    }
+
+    public void buildProxyConnectionIfNecessary(ProxyInputHandler proxyInputHandler) {
         if (!alreadyProxy) {
-            channel.pipeline().addLast(new ProxyInputHandler(ctx, serialNumber));
+            channel.pipeline().addLast(proxyInputHandler);
             alreadyProxy = true;
         }
     }
 
-    public void writeAndFlush(ByteBuf buf) {
-        channel.writeAndFlush(buf);
+    public ChannelFuture writeAndFlush(ByteBuf buf) {
+        return channel.writeAndFlush(buf);
+    }
+
+    public boolean isWritable() {
+        return channel.isWritable();
+    }
+
+    public void setWriteBufferWaterMark(WriteBufferWaterMark writeBufferWaterMark) {
+        channel.config().setWriteBufferWaterMark(writeBufferWaterMark);
     }
 
     public synchronized void syncSendAndHandle(byte[] bytes, AdbInputHandler handler, long timeout, TimeUnit timeUnit) {
-        channel.pipeline().addLast(handler);
+        addHandler(handler);
         syncSend(bytes, 0, bytes.length, timeout, timeUnit);
     }
 
+    public void addHandler(AdbInputHandler handler) {
+        channel.pipeline().addLast(handler);
+    }
+
+    public void removeHandler(AdbInputHandler handler) {
+        if (channel.pipeline().context(handler) != null) {
+            channel.pipeline().remove(handler);
+        }
+    }
+
     public synchronized void syncSend(byte[] bytes, int offset, int length, long timeout, TimeUnit timeUnit) {
         try {
             if (timeout > 0) {
@@ -76,6 +151,21 @@ public class AdbConnection implements Closeable {
         }
     }
 
+    /**
+     * Write a header followed by a region of a file, the region is transferred from the file to the socket without
+     * being copied through user space. Does not wait for the write to complete.
+     *
+     * @param header bytes written before the region
+     * @param fileChannel file to read from, must stay open until the returned future completes
+     * @param position position of the region in the file
+     * @param count length of the region
+     * @return future of the region write
+     */
+    public ChannelFuture writeFileRegion(byte[] header, FileChannel fileChannel, long position, long count) {
+        channel.write(Unpooled.wrappedBuffer(header));
+        return channel.writeAndFlush(new SharedFileRegion(fileChannel, position, count));
+    }
+
     public synchronized void syncSend(byte[] bytes, long timeout, TimeUnit timeUnit) {
         syncSend(bytes, 0, bytes.length, timeout, timeUnit);
     }
@@ -0,0 +1,286 @@
+package org.fesaid.tools.ddmlib.netty;
+
+import com.android.annotations.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.extern.slf4j.Slf4j;
+import org.fesaid.tools.ddmlib.AdbCommandRejectedException;
+import org.fesaid.tools.ddmlib.DdmPreferences;
+import org.fesaid.tools.ddmlib.TimeoutException;
+import org.fesaid.tools.ddmlib.thread.NamedThreadFactory;
+
+/**
+ * Pool of pre-warmed connections to the adb server.
+ * <p>The adb server serves exactly one service per connection, so a connection can not be reused once a command has
+ * been sent over it. Instead this pool keeps a bounded number of idle connections per serial number which already
+ * finished the TCP handshake and the {@code host:transport:<serial>} round trip, so a command only pays for its own
+ * service request. Borrowed connections are closed by the caller as usual and the pool refills itself in background.
+ * <p>Idle connections are health-checked when borrowed and evicted after {@link AdbNettyConfig#getConnectionPoolIdleTimeoutMills()}.
+ *
+ * @author Chen Yang/CL10060-N/chen.yang@linecorp.com
+ */
+@Slf4j
+public class AdbConnectionPool implements Closeable {
+    private static final String HOST_KEY_PREFIX = "host-serial:";
+    private static final String TRANSPORT_HEADER = "host:transport:";
+
+    private final AdbConnector connector;
+    private final int sizePerSerial;
+    private final long idleTimeoutNanos;
+    private final Map<String, Partition> partitions = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService executor;
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private volatile boolean closed = false;
+
+    public AdbConnectionPool(AdbConnector connector, AdbNettyConfig config) {
+        this.connector = connector;
+        this.sizePerSerial = Math.max(1, config.getConnectionPoolSizePerSerial());
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.getConnectionPoolIdleTimeoutMills());
+        this.executor = new ScheduledThreadPoolExecutor(1,
+            new NamedThreadFactory(config.getConnectionPoolThreadPrefix(), 1));
+        long evictionPeriod = Math.max(1000, config.getConnectionPoolIdleTimeoutMills() / 2);
+        executor.scheduleWithFixedDelay(this::evict, evictionPeriod, evictionPeriod, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrow a connection which is already switched to the transport of the given device.
+     *
+     * @param address adb server address
+     * @param serialNumber device serial number
+     * @return connection ready to receive a service request, caller must close it
+     * @throws TimeoutException if the transport request timed out
+     * @throws AdbCommandRejectedException if adb rejects the transport request
+     * @throws IOException if connecting to adb failed
+     */
+    public AdbConnection acquire(InetSocketAddress address, String serialNumber) throws TimeoutException,
+        AdbCommandRejectedException, IOException {
+        return doAcquire(address, serialNumber, false);
+    }
+
+    /**
+     * Borrow a plain connection to the adb server, used by host level requests such as {@code host-serial:}.
+     * <p>Host connections are still partitioned by serial number, so they carry the traffic shaping handler of the
+     * device they are used for.
+     *
+     * @param address adb server address
+     * @param serialNumber serial number of the device the request is about
+     * @return connection ready to receive a host request, caller must close it
+     * @throws TimeoutException should never happen for host connections
+     * @throws AdbCommandRejectedException should never happen for host connections
+     * @throws IOException if connecting to adb failed
+     */
+    public AdbConnection acquireHost(InetSocketAddress address, String serialNumber) throws TimeoutException,
+        AdbCommandRejectedException, IOException {
+        return doAcquire(address, serialNumber, true);
+    }
+
+    /**
+     * Borrow an idle connection already switched to the transport of the given device without opening a new one.
+     *
+     * @param address adb server address
+     * @param serialNumber device serial number
+     * @return idle connection, or null if none is available
+     */
+    @Nullable
+    public AdbConnection pollIdle(InetSocketAddress address, String serialNumber) {
+        long begin = System.nanoTime();
+        Partition partition = getPartition(address, serialNumber, false, begin);
+        AdbConnection connection = partition.poll();
+        if (connection != null) {
+            hitCount.increment();
+        } else {
+            missCount.increment();
+        }
+        waitNanos.add(System.nanoTime() - begin);
+        scheduleFill(partition);
+        return connection;
+    }
+
+    /**
+     * Pre-warm transport connections of the given device in background, called when the device comes online.
+     *
+     * @param address adb server address
+     * @param serialNumber device serial number
+     */
+    public void warmUp(InetSocketAddress address, String serialNumber) {
+        scheduleFill(getPartition(address, serialNumber, false, System.nanoTime()));
+    }
+
+    private AdbConnection doAcquire(InetSocketAddress address, String serialNumber, boolean host)
+        throws TimeoutException, AdbCommandRejectedException, IOException {
+        long begin = System.nanoTime();
+        Partition partition = getPartition(address, serialNumber, host, begin);
+        try {
+            AdbConnection connection = partition.poll();
+            if (connection != null) {
+                hitCount.increment();
+                return connection;
+            }
+            missCount.increment();
+            return open(address, serialNumber, host);
+        } finally {
+            waitNanos.add(System.nanoTime() - begin);
+            scheduleFill(partition);
+        }
+    }
+
+    private Partition getPartition(InetSocketAddress address, String serialNumber, boolean host, long acquireNanos) {
+        // the timestamp is updated under the map lock, so evict() can not remove a partition which is being borrowed
+        return partitions.compute(key(address, serialNumber, host), (k, partition) -> {
+            if (partition == null) {
+                partition = new Partition(k, address, serialNumber, host);
+            }
+            partition.lastAcquireNanos = acquireNanos;
+            return partition;
+        });
+    }
+
+    private static String key(InetSocketAddress address, String serialNumber, boolean host) {
+        return address + "/" + (host ? HOST_KEY_PREFIX + serialNumber : serialNumber);
+    }
+
+    private AdbConnection open(InetSocketAddress address, String serialNumber, boolean host) throws TimeoutException,
+        AdbCommandRejectedException, IOException {
+        AdbConnection connection = connector.connect(address, serialNumber);
+        if (!host) {
+            try {
+                connection.sendAndWaitSuccess(TRANSPORT_HEADER + serialNumber, DdmPreferences.getTimeOut(),
+                    TimeUnit.MILLISECONDS);
+            } catch (TimeoutException | AdbCommandRejectedException | RuntimeException e) {
+                connection.close();
+                throw e;
+            }
+        }
+        return connection;
+    }
+
+    private void scheduleFill(Partition partition) {
+        if (!closed && partition.idle.size() < sizePerSerial && partition.filling.compareAndSet(false, true)) {
+            executor.execute(() -> fill(partition));
+        }
+    }
+
+    private void fill(Partition partition) {
+        try {
+            while (!closed && partition.idle.size() < sizePerSerial) {
+                partition.idle.offerLast(new IdleConnection(open(partition.address, partition.serialNumber,
+                    partition.host)));
+            }
+        } catch (Exception e) {
+            log.debug("Pre-warm adb connection for {} failed, {}", partition.serialNumber, e.getMessage());
+        } finally {
+            partition.filling.set(false);
+        }
+    }
+
+    private void evict() {
+        long now = System.nanoTime();
+        for (Partition partition : partitions.values()) {
+            for (IdleConnection idleConnection : partition.idle) {
+                if (!idleConnection.connection.isActive() || now - idleConnection.idleSinceNanos > idleTimeoutNanos) {
+                    if (partition.idle.remove(idleConnection)) {
+                        idleConnection.connection.close();
+                        evictionCount.increment();
+                    }
+                }
+            }
+            if (partition.idle.isEmpty() && now - partition.lastAcquireNanos > idleTimeoutNanos) {
+                // re-check under the map lock, a concurrent borrow may have just refreshed the partition
+                partitions.computeIfPresent(partition.key, (k, current) -> current == partition
+                    && current.idle.isEmpty() && now - current.lastAcquireNanos > idleTimeoutNanos ? null : current);
+            }
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * @return total time callers spent borrowing connections, in nanoseconds
+     */
+    public long getTotalWaitNanos() {
+        return waitNanos.sum();
+    }
+
+    public int getIdleCount() {
+        int count = 0;
+        for (Partition partition : partitions.values()) {
+            count += partition.idle.size();
+        }
+        return count;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        executor.shutdownNow();
+        for (Partition partition : partitions.values()) {
+            IdleConnection idleConnection;
+            while ((idleConnection = partition.idle.pollFirst()) != null) {
+                idleConnection.connection.close();
+            }
+        }
+        partitions.clear();
+    }
+
+    private class Partition {
+        private final String key;
+        private final InetSocketAddress address;
+        private final String serialNumber;
+        private final boolean host;
+        private final Deque<IdleConnection> idle = new ConcurrentLinkedDeque<>();
+        private final AtomicBoolean filling = new AtomicBoolean(false);
+        private volatile long lastAcquireNanos = System.nanoTime();
+
+        private Partition(String key, InetSocketAddress address, String serialNumber, boolean host) {
+            this.key = key;
+            this.address = address;
+            this.serialNumber = serialNumber;
+            this.host = host;
+        }
+
+        private AdbConnection poll() {
+            long now = System.nanoTime();
+            IdleConnection idleConnection;
+            while ((idleConnection = idle.pollFirst()) != null) {
+                if (idleConnection.connection.isActive() && now - idleConnection.idleSinceNanos <= idleTimeoutNanos) {
+                    return idleConnection.connection;
+                }
+                idleConnection.connection.close();
+                evictionCount.increment();
+            }
+            return null;
+        }
+    }
+
+    private static class IdleConnection {
+        private final AdbConnection connection;
+        private final long idleSinceNanos = System.nanoTime();
+
+        private IdleConnection(AdbConnection connection) {
+            this.connection = connection;
+        }
+    }
+}
@@ -4,17 +4,18 @@ import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelDuplexHandler;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandler;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioChannelOption;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
 import io.netty.handler.traffic.GlobalTrafficShapingHandler;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import lombok.extern.slf4j.Slf4j;
-import org.fesaid.tools.ddmlib.thread.NamedThreadFactory;
 
 /**
  * @author Chen Yang/CL10060-N/chen.yang@linecorp.com
@@ -24,18 +25,23 @@ import org.fesaid.tools.ddmlib.thread.NamedThreadFactory;
 public class AdbConnector extends ChannelDuplexHandler {
     private final AdbNettyConfig config;
     private final Bootstrap bootstrap;
+    private final EventLoopGroup eventLoopGroup;
 
     public AdbConnector(AdbNettyConfig config) {
         this.config = config;
+        NettyTransport transport = NettyTransport.of(config);
+        log.info("Adb connector uses {} transport", transport);
+        eventLoopGroup = config.getEventLoopGroup() != null ? config.getEventLoopGroup() :
+            transport.newEventLoopGroup(config.getEventLoopGroupWorkerThreadSize(),
+                config.getEventLoopGroupWorkerPrefix());
         bootstrap = new Bootstrap()
-            .group(new NioEventLoopGroup(config.getEventLoopGroupWorkerThreadSize(),
-                new NamedThreadFactory(config.getEventLoopGroupWorkerPrefix(),
-                    config.getEventLoopGroupWorkerThreadSize())))
-            .channel(NioSocketChannel.class)
+            .group(eventLoopGroup)
+            .channel(transport.socketChannelClass())
             .handler(this)
-            .option(NioChannelOption.CONNECT_TIMEOUT_MILLIS, config.getConnectTimeoutMills())
-            .option(NioChannelOption.TCP_NODELAY, Boolean.TRUE)
-            .option(NioChannelOption.SO_KEEPALIVE, Boolean.TRUE);
+            .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, config.getConnectTimeoutMills())
+            .option(ChannelOption.TCP_NODELAY, Boolean.TRUE)
+            .option(ChannelOption.SO_KEEPALIVE, Boolean.TRUE);
+        transport.configure(bootstrap, config);
     }
 
     public AdbConnection connect(InetSocketAddress adbSockAddr, String serialnumber) throws IOException {
@@ -56,6 +62,55 @@ public class AdbConnector extends ChannelDuplexHandler {
         }
     }
 
+    /**
+     * Connect without blocking the caller, the connect timeout is enforced by the channel option.
+     *
+     * @param adbSockAddr adb server address
+     * @param serialnumber device serial number used to pick the traffic handler, can be null
+     * @return future of the connection
+     */
+    public CompletableFuture<AdbConnection> connectAsync(InetSocketAddress adbSockAddr, String serialnumber) {
+        return connectAsync(this.bootstrap, adbSockAddr, serialnumber);
+    }
+
+    /**
+     * Connect without blocking the caller and register the new channel on the given event loop, so it shares the
+     * thread of another channel and data relayed between them never crosses threads.
+     *
+     * @param adbSockAddr adb server address
+     * @param serialnumber device serial number used to pick the traffic handler, can be null
+     * @param eventLoop event loop of the same transport as this connector
+     * @return future of the connection, completed on the given event loop
+     */
+    public CompletableFuture<AdbConnection> connectAsync(InetSocketAddress adbSockAddr, String serialnumber,
+        EventLoop eventLoop) {
+        return connectAsync(this.bootstrap.clone(eventLoop), adbSockAddr, serialnumber);
+    }
+
+    /**
+     * @return event loop group of the adb connections, either created by this connector or {@link
+     * AdbNettyConfig#getEventLoopGroup()}
+     */
+    public EventLoopGroup getEventLoopGroup() {
+        return eventLoopGroup;
+    }
+
+    private CompletableFuture<AdbConnection> connectAsync(Bootstrap bootstrap, InetSocketAddress adbSockAddr,
+        String serialnumber) {
+        CompletableFuture<AdbConnection> future = new CompletableFuture<>();
+        bootstrap.connect(adbSockAddr).addListener((ChannelFutureListener) f -> {
+            if (f.isSuccess()) {
+                injectTrafficHandler(f.channel(), serialnumber);
+                f.channel().pipeline().remove(this);
+                future.complete(new AdbConnection(f.channel()));
+            } else {
+                future.completeExceptionally(new IOException("connect failed, can not connect to component.",
+                    f.cause()));
+            }
+        });
+        return future;
+    }
+
     private void injectTrafficHandler(Channel channel, String serialNumber) {
         GlobalTrafficShapingHandler globalTrafficHandler =
             config.getTrafficHandlerGetter().getGlobalTrafficHandler();
@@ -1,10 +1,13 @@
 package org.fesaid.tools.ddmlib.netty;
 
+import io.netty.channel.EventLoopGroup;
 import io.netty.util.NettyRuntime;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.experimental.Accessors;
+import org.fesaid.tools.ddmlib.netty.proxy.InMemoryProxyMetrics;
+import org.fesaid.tools.ddmlib.netty.proxy.ProxyMetrics;
 
 /**
  * @author Chen Yang/CL10060-N/chen.yang@linecorp.com
@@ -21,4 +24,64 @@ public class AdbNettyConfig {
     private int eventLoopGroupWorkerThreadSize = NettyRuntime.availableProcessors();
     private int connectTimeoutMills = 10000;
     private TrafficHandlerGetter trafficHandlerGetter = new DefaultTrafficHandlerGetter();
+    private boolean connectionPoolEnabled = false;
+    private String connectionPoolThreadPrefix = "AdbConnectionPool";
+    private int connectionPoolSizePerSerial = 2;
+    private long connectionPoolIdleTimeoutMills = 60000;
+    /**
+     * Use the native epoll transport on linux, falls back to NIO when it can not be loaded.
+     */
+    private boolean epollEnabled = false;
+    private boolean epollEdgeTriggered = true;
+    private boolean epollTcpQuickAck = true;
+    /**
+     * SO_REUSEPORT of the adb proxy listener, only applied with the epoll transport.
+     */
+    private boolean epollReusePort = true;
+    /**
+     * Event loop group shared with the rest of the application, adb connections create their own when it is null. The
+     * transport follows the type of the group, and it is never shut down by this library.
+     */
+    private EventLoopGroup eventLoopGroup;
+    /**
+     * Accept adb proxy connections on the event loops of adb connections instead of a dedicated group.
+     */
+    private boolean proxyShareEventLoopGroup = true;
+    /**
+     * Write buffer water marks of proxied connections, reading from one side of a proxy session pauses while the write
+     * buffer of the other side is above the high water mark, until it drains below the low water mark.
+     */
+    private int proxyWriteBufferLowWaterMark = 32 * 1024;
+    private int proxyWriteBufferHighWaterMark = 64 * 1024;
+    /**
+     * Receives the events of adb proxy sessions, keep a reference to the default to read {@link
+     * InMemoryProxyMetrics#snapshot()}.
+     */
+    private ProxyMetrics proxyMetrics = new InMemoryProxyMetrics();
+    /**
+     * Max number of newly online devices whose monitoring service, avd name and properties are set up concurrently.
+     */
+    private int deviceOnboardingConcurrency = 16;
+    private String deviceOnboardingThreadPrefix = "DeviceOnboarding";
+    /**
+     * Threads shared by background device queries such as property and battery fetches, queries beyond the queue
+     * capacity are rejected.
+     */
+    private int deviceQueryThreadSize = 16;
+    private int deviceQueryQueueCapacity = 4096;
+    private String deviceQueryThreadPrefix = "DeviceQuery";
+    /**
+     * Read jdwp packets of clients into direct buffers instead of heap ones, both are pooled.
+     */
+    private boolean clientReadBufferDirect = false;
+    /**
+     * Messages of a logcat task waiting for its listeners, which are called on a dispatcher thread of the task in
+     * batches of at most {@link #logcatDispatchBatchSize}. Once the queue is full new messages are dropped, or reading
+     * the logcat output is paused until the dispatcher drained half of the queue when
+     * {@link #logcatDispatchBlockOnOverflow} is set. The event loop never blocks in either case.
+     */
+    private int logcatDispatchQueueCapacity = 16384;
+    private int logcatDispatchBatchSize = 1024;
+    private boolean logcatDispatchBlockOnOverflow = false;
+    private String logcatDispatchThreadPrefix = "LogCatDispatcher";
 }
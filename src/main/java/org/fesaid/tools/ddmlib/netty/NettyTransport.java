@@ -0,0 +1,145 @@
+package org.fesaid.tools.ddmlib.netty;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import lombok.extern.slf4j.Slf4j;
+import org.fesaid.tools.ddmlib.thread.NamedThreadFactory;
+
+/**
+ * Netty transport used by the adb connector and the adb proxy.
+ * <p>{@link #EPOLL} is only picked when {@link AdbNettyConfig#isEpollEnabled()} is set and the native library can be
+ * loaded, otherwise {@link #NIO} is used.
+ *
+ * @author Chen Yang/CL10060-N/chen.yang@linecorp.com
+ */
+@Slf4j
+public enum NettyTransport {
+    /**
+     * JDK selector based transport, available everywhere.
+     */
+    NIO {
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threadSize, String threadPrefix) {
+            return new NioEventLoopGroup(threadSize, new NamedThreadFactory(threadPrefix, threadSize));
+        }
+
+        @Override
+        public Class<? extends SocketChannel> socketChannelClass() {
+            return NioSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends ServerChannel> serverChannelClass() {
+            return NioServerSocketChannel.class;
+        }
+
+        @Override
+        public void configure(Bootstrap bootstrap, AdbNettyConfig config) {
+        }
+
+        @Override
+        public void configure(ServerBootstrap bootstrap, AdbNettyConfig config) {
+        }
+    },
+    /**
+     * Linux native epoll transport.
+     */
+    EPOLL {
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threadSize, String threadPrefix) {
+            return new EpollEventLoopGroup(threadSize, new NamedThreadFactory(threadPrefix, threadSize));
+        }
+
+        @Override
+        public Class<? extends SocketChannel> socketChannelClass() {
+            return EpollSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends ServerChannel> serverChannelClass() {
+            return EpollServerSocketChannel.class;
+        }
+
+        @Override
+        public void configure(Bootstrap bootstrap, AdbNettyConfig config) {
+            bootstrap
+                .option(EpollChannelOption.EPOLL_MODE, epollMode(config))
+                .option(EpollChannelOption.TCP_QUICKACK, config.isEpollTcpQuickAck());
+        }
+
+        @Override
+        public void configure(ServerBootstrap bootstrap, AdbNettyConfig config) {
+            bootstrap
+                .option(EpollChannelOption.SO_REUSEPORT, config.isEpollReusePort())
+                .childOption(EpollChannelOption.EPOLL_MODE, epollMode(config))
+                .childOption(EpollChannelOption.TCP_QUICKACK, config.isEpollTcpQuickAck());
+        }
+
+        private EpollMode epollMode(AdbNettyConfig config) {
+            return config.isEpollEdgeTriggered() ? EpollMode.EDGE_TRIGGERED : EpollMode.LEVEL_TRIGGERED;
+        }
+    };
+
+    /**
+     * Create an event loop group of this transport.
+     *
+     * @param threadSize number of event loops
+     * @param threadPrefix thread name prefix
+     * @return event loop group
+     */
+    public abstract EventLoopGroup newEventLoopGroup(int threadSize, String threadPrefix);
+
+    public abstract Class<? extends SocketChannel> socketChannelClass();
+
+    public abstract Class<? extends ServerChannel> serverChannelClass();
+
+    /**
+     * Apply the transport specific options of an outbound connection.
+     *
+     * @param bootstrap client bootstrap
+     * @param config netty config
+     */
+    public abstract void configure(Bootstrap bootstrap, AdbNettyConfig config);
+
+    /**
+     * Apply the transport specific options of a listener and its accepted connections.
+     *
+     * @param bootstrap server bootstrap
+     * @param config netty config
+     */
+    public abstract void configure(ServerBootstrap bootstrap, AdbNettyConfig config);
+
+    /**
+     * Pick the transport matching the config, falls back to {@link #NIO} when epoll is not available. The transport of
+     * a supplied {@link AdbNettyConfig#getEventLoopGroup()} always wins.
+     *
+     * @param config netty config
+     * @return transport to use
+     */
+    public static NettyTransport of(AdbNettyConfig config) {
+        if (config.getEventLoopGroup() != null) {
+            return config.getEventLoopGroup() instanceof EpollEventLoopGroup ? EPOLL : NIO;
+        }
+        if (!config.isEpollEnabled()) {
+            return NIO;
+        }
+        if (Epoll.isAvailable()) {
+            return EPOLL;
+        }
+        log.warn("Epoll transport is not available, fall back to NIO, reason: {}",
+            Epoll.unavailabilityCause() == null ? "unknown" : Epoll.unavailabilityCause().getMessage());
+        return NIO;
+    }
+}
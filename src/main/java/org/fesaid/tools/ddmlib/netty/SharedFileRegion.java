@@ -0,0 +1,22 @@
+package org.fesaid.tools.ddmlib.netty;
+
+import io.netty.channel.DefaultFileRegion;
+import java.nio.channels.FileChannel;
+
+/**
+ * {@link DefaultFileRegion} over a {@link FileChannel} shared by several regions. Releasing the region does not close
+ * the file channel, its owner closes it once every region has been written.
+ *
+ * @author Chen Yang/CL10060-N/chen.yang@linecorp.com
+ */
+class SharedFileRegion extends DefaultFileRegion {
+
+    SharedFileRegion(FileChannel fileChannel, long position, long count) {
+        super(fileChannel, position, count);
+    }
+
+    @Override
+    protected void deallocate() {
+        // the file channel is owned by the caller
+    }
+}
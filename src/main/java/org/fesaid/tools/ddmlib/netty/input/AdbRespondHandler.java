@@ -5,10 +5,12 @@ import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.util.ReferenceCountUtil;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import org.fesaid.tools.ddmlib.AdbCommandRejectedException;
 import org.fesaid.tools.ddmlib.AdbHelper;
 import org.fesaid.tools.ddmlib.TimeoutException;
 
@@ -26,6 +28,8 @@ public class AdbRespondHandler extends ChannelInboundHandlerAdapter implements A
     @Getter
     private String message;
     private Integer messageLength;
+    @Getter
+    private final CompletableFuture<Void> respondFuture = new CompletableFuture<>();
 
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) {
@@ -74,10 +78,24 @@ public class AdbRespondHandler extends ChannelInboundHandlerAdapter implements A
         okay = false;
         message = cause.getMessage();
         respondCountDown.countDown();
+        respondFuture.completeExceptionally(new AdbCommandRejectedException(message));
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+        if (!respondFuture.isDone()) {
+            respondFuture.completeExceptionally(new AdbCommandRejectedException("Connection closed."));
+        }
+        ctx.fireChannelInactive();
     }
 
     private void finish(ChannelHandlerContext ctx, Object msg) {
         respondCountDown.countDown();
+        if (okay) {
+            respondFuture.complete(null);
+        } else {
+            respondFuture.completeExceptionally(new AdbCommandRejectedException(message));
+        }
         unhandledData(ctx, msg);
     }
 
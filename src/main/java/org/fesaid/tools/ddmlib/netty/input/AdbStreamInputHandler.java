@@ -1,50 +1,67 @@
 package org.fesaid.tools.ddmlib.netty.input;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.util.ReferenceCountUtil;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import org.fesaid.tools.ddmlib.IByteBufferShellOutputReceiver;
+import org.fesaid.tools.ddmlib.IFlowControlledShellOutputReceiver;
 import org.fesaid.tools.ddmlib.IShellOutputReceiver;
 import org.fesaid.tools.ddmlib.ShellCommandUnresponsiveException;
 import org.fesaid.tools.ddmlib.TimeoutException;
 
 /**
+ * Hands the output of a shell command to its receiver. A {@link IByteBufferShellOutputReceiver} gets every read as
+ * one {@link ByteBuffer} view of the network buffer, other receivers get the backing array when there is one, or a
+ * copy in slices of at most {@link #MAX_BUFFER_SIZE} bytes. A {@link IFlowControlledShellOutputReceiver} can pause
+ * reading from the connection through auto read.
+ *
  * @author Chen Yang/CL10060-N/chen.yang@linecorp.com
  */
 @Slf4j
 public class AdbStreamInputHandler extends ChannelInboundHandlerAdapter implements AdbInputHandler {
 
-    private static final int BUFFER_SIZE = 1024;
+    private static final int MAX_BUFFER_SIZE = 64 * 1024;
     private IShellOutputReceiver receiver;
     private CountDownLatch respondBeginCountDown = new CountDownLatch(1);
     private CountDownLatch finishCountDown = new CountDownLatch(1);
-    private byte[] response = new byte[BUFFER_SIZE];
+    private byte[] response;
+    @Getter
+    private final CompletableFuture<Void> respondBeginFuture = new CompletableFuture<>();
+    @Getter
+    private final CompletableFuture<Void> finishFuture = new CompletableFuture<>();
 
     public AdbStreamInputHandler(IShellOutputReceiver receiver) {
         this.receiver = receiver;
     }
 
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        if (receiver instanceof IFlowControlledShellOutputReceiver) {
+            ((IFlowControlledShellOutputReceiver) receiver).setReadControl(new AutoReadControl(ctx.channel()));
+        }
+    }
+
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) {
         if (msg instanceof ByteBuf) {
             if (respondBeginCountDown.getCount() > 0) {
                 respondBeginCountDown.countDown();
+                respondBeginFuture.complete(null);
             }
             if (finishCountDown.getCount() > 0) {
                 if (receiver.isCancelled()) {
-                    finishCountDown.countDown();
+                    finish();
                 } else {
-                    while (((ByteBuf) msg).readableBytes() > 0) {
-                        int length = Math.min(((ByteBuf) msg).readableBytes(), BUFFER_SIZE);
-                        ((ByteBuf) msg).readBytes(response, 0, length);
-                        receiver.addOutput(response, 0, length);
-                        if (receiver.isCancelled()) {
-                            finishCountDown.countDown();
-                            break;
-                        }
+                    if (!deliver((ByteBuf) msg)) {
+                        finish();
                     }
                     ReferenceCountUtil.release(msg);
                 }
@@ -56,16 +73,67 @@ public class AdbStreamInputHandler extends ChannelInboundHandlerAdapter implemen
         }
     }
 
+    /**
+     * @return false if the receiver cancelled the command
+     */
+    private boolean deliver(ByteBuf in) {
+        if (in.nioBufferCount() > 0) {
+            for (ByteBuffer buffer : in.nioBuffers()) {
+                if (receiver instanceof IByteBufferShellOutputReceiver) {
+                    ((IByteBufferShellOutputReceiver) receiver).addOutput(buffer);
+                } else if (buffer.hasArray()) {
+                    receiver.addOutput(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                } else {
+                    while (buffer.hasRemaining()) {
+                        int length = Math.min(buffer.remaining(), MAX_BUFFER_SIZE);
+                        buffer.get(responseBuffer(length), 0, length);
+                        receiver.addOutput(response, 0, length);
+                        if (receiver.isCancelled()) {
+                            return false;
+                        }
+                    }
+                }
+                if (receiver.isCancelled()) {
+                    return false;
+                }
+            }
+            in.skipBytes(in.readableBytes());
+            return true;
+        }
+        while (in.isReadable()) {
+            int length = Math.min(in.readableBytes(), MAX_BUFFER_SIZE);
+            in.readBytes(responseBuffer(length), 0, length);
+            receiver.addOutput(response, 0, length);
+            if (receiver.isCancelled()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte[] responseBuffer(int length) {
+        if (response == null || response.length < length) {
+            response = new byte[length];
+        }
+        return response;
+    }
+
     @Override
     public void channelInactive(ChannelHandlerContext ctx) {
         receiver.flush();
-        finishCountDown.countDown();
+        finish();
     }
 
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
         receiver.flush();
+        finish();
+    }
+
+    private void finish() {
         finishCountDown.countDown();
+        respondBeginFuture.complete(null);
+        finishFuture.complete(null);
     }
 
     public void waitResponseBegin(long timeout, TimeUnit timeUnit) throws ShellCommandUnresponsiveException {
@@ -95,4 +163,22 @@ public class AdbStreamInputHandler extends ChannelInboundHandlerAdapter implemen
             throw new RuntimeException("Interrupted", e);
         }
     }
+
+    private static class AutoReadControl implements IFlowControlledShellOutputReceiver.ReadControl {
+        private final Channel channel;
+
+        private AutoReadControl(Channel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void pauseReading() {
+            channel.config().setAutoRead(false);
+        }
+
+        @Override
+        public void resumeReading() {
+            channel.config().setAutoRead(true);
+        }
+    }
 }
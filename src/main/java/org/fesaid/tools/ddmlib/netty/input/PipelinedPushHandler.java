@@ -0,0 +1,192 @@
+package org.fesaid.tools.ddmlib.netty.input;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.DecoderException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.fesaid.tools.ddmlib.AdbHelper;
+import org.fesaid.tools.ddmlib.SyncException;
+import org.fesaid.tools.ddmlib.SyncService;
+import org.fesaid.tools.ddmlib.TimeoutException;
+
+import static org.fesaid.tools.ddmlib.SyncException.SyncError.TRANSFER_PROTOCOL_ERROR;
+import static org.fesaid.tools.ddmlib.SyncService.HEADER_LENGTH;
+import static org.fesaid.tools.ddmlib.SyncService.State.WAIT_ERROR_MESSAGE;
+import static org.fesaid.tools.ddmlib.SyncService.State.WAIT_HEADER;
+
+/**
+ * Matches OKAY/FAIL responses of several in flight SEND/DATA/DONE sequences in order. At most {@code window} files
+ * can be waiting for their response at the same time.
+ *
+ * @author Chen Yang/CL10060-N/chen.yang@linecorp.com
+ */
+public class PipelinedPushHandler extends ByteToMessageDecoder implements AdbInputHandler {
+
+    private final int window;
+    private final Semaphore permits;
+    private final Deque<String> pending = new ArrayDeque<>();
+    private SyncService.State state = WAIT_HEADER;
+    private int dataLength;
+    private volatile SyncException cause;
+
+    public PipelinedPushHandler(int window) {
+        this.window = window;
+        this.permits = new Semaphore(window);
+        setCumulator(COMPOSITE_CUMULATOR);
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        if (cause != null) {
+            in.skipBytes(in.readableBytes());
+            return;
+        }
+        try {
+            decodeResponse(in);
+        } catch (SyncException e) {
+            // fail here rather than throwing, ByteToMessageDecoder would wrap it in a DecoderException and the
+            // reason sent by the device would be lost
+            fail(e);
+            in.skipBytes(in.readableBytes());
+        }
+    }
+
+    private void decodeResponse(ByteBuf in) throws SyncException {
+        switch (state) {
+            case WAIT_HEADER:
+                if (in.readableBytes() >= HEADER_LENGTH) {
+                    handleHeaderRead(in.readSlice(HEADER_LENGTH));
+                }
+                break;
+            case WAIT_ERROR_MESSAGE:
+                if (in.readableBytes() >= dataLength) {
+                    throw new SyncException(TRANSFER_PROTOCOL_ERROR,
+                        pollPending() + ": " + in.readSlice(dataLength).toString(AdbHelper.DEFAULT_CHARSET));
+                }
+                break;
+            case WAIT_DATA:
+            default:
+                throw new RuntimeException("Should never happen.");
+        }
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        if (cause instanceof DecoderException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof SyncException) {
+            fail((SyncException) cause);
+        } else {
+            fail(new SyncException(TRANSFER_PROTOCOL_ERROR, cause));
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        synchronized (this) {
+            if (!pending.isEmpty()) {
+                fail(new SyncException(TRANSFER_PROTOCOL_ERROR, "Connection closed before " + pending.peekFirst() +
+                    " was acknowledged"));
+            }
+        }
+        super.channelInactive(ctx);
+    }
+
+    /**
+     * Reserve a slot for the given file before its SEND request is written, blocks while the window is full.
+     *
+     * @param remotePath remote path of the file, used in error messages
+     * @param timeout max time to wait for the oldest in flight file to be acknowledged
+     * @param timeUnit time unit
+     * @throws SyncException if a previous file failed
+     * @throws TimeoutException if no response arrived in time
+     */
+    public void acquire(String remotePath, long timeout, TimeUnit timeUnit) throws SyncException, TimeoutException {
+        checkFailure();
+        try {
+            if (!permits.tryAcquire(timeout, timeUnit)) {
+                throw new TimeoutException("Wait result timeout.");
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        synchronized (this) {
+            pending.addLast(remotePath);
+        }
+        checkFailure();
+    }
+
+    /**
+     * Wait until every in flight file has been acknowledged.
+     *
+     * @param timeout max time to wait
+     * @param timeUnit time unit
+     * @throws SyncException if any file failed
+     * @throws TimeoutException if the responses did not arrive in time
+     */
+    public void waitFinish(long timeout, TimeUnit timeUnit) throws SyncException, TimeoutException {
+        try {
+            if (!permits.tryAcquire(window, timeout, timeUnit)) {
+                throw new TimeoutException("Wait result timeout.");
+            }
+            permits.release(window);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        checkFailure();
+    }
+
+    private void handleHeaderRead(ByteBuf headerData) throws SyncException {
+        if (isOkayHeader(headerData)) {
+            pollPending();
+            permits.release();
+        } else if (isFailHeader(headerData)) {
+            state = WAIT_ERROR_MESSAGE;
+            dataLength = headerData.getIntLE(4);
+        } else {
+            throw new SyncException(TRANSFER_PROTOCOL_ERROR);
+        }
+    }
+
+    private synchronized String pollPending() throws SyncException {
+        String remotePath = pending.pollFirst();
+        if (remotePath == null) {
+            throw new SyncException(TRANSFER_PROTOCOL_ERROR, "Unexpected sync response");
+        }
+        return remotePath;
+    }
+
+    private void fail(SyncException cause) {
+        if (this.cause == null) {
+            this.cause = cause;
+            // wake up every waiting sender, they will see the failure
+            permits.release(window);
+        }
+    }
+
+    private void checkFailure() throws SyncException {
+        if (cause != null) {
+            throw cause;
+        }
+    }
+
+    private boolean isOkayHeader(ByteBuf headerData) {
+        return headerData.getByte(0) == 'O' &&
+            headerData.getByte(1) == 'K' &&
+            headerData.getByte(2) == 'A' &&
+            headerData.getByte(3) == 'Y';
+    }
+
+    private boolean isFailHeader(ByteBuf headerData) {
+        return headerData.getByte(0) == 'F' &&
+            headerData.getByte(1) == 'A' &&
+            headerData.getByte(2) == 'I' &&
+            headerData.getByte(3) == 'L';
+    }
+}
@@ -2,27 +2,59 @@ package org.fesaid.tools.ddmlib.netty.input;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.ByteToMessageDecoder;
-import java.util.List;
+import io.netty.channel.ChannelInboundHandlerAdapter;
 import lombok.extern.slf4j.Slf4j;
+import org.fesaid.tools.ddmlib.netty.proxy.ProxySession;
 
 /**
+ * Relays the data of the original adb connection to the proxy connection. Buffers are passed through as they are
+ * read, and reading pauses while the proxy connection is not writable.
+ *
  * @author Chen Yang/CL10060-N/chen.yang@linecorp.com
  */
 @Slf4j
-public class ProxyInputHandler extends ByteToMessageDecoder implements AdbInputHandler {
+public class ProxyInputHandler extends ChannelInboundHandlerAdapter implements AdbInputHandler {
 
     private ChannelHandlerContext proxyConnectionCtx;
-    private String serialNumber;
+    private ProxySession session;
+    private ChannelHandlerContext ctx;
 
-    public ProxyInputHandler(ChannelHandlerContext proxyConnectionCtx, String serialNumber) {
+    public ProxyInputHandler(ChannelHandlerContext proxyConnectionCtx, ProxySession session) {
         this.proxyConnectionCtx = proxyConnectionCtx;
-        this.serialNumber = serialNumber;
+        this.session = session;
     }
 
     @Override
-    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
-        proxyConnectionCtx.writeAndFlush(in.readBytes(in.readableBytes()));
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (msg instanceof ByteBuf) {
+            session.addBytesOut(((ByteBuf) msg).readableBytes());
+        }
+        proxyConnectionCtx.writeAndFlush(msg);
+        if (!proxyConnectionCtx.channel().isWritable()) {
+            session.getAdbReadPause().pause(ctx.channel());
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+        if (ctx.channel().isWritable()) {
+            session.getProxyReadPause().resume(proxyConnectionCtx.channel());
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    /**
+     * Resume reading from the adb connection, called once the proxy connection is writable again.
+     */
+    public void resumeRead() {
+        if (ctx != null) {
+            session.getAdbReadPause().resume(ctx.channel());
+        }
     }
 
     @Override
@@ -30,7 +62,7 @@ public class ProxyInputHandler extends ByteToMessageDecoder implements AdbInputH
         if (proxyConnectionCtx.channel().isActive()) {
             proxyConnectionCtx.close();
             log.info("Adb-Proxy {}-{}: Closed, reason: original adb connection is closed",
-                proxyConnectionCtx.channel().id(), serialNumber);
+                proxyConnectionCtx.channel().id(), session.getSerialNumber());
         }
         ctx.close();
     }
@@ -8,8 +8,10 @@ import java.io.IOException;
 import java.nio.channels.FileChannel;
 import java.nio.file.StandardOpenOption;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import lombok.Getter;
 import org.fesaid.tools.ddmlib.AdbHelper;
 import org.fesaid.tools.ddmlib.SyncException;
 import org.fesaid.tools.ddmlib.SyncService;
@@ -38,6 +40,10 @@ public class PullFileHandler extends ByteToMessageDecoder implements AdbInputHan
     private SyncException cause;
     private SyncService.State state = WAIT_HEADER;
     private int dataLength;
+    @Getter
+    private final CompletableFuture<Void> respondBeginFuture = new CompletableFuture<>();
+    @Getter
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
 
     public PullFileHandler(SyncService.ISyncProgressMonitor monitor, File localFile) {
         this.monitor = monitor;
@@ -77,6 +83,7 @@ public class PullFileHandler extends ByteToMessageDecoder implements AdbInputHan
                 throw new SyncException(TRANSFER_PROTOCOL_ERROR);
             } else {
                 respondBegin.countDown();
+                respondBeginFuture.complete(null);
             }
         }
         if (isDataHeader(headerData)) {
@@ -131,6 +138,7 @@ public class PullFileHandler extends ByteToMessageDecoder implements AdbInputHan
             }
         }
         done.countDown();
+        future.complete(null);
     }
 
     @Override
@@ -151,6 +159,18 @@ public class PullFileHandler extends ByteToMessageDecoder implements AdbInputHan
         }
         respondBegin.countDown();
         done.countDown();
+        respondBeginFuture.completeExceptionally(this.cause);
+        future.completeExceptionally(this.cause);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (!future.isDone()) {
+            SyncException closed = new SyncException(TRANSFER_PROTOCOL_ERROR, "Connection closed.");
+            respondBeginFuture.completeExceptionally(closed);
+            future.completeExceptionally(closed);
+        }
+        super.channelInactive(ctx);
     }
 
     public void waitRespondBegin(int out, TimeUnit milliseconds) throws TimeoutException, SyncException {
@@ -4,8 +4,10 @@ import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import lombok.Getter;
 import org.fesaid.tools.ddmlib.AdbHelper;
 import org.fesaid.tools.ddmlib.SyncException;
 import org.fesaid.tools.ddmlib.SyncService;
@@ -27,6 +29,8 @@ public class PushFileHandler extends ByteToMessageDecoder implements AdbInputHan
     private boolean success;
     private SyncException cause;
     private int dataLength;
+    @Getter
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
 
     public PushFileHandler() {
         setCumulator(COMPOSITE_CUMULATOR);
@@ -60,6 +64,15 @@ public class PushFileHandler extends ByteToMessageDecoder implements AdbInputHan
             this.cause = new SyncException(TRANSFER_PROTOCOL_ERROR, cause);
         }
         done.countDown();
+        future.completeExceptionally(this.cause);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (!future.isDone()) {
+            future.completeExceptionally(new SyncException(TRANSFER_PROTOCOL_ERROR, "Connection closed."));
+        }
+        super.channelInactive(ctx);
     }
 
     public void waitFinish(long timeout, TimeUnit timeUnit) throws SyncException, TimeoutException {
@@ -79,6 +92,7 @@ public class PushFileHandler extends ByteToMessageDecoder implements AdbInputHan
         if (isOkayHeader(headerData)) {
             success = true;
             done.countDown();
+            future.complete(null);
         } else if (isFailHeader(headerData)) {
             state = WAIT_ERROR_MESSAGE;
             dataLength = headerData.getIntLE(4);
@@ -4,8 +4,10 @@ import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import lombok.Getter;
 import org.fesaid.tools.ddmlib.SyncService;
 import org.fesaid.tools.ddmlib.TimeoutException;
 import org.fesaid.tools.ddmlib.utils.ArrayHelper;
@@ -18,6 +20,8 @@ public class StatFileHandler extends ByteToMessageDecoder implements AdbInputHan
     private static final int STATE_RESULT_LENGTH = 16;
     private CountDownLatch done = new CountDownLatch(1);
     private SyncService.FileStat stat = null;
+    @Getter
+    private final CompletableFuture<SyncService.FileStat> future = new CompletableFuture<>();
 
     public StatFileHandler() {
         setCumulator(COMPOSITE_CUMULATOR);
@@ -37,6 +41,7 @@ public class StatFileHandler extends ByteToMessageDecoder implements AdbInputHan
                     stat = null;
                 }
                 done.countDown();
+                future.complete(stat);
                 ctx.pipeline().remove(this);
                 if (in.isReadable()) {
                     ctx.fireChannelRead(in);
@@ -5,13 +5,13 @@ import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.WriteBufferWaterMark;
 import lombok.extern.slf4j.Slf4j;
 import org.fesaid.tools.ddmlib.DdmPreferences;
 import org.fesaid.tools.ddmlib.netty.AdbNettyConfig;
-import org.fesaid.tools.ddmlib.thread.NamedThreadFactory;
+import org.fesaid.tools.ddmlib.netty.NettyTransport;
 
 /**
  * @author Chen Yang/CL10060-N/chen.yang@linecorp.com
@@ -24,15 +24,23 @@ public class AdbDeviceProxy extends ChannelInitializer {
     private final EventLoopGroup eventLoopGroupBoss;
     private final EventLoopGroup eventLoopGroupWorker;
     private final ServerBootstrap bootstrap = new ServerBootstrap();
+    private final AdbNettyConfig adbNettyConfig;
+    private final NettyTransport transport;
+    private final boolean ownWorkerGroup;
+    private final WriteBufferWaterMark writeBufferWaterMark;
 
-    private AdbDeviceProxy(AdbNettyConfig adbNettyConfig) {
+    private AdbDeviceProxy(AdbNettyConfig adbNettyConfig, EventLoopGroup adbEventLoopGroup) {
+        this.adbNettyConfig = adbNettyConfig;
+        this.transport = NettyTransport.of(adbNettyConfig);
+        this.ownWorkerGroup = !adbNettyConfig.isProxyShareEventLoopGroup();
+        this.writeBufferWaterMark = new WriteBufferWaterMark(adbNettyConfig.getProxyWriteBufferLowWaterMark(),
+            adbNettyConfig.getProxyWriteBufferHighWaterMark());
         try {
-            eventLoopGroupWorker = new NioEventLoopGroup(adbNettyConfig.getEventLoopGroupWorkerThreadSize(),
-                new NamedThreadFactory(adbNettyConfig.getProxyEventLoopGroupWorkerPrefix(),
-                    adbNettyConfig.getEventLoopGroupWorkerThreadSize()));
-            eventLoopGroupBoss = new NioEventLoopGroup(adbNettyConfig.getEventExecutorGroupThreadSize(),
-                new NamedThreadFactory(adbNettyConfig.getEventExecutorGroupPrefix(),
-                    adbNettyConfig.getEventExecutorGroupThreadSize()));
+            eventLoopGroupWorker = ownWorkerGroup ?
+                transport.newEventLoopGroup(adbNettyConfig.getEventLoopGroupWorkerThreadSize(),
+                    adbNettyConfig.getProxyEventLoopGroupWorkerPrefix()) : adbEventLoopGroup;
+            eventLoopGroupBoss = transport.newEventLoopGroup(adbNettyConfig.getEventExecutorGroupThreadSize(),
+                adbNettyConfig.getEventExecutorGroupPrefix());
         } catch (Exception e) {
             throw new RuntimeException("Adb proxy event loop groups instantiation failed", e);
         }
@@ -41,25 +49,34 @@ public class AdbDeviceProxy extends ChannelInitializer {
 
     @Override
     protected void initChannel(Channel ch) {
-        ch.pipeline().addFirst(new ConnectionProxyHandler());
+        ch.pipeline().addFirst(new ConnectionProxyHandler(writeBufferWaterMark, adbNettyConfig.getProxyMetrics()));
     }
 
-    public static void start(AdbNettyConfig adbNettyConfig) {
+    /**
+     * Start the proxy server.
+     *
+     * @param adbNettyConfig netty config
+     * @param adbEventLoopGroup event loop group of the adb connections, also accepts proxy connections if {@link
+     * AdbNettyConfig#isProxyShareEventLoopGroup()}
+     */
+    public static void start(AdbNettyConfig adbNettyConfig, EventLoopGroup adbEventLoopGroup) {
         if (INSTANCE == null) {
             synchronized (AdbDeviceProxy.class) {
                 if (INSTANCE == null) {
-                    INSTANCE = new AdbDeviceProxy(adbNettyConfig);
+                    INSTANCE = new AdbDeviceProxy(adbNettyConfig, adbEventLoopGroup);
                 }
             }
         }
     }
 
     private void init() {
-        log.info("Adb-Proxy: Initializing...");
+        log.info("Adb-Proxy: Initializing with {} transport...", transport);
         bootstrap
             .group(eventLoopGroupBoss, eventLoopGroupWorker)
-            .channel(NioServerSocketChannel.class)
+            .channel(transport.serverChannelClass())
+            .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, writeBufferWaterMark)
             .childHandler(this);
+        transport.configure(bootstrap, adbNettyConfig);
         try {
             ChannelFuture bindFuture = bootstrap.bind(DdmPreferences.getAdbProxyPort()).sync();
             if (!bindFuture.isSuccess()) {
@@ -74,6 +91,8 @@ public class AdbDeviceProxy extends ChannelInitializer {
 
     public void stop() {
         eventLoopGroupBoss.shutdownGracefully();
-        eventLoopGroupWorker.shutdownGracefully();
+        if (ownWorkerGroup) {
+            eventLoopGroupWorker.shutdownGracefully();
+        }
     }
 }
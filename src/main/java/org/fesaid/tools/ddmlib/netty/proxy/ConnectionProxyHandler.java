@@ -3,16 +3,19 @@ package org.fesaid.tools.ddmlib.netty.proxy;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.WriteBufferWaterMark;
 import io.netty.handler.codec.ByteToMessageDecoder;
-import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import lombok.extern.slf4j.Slf4j;
 import org.fesaid.tools.ddmlib.AdbHelper;
 import org.fesaid.tools.ddmlib.AndroidDebugBridge;
 import org.fesaid.tools.ddmlib.DdmPreferences;
+import org.fesaid.tools.ddmlib.TimeoutException;
 import org.fesaid.tools.ddmlib.netty.AdbConnection;
 import org.fesaid.tools.ddmlib.netty.input.DeviceMonitorHandler;
+import org.fesaid.tools.ddmlib.netty.input.ProxyInputHandler;
 
 import static org.fesaid.tools.ddmlib.DeviceMonitor.ADB_TRACK_DEVICES_COMMAND;
 import static org.fesaid.tools.ddmlib.SyncService.ID_OKAY;
@@ -30,7 +33,21 @@ public class ConnectionProxyHandler extends ByteToMessageDecoder {
     private String header;
     private AdbConnection adbConnection;
     private String serialNumber = "NULL";
-    private boolean originalConnectionHeaderSent = false;
+    private boolean connecting = false;
+    private final WriteBufferWaterMark writeBufferWaterMark;
+    private final ProxyMetrics metrics;
+    private ProxySession session;
+    private ProxyInputHandler proxyInputHandler;
+
+    /**
+     * @param writeBufferWaterMark write buffer water mark of the original adb connection, reading from one side stops
+     * while the other side is above it
+     * @param metrics receives the session events
+     */
+    public ConnectionProxyHandler(WriteBufferWaterMark writeBufferWaterMark, ProxyMetrics metrics) {
+        this.writeBufferWaterMark = writeBufferWaterMark;
+        this.metrics = metrics;
+    }
 
     @Override
     public void channelInactive(ChannelHandlerContext ctx) {
@@ -38,6 +55,41 @@ public class ConnectionProxyHandler extends ByteToMessageDecoder {
             log.info("Adb-Proxy {}-{}: Closed, reason: proxy connection closed", ctx.channel().id(), serialNumber);
             adbConnection.close();
         }
+        if (adbConnection != null) {
+            ReadPause proxyReadPause = session.getProxyReadPause();
+            ReadPause adbReadPause = session.getAdbReadPause();
+            if (proxyReadPause.getPauseCount() > 0 || adbReadPause.getPauseCount() > 0) {
+                log.info("Adb-Proxy {}-{}: Read paused, proxy side {} times for {} ms, adb side {} times for {} ms",
+                    ctx.channel().id(), serialNumber, proxyReadPause.getPauseCount(),
+                    proxyReadPause.getPausedMillis(), adbReadPause.getPauseCount(), adbReadPause.getPausedMillis());
+            }
+            metrics.sessionClosed(session);
+        }
+    }
+
+    /**
+     * @return the session once the request header has been read, null before
+     */
+    public ProxySession getSession() {
+        return session;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (adbConnection != null && !internalBuffer().isReadable() && msg instanceof ByteBuf) {
+            // header already handled, pass the buffer through without cumulating it
+            relay(ctx, (ByteBuf) msg);
+        } else {
+            super.channelRead(ctx, msg);
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable() && proxyInputHandler != null) {
+            proxyInputHandler.resumeRead();
+        }
+        super.channelWritabilityChanged(ctx);
     }
 
     @Override
@@ -52,83 +104,108 @@ public class ConnectionProxyHandler extends ByteToMessageDecoder {
             }
         }
         if (header != null) {
-            if (header.equals(ADB_TRACK_DEVICES_COMMAND)) {
-                handleTrackDevices(ctx, in);
-            } else if (header.startsWith(SPECIFIC_DEVICE_TRANSPORT_HEADER)) {
-                handleTransport(header.replace(SPECIFIC_DEVICE_TRANSPORT_HEADER, ""), ctx, in);
-            } else if (header.startsWith(FORWARD_HEADER)) {
-                handleTransport(header.split(":")[1], ctx, in);
-            } else {
-                log.error("Adb-Proxy {}-{}: Closed, reason: header type not supported yet, {}",
-                    ctx.channel().id(), serialNumber, header);
-                ctx.close();
+            if (adbConnection != null) {
+                forward(ctx, in);
+            } else if (!connecting) {
+                if (header.equals(ADB_TRACK_DEVICES_COMMAND)) {
+                    session = new ProxySession(serialNumber, ProxyCommand.TRACK_DEVICES, metrics);
+                    connect(ctx, this::startTrackDevices);
+                } else if (header.startsWith(SPECIFIC_DEVICE_TRANSPORT_HEADER)) {
+                    handleTransport(header.replace(SPECIFIC_DEVICE_TRANSPORT_HEADER, ""), ProxyCommand.TRANSPORT,
+                        ctx);
+                } else if (header.startsWith(FORWARD_HEADER)) {
+                    handleTransport(header.split(":")[1], ProxyCommand.HOST_SERIAL, ctx);
+                } else {
+                    log.error("Adb-Proxy {}-{}: Closed, reason: header type not supported yet, {}",
+                        ctx.channel().id(), serialNumber, header);
+                    metrics.sessionRejected(serialNumber, ProxyCommand.UNSUPPORTED);
+                    ctx.close();
+                }
             }
         }
     }
 
-    private void handleTransport(String serialNumber, ChannelHandlerContext ctx, ByteBuf in) {
+    private void handleTransport(String serialNumber, ProxyCommand command, ChannelHandlerContext ctx) {
         this.serialNumber = serialNumber;
         if (DdmPreferences.shouldOpenAdbProxy(serialNumber)) {
-            buildProxy(ctx, in);
+            session = new ProxySession(serialNumber, command, metrics);
+            connect(ctx, this::startTransport);
         } else {
             log.info("Adb-Proxy {}-{}: Closed, reason: want to use limited device", ctx.channel().id(), serialNumber);
+            metrics.sessionRejected(serialNumber, command);
             ctx.close();
         }
     }
 
-    private void handleTrackDevices(ChannelHandlerContext ctx, ByteBuf in) {
-        if (createProxyConnectionSuccess(ctx)) {
-            try {
-                if (!originalConnectionHeaderSent) {
-                    // 先发OKAY，保证OKAY在device list之前发送，如果出错了直接断开就可以接受
-                    ctx.writeAndFlush(Unpooled.wrappedBuffer(ID_OKAY));
-                    adbConnection.sendAndWaitSuccess(
-                        header,
-                        DdmPreferences.getTimeOut(),
-                        TimeUnit.MILLISECONDS,
-                        new DeviceMonitorHandler(),
-                        new TrackDevicesFilterHandler(ctx));
-                    originalConnectionHeaderSent = true;
+    private void startTrackDevices(ChannelHandlerContext ctx) {
+        // 先发OKAY，保证OKAY在device list之前发送，如果出错了直接断开就可以接受
+        ctx.writeAndFlush(Unpooled.wrappedBuffer(ID_OKAY));
+        adbConnection.timeout(
+            adbConnection.sendAsync(header, new DeviceMonitorHandler(), new TrackDevicesFilterHandler(ctx, session)),
+            DdmPreferences.getTimeOut(),
+            TimeUnit.MILLISECONDS,
+            () -> new TimeoutException("Wait response timeout."))
+            .whenComplete((result, throwable) -> {
+                if (throwable != null) {
+                    log.info("Adb-Proxy {}-{}: Closed, reason: {}", ctx.channel().id(), serialNumber,
+                        throwable.getMessage());
+                    ctx.close();
                 }
-                if (in.readableBytes() > 0) {
-                    adbConnection.writeAndFlush(in.readBytes(in.readableBytes()));
-                }
-            } catch (Exception e) {
-                log.info("Adb-Proxy {}-{}: Closed, reason: {}", ctx.channel().id(), serialNumber, e.getMessage());
-                ctx.close();
-            }
-        }
+            });
+        forward(ctx, internalBuffer());
     }
 
-    private void buildProxy(ChannelHandlerContext ctx, ByteBuf in) {
-        if (createProxyConnectionSuccess(ctx)) {
-            adbConnection.buildProxyConnectionIfNecessary(ctx, serialNumber);
-            if (!originalConnectionHeaderSent) {
-                adbConnection.writeAndFlush(Unpooled.wrappedBuffer(String.format("%04X%s", headerLength, header)
-                    .getBytes(AdbHelper.DEFAULT_CHARSET)));
-                originalConnectionHeaderSent = true;
-            }
-            if (in.readableBytes() > 0) {
-                adbConnection.writeAndFlush(in.readBytes(in.readableBytes()));
-            }
+    private void startTransport(ChannelHandlerContext ctx) {
+        proxyInputHandler = new ProxyInputHandler(ctx, session);
+        adbConnection.buildProxyConnectionIfNecessary(proxyInputHandler);
+        adbConnection.writeAndFlush(Unpooled.wrappedBuffer(String.format("%04X%s", headerLength, header)
+            .getBytes(AdbHelper.DEFAULT_CHARSET)));
+        forward(ctx, internalBuffer());
+    }
+
+    private void forward(ChannelHandlerContext ctx, ByteBuf in) {
+        if (in.isReadable()) {
+            relay(ctx, in.readRetainedSlice(in.readableBytes()));
         }
     }
 
-    private boolean createProxyConnectionSuccess(ChannelHandlerContext ctx) {
-        if (adbConnection == null) {
-            try {
-                adbConnection = AdbHelper.connect(AndroidDebugBridge.getSocketAddress(), null);
-                log.info("Adb-Proxy {}-{}: Opened, command: {}", ctx.channel().id(),
-                    serialNumber, header);
-                return true;
-            } catch (IOException e) {
-                log.info("Adb-Proxy {}-{}: Closed, reason: create original adb connection failed", ctx.channel().id(),
-                    serialNumber);
-                ctx.close();
-                return false;
-            }
-        } else {
-            return true;
+    private void relay(ChannelHandlerContext ctx, ByteBuf buf) {
+        session.addBytesIn(buf.readableBytes());
+        adbConnection.writeAndFlush(buf);
+        if (!adbConnection.isWritable()) {
+            // resumed by ProxyInputHandler, or TrackDevicesFilterHandler for track-devices, once the adb connection
+            // drained its outbound buffer
+            session.getProxyReadPause().pause(ctx.channel());
         }
     }
+
+    /**
+     * Open the original adb connection on the event loop of the proxy connection, so both channels are served by the
+     * same thread. Reading from the proxy connection is paused meanwhile, bytes already received stay cumulated.
+     */
+    private void connect(ChannelHandlerContext ctx, Consumer<ChannelHandlerContext> onConnected) {
+        connecting = true;
+        ctx.channel().config().setAutoRead(false);
+        long begin = System.nanoTime();
+        AdbHelper.connectAsync(AndroidDebugBridge.getSocketAddress(), ctx.channel().eventLoop())
+            .whenComplete((connection, throwable) -> {
+                if (throwable != null) {
+                    log.info("Adb-Proxy {}-{}: Closed, reason: create original adb connection failed",
+                        ctx.channel().id(), serialNumber);
+                    metrics.connectFailed(serialNumber, session.getCommand());
+                    ctx.close();
+                } else if (!ctx.channel().isActive()) {
+                    connection.close();
+                } else {
+                    adbConnection = connection;
+                    adbConnection.setWriteBufferWaterMark(writeBufferWaterMark);
+                    long connectMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+                    log.info("Adb-Proxy {}-{}: Opened in {} ms, command: {}", ctx.channel().id(), serialNumber,
+                        connectMillis, header);
+                    metrics.sessionOpened(session, connectMillis);
+                    ctx.channel().config().setAutoRead(true);
+                    onConnected.accept(ctx);
+                }
+            });
+    }
 }
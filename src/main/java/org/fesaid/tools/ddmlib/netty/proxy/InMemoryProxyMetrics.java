@@ -0,0 +1,135 @@
+package org.fesaid.tools.ddmlib.netty.proxy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.fesaid.tools.ddmlib.utils.Histogram;
+
+/**
+ * Default {@link ProxyMetrics} keeping counters per serial number and command in memory.
+ *
+ * @author Chen Yang/CL10060-N/chen.yang@linecorp.com
+ */
+public class InMemoryProxyMetrics implements ProxyMetrics {
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+    private final Map<ProxySession, Stats> openSessions = new ConcurrentHashMap<>();
+
+    @Override
+    public void sessionRejected(String serialNumber, ProxyCommand command) {
+        getStats(serialNumber, command).rejected.increment();
+    }
+
+    @Override
+    public void connectFailed(String serialNumber, ProxyCommand command) {
+        getStats(serialNumber, command).connectFailed.increment();
+    }
+
+    @Override
+    public void sessionOpened(ProxySession session, long connectMillis) {
+        Stats s = getStats(session.getSerialNumber(), session.getCommand());
+        s.opened.increment();
+        s.active.increment();
+        s.connectLatency.record(connectMillis);
+        openSessions.put(session, s);
+    }
+
+    @Override
+    public void bytesRelayed(ProxySession session, long bytesIn, long bytesOut) {
+        Stats s = openSessions.get(session);
+        if (s != null) {
+            s.bytesIn.add(bytesIn);
+            s.bytesOut.add(bytesOut);
+        }
+    }
+
+    @Override
+    public void sessionClosed(ProxySession session) {
+        Stats s = openSessions.remove(session);
+        if (s == null) {
+            s = getStats(session.getSerialNumber(), session.getCommand());
+        }
+        s.active.decrement();
+        s.pausedMillis.add(getPausedMillis(session));
+        s.duration.record(session.getDurationMillis());
+    }
+
+    /**
+     * @return current counters of every serial number and command seen so far, including the paused time of the
+     * sessions still open
+     */
+    public List<Snapshot> snapshot() {
+        Map<Stats, Long> openPausedMillis = new HashMap<>();
+        openSessions.forEach((session, s) -> openPausedMillis.merge(s, getPausedMillis(session), Long::sum));
+        List<Snapshot> snapshots = new ArrayList<>(stats.size());
+        stats.values().forEach(s -> snapshots.add(new Snapshot(s.serialNumber, s.command, s.opened.sum(),
+            s.active.sum(), s.rejected.sum(), s.connectFailed.sum(), s.bytesIn.sum(), s.bytesOut.sum(),
+            s.pausedMillis.sum() + openPausedMillis.getOrDefault(s, 0L), s.duration.snapshot(),
+            s.connectLatency.snapshot())));
+        return Collections.unmodifiableList(snapshots);
+    }
+
+    /**
+     * Clears the counters, sessions still open are accounted again from now on.
+     */
+    public void reset() {
+        stats.clear();
+        openSessions.replaceAll((session, s) -> {
+            Stats fresh = getStats(session.getSerialNumber(), session.getCommand());
+            fresh.active.increment();
+            return fresh;
+        });
+    }
+
+    private static long getPausedMillis(ProxySession session) {
+        return session.getProxyReadPause().getPausedMillis() + session.getAdbReadPause().getPausedMillis();
+    }
+
+    private Stats getStats(String serialNumber, ProxyCommand command) {
+        return stats.computeIfAbsent(serialNumber + "/" + command, k -> new Stats(serialNumber, command));
+    }
+
+    private static class Stats {
+        private final String serialNumber;
+        private final ProxyCommand command;
+        private final LongAdder opened = new LongAdder();
+        private final LongAdder active = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder connectFailed = new LongAdder();
+        private final LongAdder bytesIn = new LongAdder();
+        private final LongAdder bytesOut = new LongAdder();
+        private final LongAdder pausedMillis = new LongAdder();
+        private final Histogram duration = new Histogram();
+        private final Histogram connectLatency = new Histogram();
+
+        private Stats(String serialNumber, ProxyCommand command) {
+            this.serialNumber = serialNumber;
+            this.command = command;
+        }
+    }
+
+    /**
+     * Counters of one serial number and command. Bytes are accounted as they are relayed, durations when sessions
+     * close.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Snapshot {
+        private final String serialNumber;
+        private final ProxyCommand command;
+        private final long openedSessions;
+        private final long activeSessions;
+        private final long rejectedSessions;
+        private final long connectFailures;
+        private final long bytesIn;
+        private final long bytesOut;
+        private final long pausedMillis;
+        private final Histogram.Snapshot durationMillis;
+        private final Histogram.Snapshot connectLatencyMillis;
+    }
+}
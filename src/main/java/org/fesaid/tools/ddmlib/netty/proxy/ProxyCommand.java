@@ -0,0 +1,25 @@
+package org.fesaid.tools.ddmlib.netty.proxy;
+
+/**
+ * Kind of request opening an adb proxy session.
+ *
+ * @author Chen Yang/CL10060-N/chen.yang@linecorp.com
+ */
+public enum ProxyCommand {
+    /**
+     * {@code host:transport:<serial>} followed by a device service.
+     */
+    TRANSPORT,
+    /**
+     * {@code host:track-devices}.
+     */
+    TRACK_DEVICES,
+    /**
+     * {@code host-serial:<serial>:<request>}, such as port forwarding.
+     */
+    HOST_SERIAL,
+    /**
+     * Any other request, rejected by the proxy.
+     */
+    UNSUPPORTED
+}
@@ -0,0 +1,53 @@
+package org.fesaid.tools.ddmlib.netty.proxy;
+
+/**
+ * Receives the events of adb proxy sessions, set through {@link org.fesaid.tools.ddmlib.netty.AdbNettyConfig#setProxyMetrics(ProxyMetrics)}.
+ * <p>Methods are called on event loops and must not block.
+ *
+ * @author Chen Yang/CL10060-N/chen.yang@linecorp.com
+ */
+public interface ProxyMetrics {
+
+    /**
+     * A session was refused by {@link org.fesaid.tools.ddmlib.DdmPreferences#shouldOpenAdbProxy(String)} or because
+     * its request is not supported.
+     *
+     * @param serialNumber device serial number, "NULL" if the request has none
+     * @param command request kind
+     */
+    void sessionRejected(String serialNumber, ProxyCommand command);
+
+    /**
+     * The original adb connection of a session could not be opened.
+     *
+     * @param serialNumber device serial number
+     * @param command request kind
+     */
+    void connectFailed(String serialNumber, ProxyCommand command);
+
+    /**
+     * The original adb connection of a session is opened.
+     *
+     * @param session the session
+     * @param connectMillis time spent connecting to adb
+     */
+    void sessionOpened(ProxySession session, long connectMillis);
+
+    /**
+     * Bytes were relayed by a session opened by {@link #sessionOpened(ProxySession, long)}, called for every relayed
+     * buffer.
+     *
+     * @param session the session
+     * @param bytesIn bytes relayed from the proxy client to adb
+     * @param bytesOut bytes relayed from adb to the proxy client
+     */
+    default void bytesRelayed(ProxySession session, long bytesIn, long bytesOut) {
+    }
+
+    /**
+     * A session opened by {@link #sessionOpened(ProxySession, long)} is closed.
+     *
+     * @param session the session
+     */
+    void sessionClosed(ProxySession session);
+}
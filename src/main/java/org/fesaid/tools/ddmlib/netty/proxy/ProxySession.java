@@ -0,0 +1,60 @@
+package org.fesaid.tools.ddmlib.netty.proxy;
+
+import java.util.concurrent.TimeUnit;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+/**
+ * State of one adb proxy session, updated on the event loop of the session.
+ *
+ * @author Chen Yang/CL10060-N/chen.yang@linecorp.com
+ */
+@Getter
+public class ProxySession {
+    private final String serialNumber;
+    private final ProxyCommand command;
+    @Getter(AccessLevel.NONE)
+    private final ProxyMetrics metrics;
+    private final long openNanos = System.nanoTime();
+    /**
+     * Pauses reading from the proxy connection while the adb connection is not writable.
+     */
+    private final ReadPause proxyReadPause = new ReadPause();
+    /**
+     * Pauses reading from the adb connection while the proxy connection is not writable.
+     */
+    private final ReadPause adbReadPause = new ReadPause();
+    /**
+     * Bytes relayed from the proxy client to adb.
+     */
+    private long bytesIn;
+    /**
+     * Bytes relayed from adb to the proxy client.
+     */
+    private long bytesOut;
+
+    /**
+     * @param serialNumber device serial number
+     * @param command request kind
+     * @param metrics receives the relayed bytes
+     */
+    public ProxySession(String serialNumber, ProxyCommand command, ProxyMetrics metrics) {
+        this.serialNumber = serialNumber;
+        this.command = command;
+        this.metrics = metrics;
+    }
+
+    public void addBytesIn(long bytes) {
+        bytesIn += bytes;
+        metrics.bytesRelayed(this, bytes, 0);
+    }
+
+    public void addBytesOut(long bytes) {
+        bytesOut += bytes;
+        metrics.bytesRelayed(this, 0, bytes);
+    }
+
+    public long getDurationMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - openNanos);
+    }
+}
@@ -0,0 +1,56 @@
+package org.fesaid.tools.ddmlib.netty.proxy;
+
+import io.netty.channel.Channel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pauses and resumes reading from one side of a proxy session, and counts how long reading has been paused. Must be
+ * driven from the event loop of the session, getters can be called from any thread.
+ *
+ * @author Chen Yang/CL10060-N/chen.yang@linecorp.com
+ */
+public class ReadPause {
+    private volatile long pausedSinceNanos = -1;
+    private volatile long pausedNanos;
+    private volatile int pauseCount;
+
+    /**
+     * Stop reading from the channel, does nothing if it is already paused.
+     *
+     * @param channel channel to pause
+     */
+    public void pause(Channel channel) {
+        if (channel.config().isAutoRead()) {
+            channel.config().setAutoRead(false);
+            pausedSinceNanos = System.nanoTime();
+            pauseCount++;
+        }
+    }
+
+    /**
+     * Resume reading from the channel if it has been paused by {@link #pause(Channel)}.
+     *
+     * @param channel channel to resume
+     */
+    public void resume(Channel channel) {
+        long pausedSince = pausedSinceNanos;
+        if (pausedSince >= 0) {
+            pausedNanos += System.nanoTime() - pausedSince;
+            pausedSinceNanos = -1;
+            channel.config().setAutoRead(true);
+        }
+    }
+
+    public int getPauseCount() {
+        return pauseCount;
+    }
+
+    /**
+     * @return total paused time in milliseconds, including the current pause
+     */
+    public long getPausedMillis() {
+        long pausedSince = pausedSinceNanos;
+        long total = pausedNanos + (pausedSince >= 0 ? System.nanoTime() - pausedSince : 0);
+        return TimeUnit.NANOSECONDS.toMillis(total);
+    }
+}
@@ -17,9 +17,20 @@ import org.fesaid.tools.ddmlib.netty.input.AdbInputHandler;
 @Slf4j
 class TrackDevicesFilterHandler extends ChannelInboundHandlerAdapter implements AdbInputHandler {
     private ChannelHandlerContext proxyConnectionCtx;
+    private final ProxySession session;
 
-    TrackDevicesFilterHandler(ChannelHandlerContext proxyConnectionCtx) {
+    TrackDevicesFilterHandler(ChannelHandlerContext proxyConnectionCtx, ProxySession session) {
         this.proxyConnectionCtx = proxyConnectionCtx;
+        this.session = session;
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+        // reading from the proxy connection is paused while the adb connection is not writable
+        if (ctx.channel().isWritable()) {
+            session.getProxyReadPause().resume(proxyConnectionCtx.channel());
+        }
+        ctx.fireChannelWritabilityChanged();
     }
 
     @Override
@@ -27,9 +38,9 @@ class TrackDevicesFilterHandler extends ChannelInboundHandlerAdapter implements
         Map<String, IDevice.DeviceState> stateMap = ((Map<String, IDevice.DeviceState>) msg).entrySet().stream()
             .filter(entry -> DdmPreferences.shouldOpenAdbProxy(entry.getKey()))
             .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+        byte[] data;
         if (stateMap.size() == 0) {
-            proxyConnectionCtx.writeAndFlush(Unpooled.wrappedBuffer(String.format("%04X%s", 0, "")
-                .getBytes(AdbHelper.DEFAULT_CHARSET)));
+            data = String.format("%04X%s", 0, "").getBytes(AdbHelper.DEFAULT_CHARSET);
         } else {
             StringBuilder dataBuilder = new StringBuilder();
             stateMap.forEach((key, value) ->
@@ -37,8 +48,10 @@ class TrackDevicesFilterHandler extends ChannelInboundHandlerAdapter implements
                     .append("\t")
                     .append(value.getState())
                     .append("\n"));
-            proxyConnectionCtx.writeAndFlush(Unpooled.wrappedBuffer(String.format("%04X%s", dataBuilder.toString().length(),
-                dataBuilder.toString()).getBytes(AdbHelper.DEFAULT_CHARSET)));
+            data = String.format("%04X%s", dataBuilder.toString().length(), dataBuilder.toString())
+                .getBytes(AdbHelper.DEFAULT_CHARSET);
         }
+        session.addBytesOut(data.length);
+        proxyConnectionCtx.writeAndFlush(Unpooled.wrappedBuffer(data));
     }
 }
@@ -0,0 +1,69 @@
+package org.fesaid.tools.ddmlib.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Lock free histogram of millisecond values over fixed buckets.
+ *
+ * @author Chen Yang/CL10060-N/chen.yang@linecorp.com
+ */
+public class Histogram {
+    /**
+     * Inclusive upper bounds of the buckets, values above the last one fall in an overflow bucket.
+     */
+    private static final long[] BOUNDS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000, 60000,
+        300000, 1800000};
+
+    private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length + 1);
+    private final LongAdder sum = new LongAdder();
+
+    public void record(long millis) {
+        int index = 0;
+        while (index < BOUNDS.length && millis > BOUNDS[index]) {
+            index++;
+        }
+        counts.incrementAndGet(index);
+        sum.add(millis);
+    }
+
+    public Snapshot snapshot() {
+        long[] copy = new long[counts.length()];
+        long count = 0;
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(BOUNDS.clone(), copy, count, sum.sum());
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Snapshot {
+        /**
+         * Inclusive upper bounds of the buckets, {@code counts} has one more overflow bucket.
+         */
+        private final long[] bounds;
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+
+        /**
+         * @param quantile quantile between 0 and 1
+         * @return upper bound of the bucket holding the quantile, {@link Long#MAX_VALUE} for the overflow bucket
+         */
+        public long getQuantileUpperBound(double quantile) {
+            long rank = (long) Math.ceil(quantile * count);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return i < bounds.length ? bounds[i] : Long.MAX_VALUE;
+                }
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package org.fesaid.tools.ddmlib;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks {@link AllocationsView} against {@link AllocationsParser#parse(ByteBuffer)} on the same REAL data.
+ */
+public class AllocationsViewTest {
+    private static final int MESSAGE_HDR_LEN = 15;
+    private static final String[] CLASS_NAMES = {"Ljava/lang/String;", "[I", "[[Ljava/lang/Object;", "J",
+        "Lcom/example/Foo;", "Lcom/example/Foo$Bar;", "Landroid/os/Debug;"};
+    private static final String[] METHOD_NAMES = {"<init>", "run", "onCreate", "toString", "valueOf"};
+    private static final String[] FILE_NAMES = {"Foo.java", "Bar.java", "Debug.java"};
+
+    @Test
+    public void matchesParser() {
+        assertMatchesParser(build(9, 8, 300));
+    }
+
+    @Test
+    public void skipsExtraHeaderAndFrameBytes() {
+        assertMatchesParser(build(12, 10, 300));
+    }
+
+    @Test
+    public void noAllocations() {
+        ByteBuffer data = build(9, 8, 0);
+        Assert.assertEquals(0, AllocationsParser.parse(data.duplicate()).length);
+        AllocationsView view = AllocationsParser.index(data);
+        Assert.assertEquals(0, view.size());
+        Assert.assertEquals(0, view.toArray().length);
+        Assert.assertTrue(view.aggregateByClass().isEmpty());
+        Assert.assertTrue(view.aggregateByTopFrame().isEmpty());
+        Assert.assertTrue(view.aggregateByThread().isEmpty());
+    }
+
+    @Test
+    public void overflowedEntryCountWalksRecords() {
+        ByteBuffer data = build(9, 8, 300);
+        // older VMs report 0 for 65536 records, the view finds the records up to the string table
+        data.putShort(3, (short) 0);
+        AllocationsView view = AllocationsParser.index(data);
+        Assert.assertEquals(300, view.size());
+        assertSameAllocations(AllocationsParser.parse(build(9, 8, 300)), view.toArray());
+    }
+
+    @Test
+    public void readsSingleRecords() {
+        AllocationsView view = AllocationsParser.index(build(9, 8, 5));
+        // record 0 has no stack trace, record 3 has 3 frames
+        Assert.assertEquals(0, view.getStackDepth(0));
+        Assert.assertEquals(3, view.getStackDepth(3));
+        Assert.assertEquals(5, view.getAllocNumber(0));
+        Assert.assertEquals("java.lang.String", view.getAllocatedClass(0));
+        Assert.assertEquals("int[]", view.getAllocatedClass(1));
+        Assert.assertEquals("java.lang.Object[][]", view.getAllocatedClass(2));
+        Assert.assertEquals("long", view.getAllocatedClass(3));
+        Assert.assertEquals(new StackTraceElement("long", "valueOf", "Foo.java", 19), view.getStackFrame(3, 0));
+        try {
+            view.getStackFrame(3, 3);
+            Assert.fail();
+        } catch (IndexOutOfBoundsException expected) {
+            // only 3 frames
+        }
+        try {
+            view.get(5);
+            Assert.fail();
+        } catch (IndexOutOfBoundsException expected) {
+            // only 5 records
+        }
+    }
+
+    private static void assertMatchesParser(ByteBuffer data) {
+        AllocationInfo[] parsed = AllocationsParser.parse(data.duplicate());
+        AllocationsView view = AllocationsParser.index(data);
+        Assert.assertEquals(parsed.length, view.size());
+        assertSameAllocations(parsed, view.toArray());
+        assertSameGroups(group(parsed, AllocationInfo::getAllocatedClass), view.aggregateByClass());
+        assertSameGroups(group(parsed, a -> a.getStackTrace().length == 0 ? null : a.getStackTrace()[0]),
+            view.aggregateByTopFrame());
+        assertSameGroups(group(parsed, AllocationInfo::getThreadId), view.aggregateByThread());
+    }
+
+    private static void assertSameAllocations(AllocationInfo[] expected, AllocationInfo[] actual) {
+        Assert.assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertEquals(expected[i].getAllocNumber(), actual[i].getAllocNumber());
+            Assert.assertEquals(expected[i].getAllocatedClass(), actual[i].getAllocatedClass());
+            Assert.assertEquals(expected[i].getSize(), actual[i].getSize());
+            Assert.assertEquals(expected[i].getThreadId(), actual[i].getThreadId());
+            Assert.assertArrayEquals(expected[i].getStackTrace(), actual[i].getStackTrace());
+        }
+    }
+
+    private static <K> Map<K, List<Long>> group(AllocationInfo[] allocations, Function<AllocationInfo, K> key) {
+        Map<K, List<Long>> groups = new HashMap<>();
+        for (AllocationInfo allocation : allocations) {
+            groups.computeIfAbsent(key.apply(allocation), k -> new ArrayList<>()).add((long) allocation.getSize());
+        }
+        return groups;
+    }
+
+    private static <K> void assertSameGroups(Map<K, List<Long>> expected, List<AllocationsView.Group<K>> actual) {
+        Assert.assertEquals(expected.size(), actual.size());
+        long previousSize = Long.MAX_VALUE;
+        for (AllocationsView.Group<K> group : actual) {
+            List<Long> sizes = expected.get(group.getKey());
+            Assert.assertNotNull(sizes);
+            Assert.assertEquals(String.valueOf(group.getKey()), sizes.size(), group.getCount());
+            Assert.assertEquals(String.valueOf(group.getKey()), sizes.stream().mapToLong(Long::longValue).sum(),
+                group.getTotalSize());
+            // largest total size first
+            Assert.assertTrue(group.getTotalSize() <= previousSize);
+            previousSize = group.getTotalSize();
+        }
+    }
+
+    /**
+     * Builds a REAL reply with {@code count} records, record {@code i} has a stack depth of {@code i % 4} and enough
+     * distinct threads and top frames to grow the aggregation tables.
+     */
+    private static ByteBuffer build(int entryHdrLen, int stackFrameLen, int count) {
+        int entriesLength = 0;
+        for (int i = 0; i < count; i++) {
+            entriesLength += entryHdrLen + (i % 4) * stackFrameLen;
+        }
+        int offsetToStrings = MESSAGE_HDR_LEN + entriesLength;
+        ByteBuffer data = ByteBuffer.allocate(offsetToStrings + stringsLength(CLASS_NAMES)
+            + stringsLength(METHOD_NAMES) + stringsLength(FILE_NAMES));
+        data.put((byte) MESSAGE_HDR_LEN);
+        data.put((byte) entryHdrLen);
+        data.put((byte) stackFrameLen);
+        data.putShort((short) count);
+        data.putInt(offsetToStrings);
+        data.putShort((short) CLASS_NAMES.length);
+        data.putShort((short) METHOD_NAMES.length);
+        data.putShort((short) FILE_NAMES.length);
+        for (int i = 0; i < count; i++) {
+            int depth = i % 4;
+            data.putInt(16 + i * 37 % 500);
+            data.putShort((short) (i % 50));
+            data.putShort((short) (i % CLASS_NAMES.length));
+            data.put((byte) depth);
+            data.position(data.position() + entryHdrLen - 9);
+            for (int frame = 0; frame < depth; frame++) {
+                data.putShort((short) ((i + frame) % CLASS_NAMES.length));
+                data.putShort((short) ((i * 3 + frame) % METHOD_NAMES.length));
+                data.putShort((short) (i % FILE_NAMES.length));
+                // -2 for native and -1 for no source
+                data.putShort((short) ((i * 7 + frame) % 40 - 2));
+                data.position(data.position() + stackFrameLen - 8);
+            }
+        }
+        putStrings(data, CLASS_NAMES);
+        putStrings(data, METHOD_NAMES);
+        putStrings(data, FILE_NAMES);
+        data.rewind();
+        return data;
+    }
+
+    private static int stringsLength(String[] strings) {
+        int length = 0;
+        for (String string : strings) {
+            length += 4 + string.length() * 2;
+        }
+        return length;
+    }
+
+    private static void putStrings(ByteBuffer data, String[] strings) {
+        for (String string : strings) {
+            data.putInt(string.length());
+            ByteBufferUtil.putString(data, string);
+        }
+    }
+}
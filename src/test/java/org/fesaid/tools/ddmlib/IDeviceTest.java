@@ -3,7 +3,9 @@ package org.fesaid.tools.ddmlib;
 import io.netty.handler.traffic.GlobalTrafficShapingHandler;
 import io.netty.util.concurrent.DefaultThreadFactory;
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Map;
 import java.util.Objects;
@@ -11,6 +13,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import lombok.extern.slf4j.Slf4j;
 import org.fesaid.tools.ddmlib.netty.AdbNettyConfig;
@@ -142,6 +145,35 @@ public class IDeviceTest implements TrafficHandlerGetter, AndroidDebugBridge.IDe
         log.info("testPushStream end");
     }
 
+    @Test
+    public void testPushThroughput() throws IOException, TimeoutException, AdbCommandRejectedException, SyncException {
+        log.info("testPushThroughput begin");
+        File localFile = File.createTempFile("throughput", ".bin");
+        localFile.deleteOnExit();
+        byte[] block = new byte[1024 * 1024];
+        ThreadLocalRandom.current().nextBytes(block);
+        try (FileOutputStream outputStream = new FileOutputStream(localFile)) {
+            for (int i = 0; i < 64; i++) {
+                outputStream.write(block);
+            }
+        }
+        String remote = "/data/local/tmp/throughput.bin";
+        long begin = System.nanoTime();
+        try (FileInputStream inputStream = new FileInputStream(localFile)) {
+            device.pushFile(inputStream, remote, MODE);
+        }
+        log.info("Stream push: {} MB/s", megabytesPerSecond(localFile.length(), System.nanoTime() - begin));
+        begin = System.nanoTime();
+        device.pushFile(localFile.getAbsolutePath(), remote);
+        log.info("File region push: {} MB/s", megabytesPerSecond(localFile.length(), System.nanoTime() - begin));
+        Assert.assertTrue(device.isSameWithFile(remote, new FileInputStream(localFile)));
+        log.info("testPushThroughput end");
+    }
+
+    private static double megabytesPerSecond(long bytes, long nanos) {
+        return bytes / 1024.0 / 1024.0 / (nanos / 1e9);
+    }
+
     @Test
     public void testPullFile() throws TimeoutException, AdbCommandRejectedException, SyncException, IOException {
         log.info("testPullFile begin");
@@ -161,4 +193,21 @@ public class IDeviceTest implements TrafficHandlerGetter, AndroidDebugBridge.IDe
         log.info("testIsSameFile end");
     }
 
+    @Test
+    public void testAsyncPushPullFile() throws Exception {
+        log.info("testAsyncPushPullFile begin");
+        String remote = "/data/local/tmp/testFile.jpg";
+        String local = Objects.requireNonNull(this.getClass().getClassLoader().getResource("testFile.jpg")).getFile();
+        String pulled = System.getProperty("java.io.tmpdir") + "testFileAsync.jpg";
+        device.pushFileAsync(local, remote)
+            .thenCompose(v -> device.statFileAsync(remote))
+            .thenCompose(stat -> {
+                Assert.assertEquals(new File(local).length(), stat.getSize());
+                return device.pullFileAsync(remote, pulled);
+            })
+            .get(30, TimeUnit.SECONDS);
+        Assert.assertEquals(new File(local).length(), new File(pulled).length());
+        log.info("testAsyncPushPullFile end");
+    }
+
 }
\ No newline at end of file
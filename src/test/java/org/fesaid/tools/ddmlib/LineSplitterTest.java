@@ -0,0 +1,106 @@
+package org.fesaid.tools.ddmlib;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LineSplitterTest {
+    private final List<String> lines = new ArrayList<>();
+    private final LineSplitter splitter = new LineSplitter(
+        (data, offset, length) -> lines.add(new String(data, offset, length, StandardCharsets.UTF_8)));
+
+    @Test
+    public void splitsLinesAndStripsCarriageReturn() {
+        split("first\nsecond\r\n\nthird");
+        Assert.assertEquals(Arrays.asList("first", "second", ""), lines);
+        Assert.assertEquals("third", splitter.takeUnfinishedLine(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void carriesUnfinishedLineAcrossChunks() {
+        split("par");
+        split("tial");
+        Assert.assertTrue(lines.isEmpty());
+        split(" line\nnext");
+        Assert.assertEquals(Arrays.asList("partial line"), lines);
+        Assert.assertEquals("next", splitter.takeUnfinishedLine(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void handlesCrLfSplitAcrossChunks() {
+        split("one\r");
+        split("\ntwo\r");
+        split("\n");
+        Assert.assertEquals(Arrays.asList("one", "two"), lines);
+    }
+
+    @Test
+    public void keepsUtf8CharacterSplitAcrossChunks() {
+        byte[] data = "h\u00e9llo \u4e16\u754c\n".getBytes(StandardCharsets.UTF_8);
+        // cut inside the two byte e-acute and inside the first three byte character
+        splitter.split(data, 0, 2);
+        splitter.split(data, 2, 6);
+        splitter.split(data, 8, data.length - 8);
+        Assert.assertEquals(Arrays.asList("h\u00e9llo \u4e16\u754c"), lines);
+    }
+
+    @Test
+    public void splitsDirectBuffers() {
+        splitDirect("a\r");
+        splitDirect("\nb\u00e9");
+        splitDirect("c\nd");
+        Assert.assertEquals(Arrays.asList("a", "b\u00e9c"), lines);
+        Assert.assertEquals("d", splitter.takeUnfinishedLine(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void unfinishedLineIsEmptyAfterLineBreak() {
+        split("done\n");
+        Assert.assertEquals("", splitter.takeUnfinishedLine(StandardCharsets.UTF_8));
+        split("again");
+        Assert.assertEquals("again", splitter.takeUnfinishedLine(StandardCharsets.UTF_8));
+        Assert.assertEquals("", splitter.takeUnfinishedLine(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void flushesEmptyLastLine() {
+        List<String> received = new ArrayList<>();
+        MultiLineReceiver receiver = new MultiLineReceiver() {
+            @Override
+            public void processNewLines(String[] lines) {
+                received.addAll(Arrays.asList(lines));
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+        };
+        byte[] data = "line\n".getBytes(StandardCharsets.UTF_8);
+        receiver.addOutput(data, 0, data.length);
+        receiver.flush();
+        Assert.assertEquals(Arrays.asList("line", ""), received);
+
+        // nothing received since the last flush, nothing to flush
+        received.clear();
+        receiver.flush();
+        Assert.assertTrue(received.isEmpty());
+    }
+
+    private void split(String text) {
+        byte[] data = ("xx" + text).getBytes(StandardCharsets.UTF_8);
+        splitter.split(data, 2, data.length - 2);
+    }
+
+    private void splitDirect(String text) {
+        byte[] data = text.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data).flip();
+        splitter.split(buffer);
+        Assert.assertFalse(buffer.hasRemaining());
+    }
+}
@@ -0,0 +1,149 @@
+package org.fesaid.tools.ddmlib.log;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.fesaid.tools.ddmlib.log.LogReceiver.LogEntry;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LogReceiverTest {
+    private final List<LogEntry> entries = new ArrayList<>();
+    private final ByteArrayOutputStream rawData = new ByteArrayOutputStream();
+    private final LogReceiver receiver = new LogReceiver(new LogReceiver.ILogListener() {
+        @Override
+        public void newEntry(LogEntry entry) {
+            entries.add(entry);
+        }
+
+        @Override
+        public void newData(byte[] data, int offset, int length) {
+            rawData.write(data, offset, length);
+        }
+    });
+
+    @Test
+    public void readsV1Entries() {
+        // v1 entries have a 16 bit padding where newer ones have their header size
+        byte[] data = concat(entry(0, 1, "first"), entry(0, 2, "second"));
+        add(data, 0, data.length);
+        assertEntries(1, "first", 2, "second");
+        Assert.assertArrayEquals(data, rawData.toByteArray());
+    }
+
+    @Test
+    public void skipsHeaderExtensionOfV2AndV4Entries() {
+        byte[] data = concat(entry(24, 1, "euid"), entry(28, 2, "uid"), entry(24, 3, ""), entry(28, 4, "last"));
+        add(data, 0, data.length);
+        assertEntries(1, "euid", 2, "uid", 3, "", 4, "last");
+    }
+
+    @Test
+    public void readsEntriesSplitAtEveryOffset() {
+        byte[] data = concat(entry(0, 1, "v1"), entry(28, 2, "v4 entry"), entry(24, 3, "v2"));
+        for (int split = 0; split <= data.length; split++) {
+            entries.clear();
+            LogReceiver receiver = new LogReceiver(new LogReceiver.ILogListener() {
+                @Override
+                public void newEntry(LogEntry entry) {
+                    entries.add(entry);
+                }
+
+                @Override
+                public void newData(byte[] data, int offset, int length) {
+                }
+            });
+            receiver.addOutput(data, 0, split);
+            receiver.addOutput(data, split, data.length - split);
+            assertEntries(1, "v1", 2, "v4 entry", 3, "v2");
+        }
+    }
+
+    @Test
+    public void readsEntriesOneByteAtATime() {
+        byte[] data = concat(entry(28, 1, "header"), entry(28, 2, "and extension"), entry(0, 3, "split"));
+        for (int i = 0; i < data.length; i++) {
+            add(data, i, 1);
+        }
+        assertEntries(1, "header", 2, "and extension", 3, "split");
+        Assert.assertArrayEquals(data, rawData.toByteArray());
+    }
+
+    @Test
+    public void readsHeaderFields() {
+        ByteBuffer header = ByteBuffer.allocate(28).order(ByteOrder.LITTLE_ENDIAN);
+        header.putShort((short) 2).putShort((short) 28).putInt(1234).putInt(5678).putInt(0x80000000).putInt(999)
+            .putInt(-1).putInt(-1);
+        byte[] data = concat(header.array(), new byte[] {4, 0});
+        add(data, 0, data.length);
+        Assert.assertEquals(1, entries.size());
+        LogEntry entry = entries.get(0);
+        Assert.assertEquals(2, entry.len);
+        Assert.assertEquals(1234, entry.pid);
+        Assert.assertEquals(5678, entry.tid);
+        Assert.assertEquals(0x80000000, entry.sec);
+        Assert.assertEquals(999, entry.nsec);
+        Assert.assertArrayEquals(new byte[] {4, 0}, entry.data);
+    }
+
+    @Test
+    public void stopsWhenCancelled() {
+        receiver.cancel();
+        byte[] data = entry(0, 1, "ignored");
+        add(data, 0, data.length);
+        Assert.assertTrue(receiver.isCancelled());
+        Assert.assertTrue(entries.isEmpty());
+    }
+
+    /**
+     * Adds the data with some bytes around it, so offsets into the array are used.
+     */
+    private void add(byte[] data, int offset, int length) {
+        byte[] padded = new byte[length + 4];
+        Arrays.fill(padded, (byte) 0x55);
+        System.arraycopy(data, offset, padded, 2, length);
+        receiver.addOutput(padded, 2, length);
+    }
+
+    private void assertEntries(Object... pidsAndPayloads) {
+        Assert.assertEquals(pidsAndPayloads.length / 2, entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            LogEntry entry = entries.get(i);
+            Assert.assertEquals(pidsAndPayloads[i * 2], entry.pid);
+            Assert.assertEquals(pidsAndPayloads[i * 2 + 1], new String(entry.data, StandardCharsets.UTF_8));
+            Assert.assertEquals(entry.data.length, entry.len);
+        }
+    }
+
+    /**
+     * @param headerSize header size of v2 and later entries, 0 for the padding of v1 entries
+     */
+    private static byte[] entry(int headerSize, int pid, String payload) {
+        byte[] data = payload.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer entry = ByteBuffer.allocate(Math.max(20, headerSize) + data.length).order(ByteOrder.LITTLE_ENDIAN);
+        entry.putShort((short) data.length);
+        entry.putShort((short) headerSize);
+        entry.putInt(pid);
+        entry.putInt(pid + 1);
+        entry.putInt(1500000000);
+        entry.putInt(123456789);
+        // euid, lid or uid of newer headers, never part of the payload
+        while (entry.position() < headerSize) {
+            entry.put((byte) 0x7f);
+        }
+        entry.put(data);
+        return entry.array();
+    }
+
+    private static byte[] concat(byte[]... arrays) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] array : arrays) {
+            out.write(array, 0, array.length);
+        }
+        return out.toByteArray();
+    }
+}
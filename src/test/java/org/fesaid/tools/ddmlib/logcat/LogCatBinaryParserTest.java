@@ -0,0 +1,108 @@
+package org.fesaid.tools.ddmlib.logcat;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import org.fesaid.tools.ddmlib.Log.LogLevel;
+import org.fesaid.tools.ddmlib.log.LogReceiver.LogEntry;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LogCatBinaryParserTest {
+
+    @Test
+    public void parsesHeader() {
+        LogEntry entry = entry(4, "ActivityManager\0Start proc\0");
+        entry.pid = 1234;
+        entry.tid = 5678;
+        entry.sec = 1517949446;
+        entry.nsec = 554000000;
+        LogCatMessage message = LogCatBinaryParser.parse(entry, null);
+        Assert.assertNotNull(message);
+        Assert.assertEquals(LogLevel.INFO, message.getLogLevel());
+        Assert.assertEquals(1234, message.getPid());
+        Assert.assertEquals(5678, message.getTid());
+        Assert.assertEquals("?", message.getAppName());
+        Assert.assertEquals("ActivityManager", message.getTag());
+        Assert.assertEquals(Instant.ofEpochSecond(1517949446, 554000000), message.getHeader().getTimestampInstant());
+        Assert.assertEquals(Arrays.asList("Start proc"), message.getMessage());
+    }
+
+    @Test
+    public void readsSecondsAsUnsigned() {
+        LogEntry entry = entry(4, "tag\0message\0");
+        entry.sec = 0x80000000;
+        Assert.assertEquals(Instant.ofEpochSecond(0x80000000L),
+            LogCatBinaryParser.parse(entry, null).getHeader().getTimestampInstant());
+    }
+
+    @Test
+    public void mapsPriorities() {
+        LogLevel[] levels = {LogLevel.VERBOSE, LogLevel.DEBUG, LogLevel.INFO, LogLevel.WARN, LogLevel.ERROR,
+            LogLevel.ASSERT};
+        for (int i = 0; i < levels.length; i++) {
+            Assert.assertEquals(levels[i], LogCatBinaryParser.parse(entry(i + 2, "tag\0message\0"), null)
+                .getLogLevel());
+        }
+        // unknown, default and silent priorities
+        for (int priority : new int[] {0, 1, 8, 0x7f}) {
+            Assert.assertEquals(LogLevel.WARN, LogCatBinaryParser.parse(entry(priority, "tag\0m\0"), null)
+                .getLogLevel());
+        }
+    }
+
+    @Test
+    public void readsMessageWithoutNul() {
+        LogCatMessage message = LogCatBinaryParser.parse(entry(3, "tag\0no terminator"), null);
+        Assert.assertEquals("tag", message.getTag());
+        Assert.assertEquals(Arrays.asList("no terminator"), message.getMessage());
+    }
+
+    @Test
+    public void splitsMultiLineMessages() {
+        Assert.assertEquals(Arrays.asList("first", "", "third"),
+            LogCatBinaryParser.parse(entry(6, "tag\0first\n\nthird\0"), null).getMessage());
+        // the trailing line breaks are dropped, with or without NUL
+        Assert.assertEquals(Arrays.asList("first", "second"),
+            LogCatBinaryParser.parse(entry(6, "tag\0first\nsecond\r\n\0"), null).getMessage());
+        Assert.assertEquals(Arrays.asList("first", "second"),
+            LogCatBinaryParser.parse(entry(6, "tag\0first\nsecond\n\n"), null).getMessage());
+    }
+
+    @Test
+    public void readsEmptyTagAndMessage() {
+        LogCatMessage message = LogCatBinaryParser.parse(entry(4, "\0\0"), null);
+        Assert.assertEquals("", message.getTag());
+        Assert.assertEquals(Arrays.asList(""), message.getMessage());
+        Assert.assertEquals(Arrays.asList(""), LogCatBinaryParser.parse(entry(4, "tag\0\n\0"), null).getMessage());
+    }
+
+    @Test
+    public void readsUtf8() {
+        LogCatMessage message = LogCatBinaryParser.parse(entry(4, "t\u00e4g\0\u4e16\u754c\0"), null);
+        Assert.assertEquals("t\u00e4g", message.getTag());
+        Assert.assertEquals(Arrays.asList("\u4e16\u754c"), message.getMessage());
+    }
+
+    @Test
+    public void ignoresEntriesWhichAreNotTextLogs() {
+        // binary event logs have no NUL terminated tag
+        Assert.assertNull(LogCatBinaryParser.parse(entry(4, "no tag"), null));
+        Assert.assertNull(LogCatBinaryParser.parse(entry(4, ""), null));
+        LogEntry empty = new LogEntry();
+        empty.data = new byte[0];
+        Assert.assertNull(LogCatBinaryParser.parse(empty, null));
+    }
+
+    private static LogEntry entry(int priority, String payload) {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write(priority);
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        data.write(bytes, 0, bytes.length);
+        LogEntry entry = new LogEntry();
+        entry.data = data.toByteArray();
+        entry.len = entry.data.length;
+        return entry;
+    }
+}
@@ -0,0 +1,160 @@
+package org.fesaid.tools.ddmlib.logcat;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks {@link LogCatHeaderScanner} against the regular expressions it replaced.
+ */
+public class LogCatHeaderScannerTest {
+    private static final String REST = " +(\\d+): *(\\w+) ([VDIWEAF])/(.*?) +]$";
+    private static final Pattern LONG_HEADER =
+        Pattern.compile("^\\[ (\\d\\d-\\d\\d \\d\\d:\\d\\d:\\d\\d\\.\\d\\d\\d)" + REST);
+    private static final Pattern EPOCH_HEADER = Pattern.compile("^\\[ +(\\d+\\.\\d\\d\\d)" + REST);
+
+    private static final String[] LONG_LINES = {
+        "[ 08-18 16:39:11.760  2977: 2988 D/PhoneInterfaceManager ]",
+        "[ 01-01 00:00:00.000 1:1 V/a ]",
+        // hexadecimal, octal and word thread ids
+        "[ 08-18 16:39:11.760  2977:0x1a2b I/HexTid ]",
+        "[ 08-18 16:39:11.760  2977: 0X7FFFFFFF I/HexTid ]",
+        "[ 08-18 16:39:11.760  2977: 0x I/BadHex ]",
+        "[ 08-18 16:39:11.760  2977: 0123 I/OctalTid ]",
+        "[ 08-18 16:39:11.760  2977: 0 I/ZeroTid ]",
+        "[ 08-18 16:39:11.760  2977: main I/WordTid ]",
+        "[ 08-18 16:39:11.760  2977: 2147483648 I/OverflowTid ]",
+        "[ 08-18 16:39:11.760  2977: 123456789 I/NineDigits ]",
+        "[ 08-18 16:39:11.760  99999999999: 1 I/OverflowPid ]",
+        // extra padding
+        "[ 08-18 16:39:11.760        2977:      2988 W/Padded      ]",
+        // tags with spaces and brackets, or no tag at all
+        "[ 08-18 16:39:11.760  2977: 2988 E/Tag With Spaces ]",
+        "[ 08-18 16:39:11.760  2977: 2988 E/ Leading space ]",
+        "[ 08-18 16:39:11.760  2977: 2988 E/a ] b ]",
+        "[ 08-18 16:39:11.760  2977: 2988 E/ ]",
+        "[ 08-18 16:39:11.760  2977: 2988 E/[bracket] ]",
+        "[ 08-18 16:39:11.760  2977: 2988 A/Assert ]",
+        "[ 08-18 16:39:11.760  2977: 2988 F/Fatal ]",
+        // malformed
+        "",
+        "[",
+        "[ ]",
+        "message line",
+        "[  08-18 16:39:11.760  2977: 2988 D/TwoSpaces ]",
+        "[08-18 16:39:11.760  2977: 2988 D/NoSpace ]",
+        "[ 08-18 16:39:11.76  2977: 2988 D/ShortMillis ]",
+        "[ 08-18 16:39:11.7600  2977: 2988 D/LongMillis ]",
+        "[ 8-18 16:39:11.760  2977: 2988 D/ShortMonth ]",
+        "[ 08-18 16-39-11.760  2977: 2988 D/BadTime ]",
+        "[ 08-18 16:39:11.760 2977:2988 D/NoPidPadding ]",
+        "[ 08-18 16:39:11.760  : 2988 D/NoPid ]",
+        "[ 08-18 16:39:11.760  2977 2988 D/NoColon ]",
+        "[ 08-18 16:39:11.760  2977: D/NoTid ]",
+        "[ 08-18 16:39:11.760  2977: 2988  D/TwoSpacesBeforePriority ]",
+        "[ 08-18 16:39:11.760  2977: 2988 X/BadPriority ]",
+        "[ 08-18 16:39:11.760  2977: 2988 d/LowerPriority ]",
+        "[ 08-18 16:39:11.760  2977: 2988 D:NoSlash ]",
+        "[ 08-18 16:39:11.760  2977: 2988 D/NoSpaceBeforeBracket]",
+        "[ 08-18 16:39:11.760  2977: 2988 D/NoBracket ",
+        "[ 08-18 16:39:11.760  2977: 2988 D/Trailing ] ",
+        "[ 08-18 16:39:11.760  2977: 2988 D/Line\nBreak ]",
+        "[ 08-18 16:39:11.760  2977: 2988 D/NextLine\u2028 ]",
+        "[ 08-18 16:39:11.760  2977: 29-88 D/DashTid ]",
+        "[ 08-18 16:39:11.760  2977: 2988 D/",
+        "[ 08-18 16:39:11.760  2977: 2988 D",
+        "[ 08-18 16:39:11.760  ",
+        "[ 08-18 16:39:11.760",
+    };
+
+    private static final String[] EPOCH_LINES = {
+        "[          1517949446.554  2848: 2848 I/MainActivity ]",
+        "[ 0.000 1: 1 V/Zero ]",
+        "[ 1517949446.554  2848:0xb20 I/HexTid ]",
+        "[   1517949446.554      2848:      2848 W/Padded    ]",
+        "[ 1517949446.554  2848: 2848 E/Tag With Spaces ]",
+        // more seconds digits than a long can hold go through the formatter, which fails on more than 19 digits
+        // or on seconds out of the range of Instant, as before
+        "[ 031556889864403199.999  1: 1 I/EighteenDigits ]",
+        "[ 0000000001517949446.554  1: 1 I/NineteenDigits ]",
+        "[ 00000000000000000000001517949446.554  1: 1 I/ManyDigits ]",
+        "[ 999999999999999999.999  1: 1 I/OutOfRange ]",
+        // malformed
+        "[1517949446.554  2848: 2848 I/NoSpace ]",
+        "[ .554  2848: 2848 I/NoSeconds ]",
+        "[ 1517949446  2848: 2848 I/NoMillis ]",
+        "[ 1517949446.55  2848: 2848 I/ShortMillis ]",
+        "[ 1517949446.5544  2848: 2848 I/LongMillis ]",
+        "[ 1517949446.554 2848: 2848 Q/BadPriority ]",
+        "[ 08-18 16:39:11.760  2977: 2988 D/LongFormat ]",
+        "[ 1517949446.554  2848: 2848 I/NoBracket",
+    };
+
+    @Test
+    public void longHeadersMatchPattern() {
+        LogCatHeaderScanner scanner = new LogCatHeaderScanner();
+        for (String line : LONG_LINES) {
+            Matcher matcher = LONG_HEADER.matcher(line);
+            boolean matches = matcher.matches();
+            Assert.assertEquals(describe(line), matches, scanner.scanLong(line));
+            if (matches) {
+                Assert.assertEquals(describe(line), LogCatTimestamp.fromString(matcher.group(1)),
+                    scanner.getTimestamp());
+                assertRest(line, matcher, scanner);
+            }
+        }
+    }
+
+    @Test
+    public void epochHeadersMatchPattern() {
+        LogCatHeaderScanner scanner = new LogCatHeaderScanner();
+        for (String line : EPOCH_LINES) {
+            Matcher matcher = EPOCH_HEADER.matcher(line);
+            boolean matches = matcher.matches();
+            Object expected;
+            try {
+                expected = matches ? LogCatLongEpochMessageParser.EPOCH_TIME_FORMATTER.parse(matcher.group(1),
+                    Instant::from) : null;
+            } catch (DateTimeException e) {
+                expected = DateTimeException.class;
+            }
+            Object actual;
+            try {
+                actual = scanner.scanEpoch(line) ? scanner.getInstant() : null;
+            } catch (DateTimeException e) {
+                actual = DateTimeException.class;
+            }
+            Assert.assertEquals(describe(line), expected, actual);
+            if (expected instanceof Instant) {
+                assertRest(line, matcher, scanner);
+            }
+        }
+    }
+
+    @Test
+    public void scannerIsReusable() {
+        LogCatHeaderScanner scanner = new LogCatHeaderScanner();
+        Assert.assertTrue(scanner.scanLong(LONG_LINES[0]));
+        Assert.assertFalse(scanner.scanLong("message line"));
+        Assert.assertNull(scanner.getTimestamp());
+        Assert.assertTrue(scanner.scanEpoch(EPOCH_LINES[0]));
+        Assert.assertNull(scanner.getTimestamp());
+        Assert.assertEquals("MainActivity", scanner.getTag());
+    }
+
+    private static void assertRest(String line, Matcher matcher, LogCatHeaderScanner scanner) {
+        Assert.assertEquals(describe(line), LogCatMessageParser.parseProcessId(matcher.group(2)),
+            scanner.getProcessId());
+        Assert.assertEquals(describe(line), LogCatMessageParser.parseThreadId(matcher.group(3)),
+            scanner.getThreadId());
+        Assert.assertEquals(describe(line), matcher.group(4).charAt(0), scanner.getPriority());
+        Assert.assertEquals(describe(line), matcher.group(5), scanner.getTag());
+    }
+
+    private static String describe(String line) {
+        return "\"" + line.replace("\n", "\\n") + "\"";
+    }
+}
@@ -0,0 +1,108 @@
+package org.fesaid.tools.ddmlib.netty.proxy;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class InMemoryProxyMetricsTest {
+    private static final String SERIAL = "emulator-5554";
+
+    private final InMemoryProxyMetrics metrics = new InMemoryProxyMetrics();
+
+    @Test
+    public void countsBytesWhileSessionIsOpen() {
+        ProxySession session = new ProxySession(SERIAL, ProxyCommand.TRACK_DEVICES, metrics);
+        metrics.sessionOpened(session, 3);
+        session.addBytesIn(10);
+        session.addBytesOut(100);
+        session.addBytesOut(20);
+
+        InMemoryProxyMetrics.Snapshot open = get(ProxyCommand.TRACK_DEVICES);
+        Assert.assertEquals(1, open.getOpenedSessions());
+        Assert.assertEquals(1, open.getActiveSessions());
+        Assert.assertEquals(10, open.getBytesIn());
+        Assert.assertEquals(120, open.getBytesOut());
+        Assert.assertEquals(1, open.getConnectLatencyMillis().getCount());
+        Assert.assertEquals(3, open.getConnectLatencyMillis().getSum());
+        Assert.assertEquals(0, open.getDurationMillis().getCount());
+
+        metrics.sessionClosed(session);
+        InMemoryProxyMetrics.Snapshot closed = get(ProxyCommand.TRACK_DEVICES);
+        Assert.assertEquals(0, closed.getActiveSessions());
+        Assert.assertEquals(10, closed.getBytesIn());
+        Assert.assertEquals(120, closed.getBytesOut());
+        Assert.assertEquals(1, closed.getDurationMillis().getCount());
+    }
+
+    @Test
+    public void ignoresBytesOfSessionsNotOpened() {
+        ProxySession session = new ProxySession(SERIAL, ProxyCommand.TRANSPORT, metrics);
+        session.addBytesIn(10);
+        Assert.assertTrue(metrics.snapshot().isEmpty());
+        Assert.assertEquals(10, session.getBytesIn());
+    }
+
+    @Test
+    public void keepsCountersPerSerialNumberAndCommand() {
+        ProxySession transport = new ProxySession(SERIAL, ProxyCommand.TRANSPORT, metrics);
+        ProxySession hostSerial = new ProxySession(SERIAL, ProxyCommand.HOST_SERIAL, metrics);
+        metrics.sessionOpened(transport, 1);
+        metrics.sessionOpened(hostSerial, 1);
+        transport.addBytesIn(1);
+        hostSerial.addBytesIn(2);
+        metrics.sessionRejected("NULL", ProxyCommand.UNSUPPORTED);
+        metrics.connectFailed(SERIAL, ProxyCommand.TRANSPORT);
+
+        Assert.assertEquals(3, metrics.snapshot().size());
+        Assert.assertEquals(1, get(ProxyCommand.TRANSPORT).getBytesIn());
+        Assert.assertEquals(1, get(ProxyCommand.TRANSPORT).getConnectFailures());
+        Assert.assertEquals(2, get(ProxyCommand.HOST_SERIAL).getBytesIn());
+        Assert.assertEquals(1, get("NULL", ProxyCommand.UNSUPPORTED).getRejectedSessions());
+    }
+
+    @Test
+    public void includesPausedTimeOfOpenSessions() throws InterruptedException {
+        ProxySession session = new ProxySession(SERIAL, ProxyCommand.TRANSPORT, metrics);
+        metrics.sessionOpened(session, 1);
+        EmbeddedChannel channel = new EmbeddedChannel();
+        session.getAdbReadPause().pause(channel);
+        Thread.sleep(20);
+        Assert.assertTrue(get(ProxyCommand.TRANSPORT).getPausedMillis() >= 20);
+
+        session.getAdbReadPause().resume(channel);
+        long pausedMillis = session.getAdbReadPause().getPausedMillis();
+        Assert.assertEquals(pausedMillis, get(ProxyCommand.TRANSPORT).getPausedMillis());
+        metrics.sessionClosed(session);
+        Assert.assertEquals(pausedMillis, get(ProxyCommand.TRANSPORT).getPausedMillis());
+    }
+
+    @Test
+    public void resetKeepsAccountingOpenSessions() {
+        ProxySession session = new ProxySession(SERIAL, ProxyCommand.TRANSPORT, metrics);
+        metrics.sessionOpened(session, 1);
+        session.addBytesIn(10);
+        metrics.reset();
+
+        InMemoryProxyMetrics.Snapshot reset = get(ProxyCommand.TRANSPORT);
+        Assert.assertEquals(0, reset.getOpenedSessions());
+        Assert.assertEquals(1, reset.getActiveSessions());
+        Assert.assertEquals(0, reset.getBytesIn());
+
+        session.addBytesIn(5);
+        metrics.sessionClosed(session);
+        InMemoryProxyMetrics.Snapshot closed = get(ProxyCommand.TRANSPORT);
+        Assert.assertEquals(0, closed.getActiveSessions());
+        Assert.assertEquals(5, closed.getBytesIn());
+    }
+
+    private InMemoryProxyMetrics.Snapshot get(ProxyCommand command) {
+        return get(SERIAL, command);
+    }
+
+    private InMemoryProxyMetrics.Snapshot get(String serialNumber, ProxyCommand command) {
+        return metrics.snapshot().stream()
+            .filter(s -> s.getSerialNumber().equals(serialNumber) && s.getCommand() == command)
+            .findFirst()
+            .orElseThrow(() -> new AssertionError("no counters for " + serialNumber + "/" + command));
+    }
+}
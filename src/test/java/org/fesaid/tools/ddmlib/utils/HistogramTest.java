@@ -0,0 +1,70 @@
+package org.fesaid.tools.ddmlib.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HistogramTest {
+    private final Histogram histogram = new Histogram();
+
+    @Test
+    public void recordsIntoInclusiveBuckets() {
+        for (long millis : new long[] {0, 1, 2, 3, 5, 6}) {
+            histogram.record(millis);
+        }
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        Assert.assertEquals(6, snapshot.getCount());
+        Assert.assertEquals(17, snapshot.getSum());
+        Assert.assertEquals(snapshot.getBounds().length + 1, snapshot.getCounts().length);
+        // buckets up to 1, 2, 5 and 10 ms
+        Assert.assertEquals(2, snapshot.getCounts()[0]);
+        Assert.assertEquals(1, snapshot.getCounts()[1]);
+        Assert.assertEquals(2, snapshot.getCounts()[2]);
+        Assert.assertEquals(1, snapshot.getCounts()[3]);
+    }
+
+    @Test
+    public void quantileUpperBounds() {
+        for (int i = 0; i < 90; i++) {
+            histogram.record(1);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(80);
+        }
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        Assert.assertEquals(1, snapshot.getQuantileUpperBound(0.5));
+        Assert.assertEquals(1, snapshot.getQuantileUpperBound(0.9));
+        Assert.assertEquals(100, snapshot.getQuantileUpperBound(0.95));
+        Assert.assertEquals(100, snapshot.getQuantileUpperBound(1));
+    }
+
+    @Test
+    public void valuesAboveLastBoundFallInOverflowBucket() {
+        Histogram.Snapshot empty = histogram.snapshot();
+        long lastBound = empty.getBounds()[empty.getBounds().length - 1];
+        histogram.record(lastBound);
+        histogram.record(lastBound + 1);
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        Assert.assertEquals(1, snapshot.getCounts()[snapshot.getCounts().length - 2]);
+        Assert.assertEquals(1, snapshot.getCounts()[snapshot.getCounts().length - 1]);
+        Assert.assertEquals(lastBound, snapshot.getQuantileUpperBound(0.5));
+        Assert.assertEquals(Long.MAX_VALUE, snapshot.getQuantileUpperBound(1));
+    }
+
+    @Test
+    public void emptySnapshot() {
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        Assert.assertEquals(0, snapshot.getCount());
+        Assert.assertEquals(0, snapshot.getSum());
+        Assert.assertEquals(0, snapshot.getQuantileUpperBound(0.99));
+    }
+
+    @Test
+    public void snapshotIsNotUpdated() {
+        histogram.record(3);
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        histogram.record(3);
+        Assert.assertEquals(1, snapshot.getCount());
+        Assert.assertEquals(1, snapshot.getCounts()[2]);
+        Assert.assertEquals(2, histogram.snapshot().getCount());
+    }
+}